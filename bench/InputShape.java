@@ -0,0 +1,100 @@
+package bench;
+
+import java.util.Random;
+
+/**
+ * Shapes of the entries given to the machines by the benchmarks.
+ */
+public enum InputShape {
+
+    /**
+     * Uniformly random entries.
+     */
+    RANDOM {
+        @Override
+        int entry(int i, int size, Random random) {
+            return random.nextInt();
+        }
+    },
+
+    /**
+     * Entries in increasing order.
+     */
+    SORTED {
+        @Override
+        int entry(int i, int size, Random random) {
+            return i;
+        }
+    },
+
+    /**
+     * Entries in decreasing order.
+     */
+    REVERSE {
+        @Override
+        int entry(int i, int size, Random random) {
+            return size - i;
+        }
+    },
+
+    /**
+     * Random entries with only {@code DISTINCT_DUPLICATES} distinct values.
+     */
+    DUPLICATES {
+        @Override
+        int entry(int i, int size, Random random) {
+            return random.nextInt(DISTINCT_DUPLICATES);
+        }
+    },
+
+    /**
+     * Entries increasing up to the middle, then decreasing.
+     */
+    ORGAN_PIPE {
+        @Override
+        int entry(int i, int size, Random random) {
+            return Math.min(i, size - i);
+        }
+    };
+
+    /**
+     * Number of distinct values of {@code DUPLICATES}.
+     */
+    private static final int DISTINCT_DUPLICATES = 16;
+
+    /**
+     * Returns the entry at index {@code i} of an input of this shape.
+     *
+     * @param i
+     *            the index of the entry
+     * @param size
+     *            the number of entries in the input
+     * @param random
+     *            the source of random numbers
+     * @return the entry
+     * @requires 0 <= i < size
+     */
+    abstract int entry(int i, int size, Random random);
+
+    /**
+     * Returns {@code size} entries of this shape; the same {@code seed}
+     * always gives the same entries.
+     *
+     * @param size
+     *            the number of entries
+     * @param seed
+     *            the seed of the random numbers
+     * @return the entries
+     * @requires 0 <= size
+     * @ensures |generate| = size
+     */
+    public final Integer[] generate(int size, long seed) {
+        Random random = new Random(seed);
+        Integer[] entries = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            entries[i] = this.entry(i, size, random);
+        }
+        return entries;
+    }
+
+}
@@ -0,0 +1,141 @@
+package bench;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH benchmarks of the JDK baselines, {@code PriorityQueue} and
+ * {@code Arrays.sort}, on the same inputs as {@code SortingMachineBenchmark}:
+ * {@code add}, {@code removeFirst} and {@code drain} have the same meaning
+ * for the priority queue, and {@code arraysSort} compares with
+ * {@code drain}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-da", "-Xmx4g" })
+public class JdkBaselineBenchmark {
+
+    /**
+     * Order of the entries.
+     */
+    private static final Comparator<Integer> ORDER = Comparator
+            .naturalOrder();
+
+    /**
+     * Number of entries.
+     */
+    @Param({ "10", "1000", "100000", "10000000" })
+    public int size;
+
+    /**
+     * Shape of the entries.
+     */
+    @Param
+    public InputShape shape;
+
+    /**
+     * The entries.
+     */
+    private Integer[] entries;
+
+    /**
+     * Priority queue used by {@code removeFirst}.
+     */
+    private PriorityQueue<Integer> polling;
+
+    /**
+     * Generates the entries.
+     */
+    @Setup
+    public void generate() {
+        this.entries = this.shape.generate(this.size,
+                SortingMachineBenchmark.SEED);
+    }
+
+    /**
+     * Fills the priority queue used by {@code removeFirst} again, outside
+     * the measured call, whenever it is empty.
+     *
+     * @param params
+     *            the parameters of the benchmark run, naming the benchmark
+     */
+    @Setup(Level.Invocation)
+    public void prepare(BenchmarkParams params) {
+        if (params.getBenchmark().endsWith(".removeFirst")
+                && (this.polling == null || this.polling.isEmpty())) {
+            this.polling = this.add();
+        }
+    }
+
+    /**
+     * Adds all of {@code entries} to a new priority queue.
+     *
+     * @return the priority queue
+     */
+    @Benchmark
+    public PriorityQueue<Integer> add() {
+        PriorityQueue<Integer> q = new PriorityQueue<Integer>(ORDER);
+        for (Integer x : this.entries) {
+            q.add(x);
+        }
+        return q;
+    }
+
+    /**
+     * Removes one entry.
+     *
+     * @return the entry removed
+     */
+    @Benchmark
+    public Integer removeFirst() {
+        return this.polling.poll();
+    }
+
+    /**
+     * Adds all of {@code entries} to a new priority queue and removes them
+     * all.
+     *
+     * @param blackhole
+     *            the consumer of the entries removed
+     */
+    @Benchmark
+    public void drain(Blackhole blackhole) {
+        PriorityQueue<Integer> q = this.add();
+        while (!q.isEmpty()) {
+            blackhole.consume(q.poll());
+        }
+    }
+
+    /**
+     * Sorts a copy of {@code entries}.
+     *
+     * @return the sorted copy
+     */
+    @Benchmark
+    public Integer[] arraysSort() {
+        Integer[] copy = this.entries.clone();
+        Arrays.sort(copy, ORDER);
+        return copy;
+    }
+
+}
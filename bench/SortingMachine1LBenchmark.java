@@ -0,0 +1,57 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachine1L;
+
+/**
+ * JMH benchmarks of the reference implementation {@code SortingMachine1L}.
+ * Its sorting is quadratic, so it stops at smaller sizes than the other
+ * benchmarks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-da" })
+public class SortingMachine1LBenchmark extends SortingMachineBenchmark {
+
+    /**
+     * Number of entries.
+     */
+    @Param({ "10", "1000", "10000" })
+    public int size;
+
+    /**
+     * Shape of the entries.
+     */
+    @Param
+    public InputShape shape;
+
+    /**
+     * Generates the entries.
+     */
+    @Setup
+    public void generate() {
+        this.entries = this.shape.generate(this.size, SEED);
+    }
+
+    @Override
+    protected SortingMachine<Integer> newMachine() {
+        return new SortingMachine1L<Integer>(ORDER);
+    }
+
+}
@@ -0,0 +1,103 @@
+package bench;
+
+import java.lang.reflect.Constructor;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import components.sortingmachine.SortingMachine;
+
+/**
+ * JMH benchmarks of {@code SortingMachine5a}, for each heap construction
+ * strategy.
+ *
+ * <p>
+ * JMH only runs benchmarks in a named package, and classes in the default
+ * package, as {@code SortingMachine5a} is, cannot be named from there; so
+ * the machines are made through reflection, and used through the
+ * {@code SortingMachine} interface.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-da", "-Xmx4g" })
+public class SortingMachine5aBenchmark extends SortingMachineBenchmark {
+
+    /**
+     * Number of entries.
+     */
+    @Param({ "10", "1000", "100000", "10000000" })
+    public int size;
+
+    /**
+     * Shape of the entries.
+     */
+    @Param
+    public InputShape shape;
+
+    /**
+     * Heap construction strategy.
+     */
+    @Param({ "RECURSIVE", "BOTTOM_UP", "EAGER" })
+    public String construction;
+
+    /**
+     * Whether the machine is stable.
+     */
+    @Param({ "false" })
+    public boolean stable;
+
+    /**
+     * Constructor of {@code SortingMachine5a} from order, heap construction
+     * strategy and stability.
+     */
+    private Constructor<?> constructor;
+
+    /**
+     * The heap construction strategy named by {@code construction}.
+     */
+    private Object strategy;
+
+    /**
+     * Generates the entries, and looks up the constructor of the machines.
+     *
+     * @throws ReflectiveOperationException
+     *             if {@code SortingMachine5a} is not on the class path
+     */
+    @Setup
+    public void generate() throws ReflectiveOperationException {
+        this.entries = this.shape.generate(this.size, SEED);
+        Class<?> machine = Class.forName("SortingMachine5a");
+        Class<?> strategies = Class
+                .forName("SortingMachine5a$HeapConstruction");
+        this.constructor = machine.getConstructor(Comparator.class,
+                strategies, boolean.class);
+        this.strategy = strategies.getMethod("valueOf", String.class)
+                .invoke(null, this.construction);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected SortingMachine<Integer> newMachine() {
+        try {
+            return (SortingMachine<Integer>) this.constructor.newInstance(ORDER,
+                    this.strategy, this.stable);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type SortingMachine5a", e);
+        }
+    }
+
+}
@@ -0,0 +1,142 @@
+package bench;
+
+import java.util.Comparator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.Blackhole;
+
+import components.sortingmachine.SortingMachine;
+
+/**
+ * JMH benchmarks of the kernel operations of a {@code SortingMachine}, shared
+ * by the implementations compared; each concrete subclass supplies the
+ * machine and its own parameters.
+ *
+ * <p>
+ * {@code changeToExtractionMode} is measured alone, on a machine filled in
+ * insertion mode before each call. {@code removeFirst} is measured one call
+ * at a time, and the machine it removes from is filled again, outside the
+ * measured call, whenever it runs out of entries. Filling the machine
+ * before every call takes much longer than the calls themselves for small
+ * sizes, so the time reported for those is less accurate.
+ */
+public abstract class SortingMachineBenchmark {
+
+    /**
+     * Seed of the random inputs, the same for every implementation.
+     */
+    protected static final long SEED = 2231;
+
+    /**
+     * Order of the entries.
+     */
+    protected static final Comparator<Integer> ORDER = Comparator
+            .naturalOrder();
+
+    /**
+     * The entries added to the machines.
+     */
+    protected Integer[] entries;
+
+    /**
+     * Machine in insertion mode used by {@code changeToExtractionMode}.
+     */
+    private SortingMachine<Integer> inserting;
+
+    /**
+     * Machine in extraction mode used by {@code removeFirst}.
+     */
+    private SortingMachine<Integer> extracting;
+
+    /**
+     * Returns a new, empty machine of the implementation benchmarked.
+     *
+     * @return the machine
+     */
+    protected abstract SortingMachine<Integer> newMachine();
+
+    /**
+     * Returns a new machine in extraction mode with all of {@code entries}.
+     *
+     * @return the machine
+     */
+    private SortingMachine<Integer> filled() {
+        SortingMachine<Integer> m = this.add();
+        m.changeToExtractionMode();
+        return m;
+    }
+
+    /**
+     * Prepares the machine used by the next call, when it is measured alone:
+     * fills a machine in insertion mode for {@code changeToExtractionMode},
+     * and fills the machine used by {@code removeFirst} again when it is
+     * empty.
+     *
+     * @param params
+     *            the parameters of the benchmark run, naming the benchmark
+     */
+    @Setup(Level.Invocation)
+    public void prepare(BenchmarkParams params) {
+        String benchmark = params.getBenchmark();
+        if (benchmark.endsWith(".changeToExtractionMode")) {
+            this.inserting = this.add();
+        } else if (benchmark.endsWith(".removeFirst")
+                && (this.extracting == null || this.extracting.size() == 0)) {
+            this.extracting = this.filled();
+        }
+    }
+
+    /**
+     * Adds all of {@code entries} to a new machine.
+     *
+     * @return the machine
+     */
+    @Benchmark
+    public SortingMachine<Integer> add() {
+        SortingMachine<Integer> m = this.newMachine();
+        for (Integer x : this.entries) {
+            m.add(x);
+        }
+        return m;
+    }
+
+    /**
+     * Switches a machine holding all of {@code entries} to extraction mode.
+     *
+     * @return the machine
+     */
+    @Benchmark
+    public SortingMachine<Integer> changeToExtractionMode() {
+        this.inserting.changeToExtractionMode();
+        return this.inserting;
+    }
+
+    /**
+     * Removes one entry.
+     *
+     * @return the entry removed
+     */
+    @Benchmark
+    public Integer removeFirst() {
+        return this.extracting.removeFirst();
+    }
+
+    /**
+     * Adds all of {@code entries} to a new machine, switches it to extraction
+     * mode and removes them all, i.e., sorts them.
+     *
+     * @param blackhole
+     *            the consumer of the entries removed
+     */
+    @Benchmark
+    public void drain(Blackhole blackhole) {
+        SortingMachine<Integer> m = this.filled();
+        while (m.size() > 0) {
+            blackhole.consume(m.removeFirst());
+        }
+    }
+
+}
@@ -0,0 +1,630 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Append-only buffer of entries stored in a list of array chunks, used by
+ * {@code SortingMachine5a} to stage entries in insertion mode.
+ *
+ * <p>
+ * Unlike {@code Queue1L}, adding an entry does not allocate a node: it is
+ * stored in the last chunk, and a new chunk (as large as all the previous
+ * ones together) is only allocated when that one is full, so no entry is ever
+ * copied while the buffer grows. {@code drainToArray} then hands the entries
+ * over as a single array, either by giving up the only chunk in place or with
+ * one bulk copy per chunk. {@code clear} and {@code recycle} let the owner
+ * keep a chunk, or hand an array back, across cycles instead of allocating,
+ * and {@code adopt} takes over an array already filled with entries.
+ *
+ * @param <T>
+ *            type of entries
+ * @convention <pre>
+ * 0 <= $this.chunkCount <= |$this.chunks|  and
+ * [$this.chunks[0, $this.chunkCount) are not null, and all but the last one
+ *  are full]  and
+ * $this.length = [sum of the number of entries in
+ *                 $this.chunks[0, $this.chunkCount)]  and
+ * 0 <= $this.lastFill <= |$this.chunks[$this.chunkCount - 1]|
+ * </pre>
+ * @correspondence <pre>
+ * this = [concatenation of $this.chunks[0, $this.chunkCount - 1) and
+ *         $this.chunks[$this.chunkCount - 1][0, $this.lastFill)]
+ * </pre>
+ */
+final class ChunkedBuffer<T> implements Iterable<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Size of the first chunk.
+     */
+    private static final int FIRST_CHUNK_SIZE = 16;
+
+    /**
+     * Chunks of entries.
+     */
+    private Object[][] chunks;
+
+    /**
+     * Number of chunks in use.
+     */
+    private int chunkCount;
+
+    /**
+     * Number of entries in the last chunk.
+     */
+    private int lastFill;
+
+    /**
+     * Total number of entries.
+     */
+    private int length;
+
+    /**
+     * Total capacity of the chunks in use.
+     */
+    private long capacity;
+
+    /**
+     * Minimum size of the next chunk, as requested by {@code reserve}.
+     */
+    private int reserved;
+
+    /**
+     * Creator of initial representation; reuses the array of chunks, if any,
+     * releasing the chunks in it.
+     */
+    private void createNewRep() {
+        if (this.chunks == null) {
+            this.chunks = new Object[1][];
+        } else {
+            Arrays.fill(this.chunks, 0, this.chunkCount, null);
+        }
+        this.chunkCount = 0;
+        this.lastFill = 0;
+        this.length = 0;
+        this.capacity = 0;
+        this.reserved = 0;
+    }
+
+    /**
+     * Appends the given array as a new, empty chunk.
+     *
+     * @param chunk
+     *            the new chunk, whose entries are null
+     */
+    private void addChunk(Object[] chunk) {
+        if (this.chunkCount == this.chunks.length) {
+            Object[][] newChunks = new Object[2 * this.chunks.length][];
+            System.arraycopy(this.chunks, 0, newChunks, 0, this.chunkCount);
+            this.chunks = newChunks;
+        }
+        this.chunks[this.chunkCount] = chunk;
+        this.chunkCount++;
+        this.lastFill = 0;
+        this.capacity += chunk.length;
+        this.reserved = 0;
+    }
+
+    /**
+     * Appends a new, empty chunk large enough for at least {@code n} more
+     * entries, and normally at least doubling the capacity.
+     *
+     * @param n
+     *            minimum number of entries the new chunk must hold
+     */
+    private void grow(int n) {
+        long size = Math.max(Math.max(FIRST_CHUNK_SIZE, this.capacity),
+                Math.max(n, this.reserved));
+        this.addChunk(new Object[(int) Math.min(size,
+                Integer.MAX_VALUE - this.length)]);
+    }
+
+    /**
+     * Reports the number of entries that fit in the last chunk.
+     *
+     * @return the free space in the last chunk
+     */
+    private int free() {
+        int free = 0;
+        if (this.chunkCount > 0) {
+            free = this.chunks[this.chunkCount - 1].length - this.lastFill;
+        }
+        return free;
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * No-argument constructor.
+     */
+    ChunkedBuffer() {
+        this.createNewRep();
+    }
+
+    /*
+     * Methods ----------------------------------------------------------------
+     */
+
+    /**
+     * Adds {@code x} at the end of {@code this}.
+     *
+     * @param x
+     *            the entry to be added
+     * @aliases reference x
+     * @updates this
+     * @ensures this = #this * <x>
+     */
+    void add(T x) {
+        if (this.free() == 0) {
+            /*
+             * Double the capacity, without copying anything.
+             */
+            this.grow(1);
+        }
+        this.chunks[this.chunkCount - 1][this.lastFill] = x;
+        this.lastFill++;
+        this.length++;
+    }
+
+    /**
+     * Adds the entries {@code array[from, to)} at the end of {@code this},
+     * with one bulk copy into the free space of the last chunk and, if they do
+     * not all fit there, one more into a single new chunk.
+     *
+     * @param array
+     *            the entries to be added
+     * @param from
+     *            index of the first entry to add
+     * @param to
+     *            index after the last entry to add
+     * @aliases references array[from, to)
+     * @updates this
+     * @requires 0 <= from <= to <= |array|
+     * @ensures this = #this * array[from, to)
+     */
+    void addAll(T[] array, int from, int to) {
+        int n = Math.min(this.free(), to - from);
+        if (n > 0) {
+            System.arraycopy(array, from, this.chunks[this.chunkCount - 1],
+                    this.lastFill, n);
+            this.lastFill += n;
+            this.length += n;
+        }
+        int rest = to - from - n;
+        if (rest > 0) {
+            this.grow(rest);
+            System.arraycopy(array, from + n, this.chunks[this.chunkCount - 1],
+                    0, rest);
+            this.lastFill = rest;
+            this.length += rest;
+        }
+    }
+
+    /**
+     * Makes sure that the next {@code n} entries added fit in at most one
+     * more chunk, so that adding them needs at most one more allocation.
+     *
+     * @param n
+     *            number of entries about to be added
+     * @ensures this = #this
+     */
+    void reserve(int n) {
+        this.reserved = Math.max(this.reserved, n - this.free());
+    }
+
+    /**
+     * Removes all the entries of {@code this}. When they are all in a single
+     * chunk of at most {@code retain} entries, that chunk is kept, emptied,
+     * for the entries added next; otherwise all the chunks are released.
+     *
+     * @param retain
+     *            the largest chunk to keep
+     * @clears this
+     */
+    void clear(int retain) {
+        if (this.chunkCount == 1 && this.chunks[0].length <= retain) {
+            Arrays.fill(this.chunks[0], 0, this.lastFill, null);
+            this.lastFill = 0;
+            this.length = 0;
+            this.reserved = 0;
+        } else {
+            this.createNewRep();
+        }
+    }
+
+    /**
+     * Gives {@code array} to {@code this} to hold the entries added next, if
+     * it is larger than the space {@code this} already has.
+     *
+     * @param array
+     *            the array to reuse
+     * @requires <pre>
+     * |this| = 0  and
+     * [the entries in array are null]
+     * </pre>
+     * @ensures this = #this
+     */
+    void recycle(Object[] array) {
+        if (array.length > this.capacity) {
+            this.createNewRep();
+            this.addChunk(array);
+        }
+    }
+
+    /**
+     * Takes {@code array} over as the only chunk of {@code this}, holding
+     * {@code array[0, length)}, so that {@code drainToArray} hands it back
+     * as is, without copying anything.
+     *
+     * @param array
+     *            the array to take over
+     * @param length
+     *            the number of entries in array
+     * @aliases reference array
+     * @updates this
+     * @requires <pre>
+     * |this| = 0  and  0 <= length <= |array|  and
+     * [the entries in array[length, |array|) are null]
+     * </pre>
+     * @ensures this = array[0, length)
+     */
+    void adopt(Object[] array, int length) {
+        this.createNewRep();
+        this.addChunk(array);
+        this.lastFill = length;
+        this.length = length;
+    }
+
+    /**
+     * Reports the length of {@code this}.
+     *
+     * @return the length of {@code this}
+     * @ensures length = |this|
+     */
+    int length() {
+        return this.length;
+    }
+
+    /**
+     * Copies the entries of {@code this}, in order, into {@code array},
+     * starting at index {@code from}, with one bulk copy per chunk.
+     *
+     * @param array
+     *            the array receiving the entries
+     * @param from
+     *            index of the slot receiving the first entry
+     * @updates array
+     * @requires 0 <= from  and  from + |this| <= |array|
+     * @ensures <pre>
+     * array[from, from + |this|) = this  and
+     * [the other entries in array are the same as in #array]
+     * </pre>
+     */
+    void copyTo(Object[] array, int from) {
+        int done = 0;
+        for (int i = 0; i < this.chunkCount; i++) {
+            int n = Math.min(this.chunks[i].length, this.length - done);
+            System.arraycopy(this.chunks[i], 0, array, from + done, n);
+            done += n;
+        }
+    }
+
+    /**
+     * Removes all the entries of {@code this} and returns them, in order, in
+     * an array whose first {@code length()} entries are those entries and
+     * whose other entries, if any, are null. When all the entries are in a
+     * single chunk, that chunk is returned as is; otherwise the chunks are
+     * copied into a new array of exactly {@code length()} entries, and each
+     * chunk is released as soon as it has been copied.
+     *
+     * @return the entries of {@code this}
+     * @clears this
+     * @ensures <pre>
+     * #this = drainToArray[0, |#this|)  and
+     * [the other entries in drainToArray are null]
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    T[] drainToArray() {
+        Object[] array;
+        if (this.chunkCount == 1) {
+            array = this.chunks[0];
+        } else {
+            array = new Object[this.length];
+            int done = 0;
+            for (int i = 0; i < this.chunkCount; i++) {
+                int n = Math.min(this.chunks[i].length, this.length - done);
+                System.arraycopy(this.chunks[i], 0, array, done, n);
+                this.chunks[i] = null;
+                done += n;
+            }
+        }
+        this.createNewRep();
+        /*
+         * With "new T[...]" in place of "new Object[...]" it does not compile;
+         * as shown, it results in a warning about an unchecked cast, though it
+         * cannot fail.
+         */
+        return (T[]) array;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return new ChunkedBufferIterator();
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for {@code ChunkedBuffer}.
+     */
+    private final class ChunkedBufferIterator implements Iterator<T> {
+
+        /**
+         * Index of the current chunk.
+         */
+        private int chunk;
+
+        /**
+         * Index of the next entry in the current chunk.
+         */
+        private int index;
+
+        /**
+         * Number of entries returned so far.
+         */
+        private int seen;
+
+        /**
+         * No-argument constructor.
+         */
+        private ChunkedBufferIterator() {
+            this.chunk = 0;
+            this.index = 0;
+            this.seen = 0;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.seen < ChunkedBuffer.this.length;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public T next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Object[] current = ChunkedBuffer.this.chunks[this.chunk];
+            if (this.index == current.length) {
+                this.chunk++;
+                this.index = 0;
+                current = ChunkedBuffer.this.chunks[this.chunk];
+            }
+            T next = (T) current[this.index];
+            this.index++;
+            this.seen++;
+            return next;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+    /**
+     * Returns a spliterator over the entries of {@code this} followed by
+     * {@code tail[0, tailLength)}, which reports its exact size and splits
+     * into halves of the entries it has left, wherever they fall among the
+     * chunks and the tail.
+     *
+     * @param tail
+     *            the array holding the entries that come last
+     * @param tailLength
+     *            the number of entries in tail
+     * @return a spliterator over this * tail[0, tailLength)
+     * @requires <pre>
+     * 0 <= tailLength <= |tail|  and
+     * [the entries in tail[0, tailLength) are not null]  and
+     * [this and tail are not changed while the spliterator is in use]
+     * </pre>
+     */
+    Spliterator<T> spliterator(T[] tail, int tailLength) {
+        /*
+         * Snapshot the segments: every chunk, each full but the last, then
+         * the tail.
+         */
+        Object[][] segments = new Object[this.chunkCount + 1][];
+        int[] lengths = new int[this.chunkCount + 1];
+        for (int i = 0; i < this.chunkCount; i++) {
+            segments[i] = this.chunks[i];
+            lengths[i] = this.chunks[i].length;
+        }
+        if (this.chunkCount > 0) {
+            lengths[this.chunkCount - 1] = this.lastFill;
+        }
+        segments[this.chunkCount] = tail;
+        lengths[this.chunkCount] = tailLength;
+        return new SegmentSpliterator<>(segments, lengths, 0, 0,
+                this.chunkCount, tailLength, (long) this.length + tailLength);
+    }
+
+    /**
+     * Implementation of {@code Spliterator} interface over consecutive
+     * segments of arrays, from index {@code index} of segment {@code segment}
+     * to index {@code endIndex} (excluded) of segment {@code endSegment}.
+     *
+     * @param <T>
+     *            type of entries
+     */
+    private static final class SegmentSpliterator<T> implements Spliterator<T> {
+
+        /**
+         * Spliterators with fewer entries left than this are not split.
+         */
+        private static final int SPLIT_THRESHOLD = 1 << 10;
+
+        /**
+         * The arrays holding the segments.
+         */
+        private final Object[][] segments;
+
+        /**
+         * The number of entries in each segment.
+         */
+        private final int[] lengths;
+
+        /**
+         * Index of the current segment.
+         */
+        private int segment;
+
+        /**
+         * Index of the next entry in the current segment.
+         */
+        private int index;
+
+        /**
+         * Index of the last segment.
+         */
+        private final int endSegment;
+
+        /**
+         * Index after the last entry in the last segment.
+         */
+        private final int endIndex;
+
+        /**
+         * Number of entries left.
+         */
+        private long size;
+
+        /**
+         * Constructor from the segments and the bounds of the range.
+         *
+         * @param segments
+         *            the arrays holding the segments
+         * @param lengths
+         *            the number of entries in each segment
+         * @param segment
+         *            index of the first segment
+         * @param index
+         *            index of the first entry in the first segment
+         * @param endSegment
+         *            index of the last segment
+         * @param endIndex
+         *            index after the last entry in the last segment
+         * @param size
+         *            number of entries in the range
+         */
+        private SegmentSpliterator(Object[][] segments, int[] lengths,
+                int segment, int index, int endSegment, int endIndex,
+                long size) {
+            this.segments = segments;
+            this.lengths = lengths;
+            this.segment = segment;
+            this.index = index;
+            this.endSegment = endSegment;
+            this.endIndex = endIndex;
+            this.size = size;
+        }
+
+        /**
+         * Reports the index after the last entry of segment {@code s} that is
+         * in the range.
+         *
+         * @param s
+         *            index of a segment
+         * @return the end of segment s in the range
+         */
+        private int limit(int s) {
+            int limit = this.lengths[s];
+            if (s == this.endSegment) {
+                limit = this.endIndex;
+            }
+            return limit;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            boolean advanced = this.size > 0;
+            if (advanced) {
+                while (this.index == this.limit(this.segment)) {
+                    this.segment++;
+                    this.index = 0;
+                }
+                action.accept((T) this.segments[this.segment][this.index]);
+                this.index++;
+                this.size--;
+            }
+            return advanced;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            while (this.size > 0) {
+                Object[] current = this.segments[this.segment];
+                int limit = this.limit(this.segment);
+                for (int i = this.index; i < limit; i++) {
+                    action.accept((T) current[i]);
+                }
+                this.size -= limit - this.index;
+                this.index = limit;
+                if (this.size > 0) {
+                    this.segment++;
+                    this.index = 0;
+                }
+            }
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            Spliterator<T> prefix = null;
+            if (this.size >= SPLIT_THRESHOLD) {
+                /*
+                 * Find where the first half of the entries left ends, and
+                 * hand that half over.
+                 */
+                long half = this.size / 2;
+                long left = half;
+                int s = this.segment;
+                int i = this.index;
+                while (this.limit(s) - i < left) {
+                    left -= this.limit(s) - i;
+                    s++;
+                    i = 0;
+                }
+                i += (int) left;
+                prefix = new SegmentSpliterator<>(this.segments, this.lengths,
+                        this.segment, this.index, s, i, half);
+                this.segment = s;
+                this.index = i;
+                this.size -= half;
+            }
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return this.size;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.SIZED | Spliterator.SUBSIZED
+                    | Spliterator.NONNULL;
+        }
+
+    }
+
+}
@@ -0,0 +1,455 @@
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachineSecondary;
+
+/**
+ * Thread-safe {@code SortingMachine}, for many threads adding entries at the
+ * same time and many threads removing them at the same time.
+ *
+ * <p>
+ * In insertion mode, entries are staged in a fixed number of "stripes", each
+ * a {@code ChunkedBuffer} guarded by its own lock. A thread always adds to the
+ * stripe selected by its id, so as long as there are no more producer threads
+ * than stripes, no two of them ever wait for the same lock; the default number
+ * of stripes is twice the number of processors. {@code changeToExtractionMode}
+ * drains every stripe into a {@code SortingMachine5a}, which builds a single
+ * heap (in parallel when it is large) in one array sized for all the
+ * stripes, copying each entry once. Removal is neither lock-free nor
+ * fine-grained: {@code removeFirst}, {@code pollFirst} and
+ * {@code removeFirst(array)} all remove from that heap under its one lock,
+ * since a heap cannot remove several entries at once. Consumers that want
+ * more throughput should take entries in batches with
+ * {@code removeFirst(array)}; {@code pollFirst} lets them stop cleanly when
+ * the machine runs out of entries.
+ *
+ * <p>
+ * The kernel methods may be called by any number of threads at the same time,
+ * as long as no {@code add} overlaps with {@code changeToExtractionMode} (the
+ * mode change must happen after every {@code add} has returned, for instance
+ * after joining the producer threads). {@code iterator} returns a snapshot of
+ * the contents. The standard methods ({@code clear}, {@code transferFrom},
+ * ...) are not thread-safe and must not overlap with any other call.
+ *
+ * @param <T>
+ *            type of {@code SortingMachine} entries
+ * @convention <pre>
+ * |$this.stripes| is a power of 2  and
+ * [the entries of $this.stripes are not null]  and
+ * $this.heap.order = $this.machineOrder  and
+ * if $this.insertionMode then
+ *   $this.heap = (true, $this.machineOrder, {})
+ * else
+ *   [the entries of $this.stripes are all <>]  and
+ *   not $this.heap.insertion_mode
+ * </pre>
+ * @correspondence <pre>
+ * this = ($this.insertionMode, $this.machineOrder,
+ *         [multiset of the entries of $this.stripes] union
+ *         $this.heap.contents)
+ * </pre>
+ */
+public class ConcurrentSortingMachine<T> extends SortingMachineSecondary<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Order.
+     */
+    private Comparator<T> machineOrder;
+
+    /**
+     * Insertion mode; volatile so that every thread sees the mode change.
+     */
+    private volatile boolean insertionMode;
+
+    /**
+     * Striped insertion buffers, each used as its own lock.
+     */
+    private ChunkedBuffer<T>[] stripes;
+
+    /**
+     * Heap of the entries in extraction mode, used as the lock for the mode
+     * change and for extraction.
+     */
+    private SortingMachine5a<T> heap;
+
+    /**
+     * Reports the default number of stripes: the smallest power of 2 that is
+     * at least twice the number of available processors.
+     *
+     * @return the default number of stripes
+     */
+    private static int defaultStripes() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        return Integer.highestOneBit(2 * processors - 1) << 1;
+    }
+
+    /**
+     * Reports the stripe in which the calling thread adds entries.
+     *
+     * @return the stripe of the calling thread
+     */
+    @SuppressWarnings("deprecation")
+    private ChunkedBuffer<T> stripe() {
+        /*
+         * Thread ids are handed out consecutively, so threads started together
+         * get different stripes.
+         */
+        int index = (int) Thread.currentThread().getId()
+                & (this.stripes.length - 1);
+        return this.stripes[index];
+    }
+
+    /**
+     * Checks that the part of the convention repeated below holds for the
+     * current representation. Since this locks every stripe, it is only called
+     * by the methods that change the whole representation, and not by
+     * {@code add}.
+     *
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * |$this.stripes| is a power of 2  and
+     * [the entries of $this.stripes are not null]  and
+     * $this.heap.order = $this.machineOrder  and
+     * if $this.insertionMode then
+     *   $this.heap = (true, $this.machineOrder, {})
+     * else
+     *   [the entries of $this.stripes are all <>]  and
+     *   not $this.heap.insertion_mode
+     * </pre>
+     */
+    private boolean conventionHolds() {
+        assert Integer.bitCount(this.stripes.length) == 1 : ""
+                + "Violation of: |$this.stripes| is a power of 2";
+        assert this.heap.order() == this.machineOrder : ""
+                + "Violation of: $this.heap.order = $this.machineOrder";
+        for (ChunkedBuffer<T> stripe : this.stripes) {
+            assert stripe != null : ""
+                    + "Violation of: the entries of $this.stripes are not null";
+            synchronized (stripe) {
+                assert this.insertionMode || stripe.length() == 0 : ""
+                        + "Violation of: if not $this.insertionMode then"
+                        + " [the entries of $this.stripes are all <>]";
+            }
+        }
+        synchronized (this.heap) {
+            assert this.insertionMode == this.heap.isInInsertionMode() : ""
+                    + "Violation of: $this.heap.insertion_mode ="
+                    + " $this.insertionMode";
+            assert !this.insertionMode || this.heap.size() == 0 : ""
+                    + "Violation of: if $this.insertionMode then"
+                    + " $this.heap.contents = {}";
+        }
+        return true;
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @param stripeCount
+     *            number of stripes
+     * @requires <pre>
+     * IS_TOTAL_PREORDER([relation computed by order.compare method]  and
+     * [stripeCount is a power of 2]
+     * </pre>
+     * @ensures <pre>
+     * $this.insertionMode = true  and
+     * $this.machineOrder = order  and
+     * |$this.stripes| = stripeCount  and
+     * [the entries of $this.stripes are all <>]  and
+     * $this.heap = (true, order, {})
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    private void createNewRep(Comparator<T> order, int stripeCount) {
+
+        this.insertionMode = true;
+        this.machineOrder = order;
+        this.stripes = (ChunkedBuffer<T>[]) new ChunkedBuffer<?>[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            this.stripes[i] = new ChunkedBuffer<>();
+        }
+        this.heap = new SortingMachine5a<>(order,
+                SortingMachine5a.HeapConstruction.PARALLEL);
+
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from order, using twice as many stripes as there are
+     * available processors (rounded up to a power of 2).
+     *
+     * @param order
+     *            total preorder for sorting
+     */
+    public ConcurrentSortingMachine(Comparator<T> order) {
+        this(order, defaultStripes());
+    }
+
+    /**
+     * Constructor from order and number of stripes.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @param stripes
+     *            number of striped insertion buffers
+     */
+    public ConcurrentSortingMachine(Comparator<T> order, int stripes) {
+        assert stripes > 0 : "Violation of: stripes > 0";
+        assert Integer.bitCount(stripes) == 1 : ""
+                + "Violation of: stripes is a power of 2";
+        this.createNewRep(order, stripes);
+        assert this.conventionHolds();
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final SortingMachine<T> newInstance() {
+        try {
+            Constructor<?> c = this.getClass().getConstructor(Comparator.class,
+                    int.class);
+            return (SortingMachine<T>) c.newInstance(this.machineOrder,
+                    this.stripes.length);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep(this.machineOrder, this.stripes.length);
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void transferFrom(SortingMachine<T> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof ConcurrentSortingMachine<?> : ""
+                + "Violation of: source is of dynamic type"
+                + " ConcurrentSortingMachine<?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case: source must be of dynamic type
+         * ConcurrentSortingMachine<?>, and the ? must be T or the call would
+         * not have compiled.
+         */
+        ConcurrentSortingMachine<T> localSource =
+                (ConcurrentSortingMachine<T>) source;
+        this.insertionMode = localSource.insertionMode;
+        this.machineOrder = localSource.machineOrder;
+        this.stripes = localSource.stripes;
+        this.heap = localSource.heap;
+        localSource.createNewRep(localSource.machineOrder,
+                localSource.stripes.length);
+        assert this.conventionHolds();
+        assert localSource.conventionHolds();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(T x) {
+        assert x != null : "Violation of: x is not null";
+
+        ChunkedBuffer<T> stripe = this.stripe();
+        synchronized (stripe) {
+            /*
+             * The mode is checked while holding the stripe lock, which
+             * changeToExtractionMode also takes after changing the mode, so an
+             * add that overlaps with the mode change is caught here.
+             */
+            assert this.insertionMode : "Violation of: this.insertion_mode";
+            stripe.add(x);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final void changeToExtractionMode() {
+        synchronized (this.heap) {
+            assert this.insertionMode : "Violation of: this.insertion_mode";
+
+            this.insertionMode = false;
+            /*
+             * Copy the stripes, one bulk copy per chunk, into a single array
+             * sized for all of them, which the heap is then built in; when
+             * only one stripe has entries, its storage is handed over as is.
+             */
+            int total = 0;
+            int nonEmpty = 0;
+            ChunkedBuffer<T> last = null;
+            for (ChunkedBuffer<T> stripe : this.stripes) {
+                synchronized (stripe) {
+                    total += stripe.length();
+                    if (stripe.length() > 0) {
+                        nonEmpty++;
+                        last = stripe;
+                    }
+                }
+            }
+            T[] entries;
+            if (nonEmpty == 1) {
+                synchronized (last) {
+                    entries = last.drainToArray();
+                }
+            } else {
+                entries = (T[]) (new Object[total]);
+                int done = 0;
+                for (ChunkedBuffer<T> stripe : this.stripes) {
+                    synchronized (stripe) {
+                        stripe.copyTo(entries, done);
+                        done += stripe.length();
+                        stripe.clear(0);
+                    }
+                }
+            }
+            if (total > 0) {
+                this.heap.adoptAll(entries, total);
+            }
+            this.heap.changeToExtractionMode();
+        }
+
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final T removeFirst() {
+        assert !this.insertionMode : "Violation of: not this.insertion_mode";
+
+        T first;
+        synchronized (this.heap) {
+            assert this.heap.size() > 0 : "Violation of: this.contents /= {}";
+            first = this.heap.removeFirst();
+        }
+        return first;
+    }
+
+    /**
+     * Removes and returns the smallest entry in {@code this.contents}, or
+     * returns {@code null} if {@code this.contents} is empty. Unlike checking
+     * {@code size} before calling {@code removeFirst}, this cannot be
+     * overtaken by another consumer in between.
+     *
+     * @return the entry removed, or null
+     * @updates this.contents
+     * @requires not this.insertion_mode
+     * @ensures <pre>
+     * if #this.contents = {} then
+     *   pollFirst = null  and  this.contents = #this.contents
+     * else
+     *   pollFirst is in #this.contents  and
+     *   this.contents = #this.contents \ {pollFirst}  and
+     *   [pollFirst is minimal in #this.contents]
+     * </pre>
+     */
+    public final T pollFirst() {
+        assert !this.insertionMode : "Violation of: not this.insertion_mode";
+
+        T first = null;
+        synchronized (this.heap) {
+            if (this.heap.size() > 0) {
+                first = this.heap.removeFirst();
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Removes up to {@code array.length} of the smallest entries in
+     * {@code this.contents} under a single lock, stores them in increasing
+     * order at the start of {@code array}, and reports how many there were.
+     *
+     * @param array
+     *            the array receiving the entries removed
+     * @return the number of entries removed
+     * @updates this.contents, array
+     * @requires not this.insertion_mode
+     * @ensures <pre>
+     * removeFirst = min(|array|, |#this.contents|)  and
+     * [array[0, removeFirst) are the removeFirst smallest entries of
+     *  #this.contents, in increasing order]  and
+     * this.contents = #this.contents \ elements(array[0, removeFirst))  and
+     * [the other entries in array are the same as in #array]
+     * </pre>
+     */
+    public final int removeFirst(T[] array) {
+        assert array != null : "Violation of: array is not null";
+        assert !this.insertionMode : "Violation of: not this.insertion_mode";
+
+        int n;
+        synchronized (this.heap) {
+            n = Math.min(array.length, this.heap.size());
+            this.heap.removeFirst(n, array);
+        }
+        return n;
+    }
+
+    @Override
+    public final boolean isInInsertionMode() {
+        return this.insertionMode;
+    }
+
+    @Override
+    public final Comparator<T> order() {
+        return this.machineOrder;
+    }
+
+    @Override
+    public final int size() {
+        int size = 0;
+        synchronized (this.heap) {
+            for (ChunkedBuffer<T> stripe : this.stripes) {
+                synchronized (stripe) {
+                    size += stripe.length();
+                }
+            }
+            size += this.heap.size();
+        }
+        return size;
+    }
+
+    @Override
+    public final Iterator<T> iterator() {
+        /*
+         * Copy the contents while holding the locks, so that the iterator is
+         * not disturbed by the other threads.
+         */
+        List<T> snapshot = new ArrayList<>();
+        synchronized (this.heap) {
+            for (ChunkedBuffer<T> stripe : this.stripes) {
+                synchronized (stripe) {
+                    for (T x : stripe) {
+                        snapshot.add(x);
+                    }
+                }
+            }
+            for (T x : this.heap) {
+                snapshot.add(x);
+            }
+        }
+        return Collections.unmodifiableList(snapshot).iterator();
+    }
+
+}
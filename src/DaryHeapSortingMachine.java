@@ -0,0 +1,582 @@
+import java.lang.reflect.Constructor;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import components.queue.Queue;
+import components.queue.Queue1L;
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachineSecondary;
+
+/**
+ * {@code SortingMachine} represented as a {@code Queue} and an array (using an
+ * embedding of heap sort on a d-ary heap), with implementations of primary
+ * methods.
+ *
+ * <p>
+ * Compared with the binary heap in {@code SortingMachine5a}, a 4-ary or 8-ary
+ * heap is about half or a third as tall, and the children of each node are
+ * stored next to each other, so each level of a sift touches one contiguous
+ * group of entries instead of two entries that are far apart.
+ *
+ * @param <T>
+ *            type of {@code SortingMachine} entries
+ * @mathdefinitions <pre>
+ * IS_TOTAL_PREORDER (
+ *   r: binary relation on T
+ *  ) : boolean is
+ *  for all x, y, z: T
+ *   ((r(x, y) or r(y, x))  and
+ *    (if (r(x, y) and r(y, z)) then r(x, z)))
+ *
+ * SUBTREE_IS_HEAP (
+ *   a: string of T,
+ *   d: integer,
+ *   start: integer,
+ *   stop: integer,
+ *   r: binary relation on T
+ *  ) : boolean is
+ *  [the subtree of a (when a is interpreted as a complete d-ary tree, with
+ *   the children of the entry at index i at indices d * i + 1 through
+ *   d * i + d) rooted at index start and only through entry stop of a
+ *   satisfies the heap ordering property according to the relation r]
+ * </pre>
+ * @convention <pre>
+ * IS_TOTAL_PREORDER([relation computed by $this.machineOrder.compare method]  and
+ * $this.arity is in {2, 4, 8}  and
+ * if $this.insertionMode then
+ *   $this.heapSize = 0
+ * else
+ *   $this.entries = <>  and
+ *   for all i: integer
+ *       where (0 <= i  and  i < |$this.heap|)
+ *     ([entry at position i in $this.heap is not null])  and
+ *   SUBTREE_IS_HEAP($this.heap, $this.arity, 0, $this.heapSize - 1,
+ *     [relation computed by $this.machineOrder.compare method])  and
+ *   0 <= $this.heapSize <= |$this.heap|
+ * </pre>
+ * @correspondence <pre>
+ * if $this.insertionMode then
+ *   this = (true, $this.machineOrder, multiset_entries($this.entries))
+ * else
+ *   this = (false, $this.machineOrder, multiset_entries($this.heap[0, $this.heapSize)))
+ * </pre>
+ */
+public class DaryHeapSortingMachine<T> extends SortingMachineSecondary<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Order.
+     */
+    private Comparator<T> machineOrder;
+
+    /**
+     * Number of children of each node of the heap.
+     */
+    private int arity;
+
+    /**
+     * Insertion mode.
+     */
+    private boolean insertionMode;
+
+    /**
+     * Entries.
+     */
+    private Queue<T> entries;
+
+    /**
+     * Heap.
+     */
+    private T[] heap;
+
+    /**
+     * Heap size.
+     */
+    private int heapSize;
+
+    /**
+     * Given an array that represents a complete d-ary tree and an index
+     * referring to the root of a subtree that would be a heap except for its
+     * root, sifts the root down to turn that whole subtree into a heap.
+     *
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the complete d-ary tree
+     * @param d
+     *            the arity of the tree
+     * @param top
+     *            the index of the root of the "subtree"
+     * @param last
+     *            the index of the last entry in the heap
+     * @param order
+     *            total preorder for sorting
+     * @updates array
+     * @requires <pre>
+     * 2 <= d  and  0 <= top  and  last < |array|  and
+     * [the entries of array at indices 0 through last are not null]  and
+     * [every child subtree of the entry at index top is a heap]  and
+     * IS_TOTAL_PREORDER([relation computed by order.compare method])
+     * </pre>
+     * @ensures <pre>
+     * SUBTREE_IS_HEAP(array, d, top, last,
+     *     [relation computed by order.compare method])  and
+     * perms(array, #array)  and
+     * [the other entries in array are the same as in #array]
+     * </pre>
+     */
+    private static <T> void siftDown(T[] array, int d, int top, int last,
+            Comparator<T> order) {
+        assert array != null : "Violation of: array is not null";
+        assert order != null : "Violation of: order is not null";
+        assert 2 <= d : "Violation of: 2 <= d";
+        assert 0 <= top : "Violation of: 0 <= top";
+        assert last < array.length : "Violation of: last < |array|";
+        /*
+         * Impractical to check the last three requires clauses.
+         */
+
+        /*
+         * Carry the hole down along the path of smallest children, which
+         * costs d - 1 comparisons per level but only log_d of the size
+         * levels, then bounce the root back up past every entry that is not
+         * less than it, which usually takes a level or two.
+         */
+        T root = array[top];
+        int hole = top;
+        int first = d * hole + 1;
+        while (first <= last) {
+            /*
+             * Find the smallest (leftmost, among equal ones) child; the
+             * children of the hole are at indices first through first + d - 1,
+             * but only through last.
+             */
+            int stop = Math.min(first + d - 1, last);
+            int smallest = first;
+            T smallestEntry = array[first];
+            for (int c = first + 1; c <= stop; c++) {
+                T child = array[c];
+                if (order.compare(smallestEntry, child) > 0) {
+                    smallest = c;
+                    smallestEntry = child;
+                }
+            }
+            array[hole] = smallestEntry;
+            hole = smallest;
+            first = d * hole + 1;
+        }
+        while (hole > top) {
+            int parent = (hole - 1) / d;
+            if (order.compare(array[parent], root) < 0) {
+                break;
+            }
+            array[hole] = array[parent];
+            hole = parent;
+        }
+        array[hole] = root;
+    }
+
+    /**
+     * Heapifies the given array bottom-up: every parent is sifted down, from
+     * the last parent up to the root.
+     *
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the complete d-ary tree
+     * @param d
+     *            the arity of the tree
+     * @param order
+     *            the total preorder for sorting
+     * @updates array
+     * @requires <pre>
+     * 2 <= d  and
+     * [the entries of array are not null]  and
+     * IS_TOTAL_PREORDER([relation computed by order.compare method])
+     * </pre>
+     * @ensures <pre>
+     * SUBTREE_IS_HEAP(array, d, 0, |array| - 1,
+     *     [relation computed by order.compare method])  and
+     * perms(array, #array)
+     * </pre>
+     */
+    private static <T> void heapify(T[] array, int d, Comparator<T> order) {
+        assert array != null : "Violation of: array is not null";
+        assert order != null : "Violation of: order is not null";
+        assert 2 <= d : "Violation of: 2 <= d";
+
+        int last = array.length - 1;
+        if (last > 0) {
+            for (int top = (last - 1) / d; top >= 0; top--) {
+                siftDown(array, d, top, last, order);
+            }
+        }
+    }
+
+    /**
+     * Constructs and returns an array representing a d-ary heap with the
+     * entries from the given {@code Queue}.
+     *
+     * @param <T>
+     *            type of {@code Queue} and array entries
+     * @param q
+     *            the {@code Queue} with the entries for the heap
+     * @param d
+     *            the arity of the heap
+     * @param order
+     *            the total preorder for sorting
+     * @return the array representation of a heap
+     * @clears q
+     * @requires <pre>
+     * 2 <= d  and
+     * IS_TOTAL_PREORDER([relation computed by order.compare method])
+     * </pre>
+     * @ensures <pre>
+     * SUBTREE_IS_HEAP(buildHeap, d, 0, |buildHeap| - 1)  and
+     * perms(buildHeap, #q)
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T[] buildHeap(Queue<T> q, int d, Comparator<T> order) {
+        assert q != null : "Violation of: q is not null";
+        assert order != null : "Violation of: order is not null";
+
+        T[] heap = (T[]) (new Object[q.length()]);
+        for (int i = 0; i < heap.length; i++) {
+            heap[i] = q.dequeue();
+        }
+        heapify(heap, d, order);
+        return heap;
+    }
+
+    /**
+     * Checks if the first {@code last + 1} entries of the given {@code array}
+     * form a d-ary heap.
+     *
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the complete d-ary tree
+     * @param d
+     *            the arity of the tree
+     * @param last
+     *            the index of the last entry in the heap
+     * @param order
+     *            total preorder for sorting
+     * @return true if {@code array[0, last]} is a heap; false otherwise
+     * @requires <pre>
+     * 2 <= d  and  last < |array|  and
+     * [the entries of array at indices 0 through last are not null]
+     * </pre>
+     * @ensures <pre>
+     * isHeap = SUBTREE_IS_HEAP(array, d, 0, last,
+     *     [relation computed by order.compare method])
+     * </pre>
+     */
+    private static <T> boolean isHeap(T[] array, int d, int last,
+            Comparator<T> order) {
+        assert array != null : "Violation of: array is not null";
+        assert last < array.length : "Violation of: last < |array|";
+
+        boolean isHeap = true;
+        for (int i = 1; isHeap && i <= last; i++) {
+            isHeap = order.compare(array[(i - 1) / d], array[i]) <= 0;
+        }
+        return isHeap;
+    }
+
+    /**
+     * Checks that the part of the convention repeated below holds for the
+     * current representation.
+     *
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * $this.arity is in {2, 4, 8}  and
+     * if $this.insertionMode then
+     *   $this.heapSize = 0
+     * else
+     *   $this.entries = <>  and
+     *   for all i: integer
+     *       where (0 <= i  and  i < |$this.heap|)
+     *     ([entry at position i in $this.heap is not null])  and
+     *   SUBTREE_IS_HEAP($this.heap, $this.arity, 0, $this.heapSize - 1,
+     *     [relation computed by $this.machineOrder.compare method])  and
+     *   0 <= $this.heapSize <= |$this.heap|
+     * </pre>
+     */
+    private boolean conventionHolds() {
+        assert this.arity == 2 || this.arity == 4 || this.arity == 8 : ""
+                + "Violation of: $this.arity is in {2, 4, 8}";
+        if (this.insertionMode) {
+            assert this.heapSize == 0 : ""
+                    + "Violation of: if $this.insertionMode then $this.heapSize = 0";
+        } else {
+            assert this.entries.length() == 0 : ""
+                    + "Violation of: if not $this.insertionMode then $this.entries = <>";
+            assert 0 <= this.heapSize : ""
+                    + "Violation of: if not $this.insertionMode then 0 <= $this.heapSize";
+            assert this.heapSize <= this.heap.length : ""
+                    + "Violation of: if not $this.insertionMode then"
+                    + " $this.heapSize <= |$this.heap|";
+            for (int i = 0; i < this.heap.length; i++) {
+                assert this.heap[i] != null : ""
+                        + "Violation of: if not $this.insertionMode then"
+                        + " all entries in $this.heap are not null";
+            }
+            assert isHeap(this.heap, this.arity, this.heapSize - 1,
+                    this.machineOrder) : ""
+                            + "Violation of: if not $this.insertionMode then"
+                            + " SUBTREE_IS_HEAP($this.heap, $this.arity, 0,"
+                            + " $this.heapSize - 1, [relation computed by"
+                            + " $this.machineOrder.compare method])";
+        }
+        return true;
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @requires IS_TOTAL_PREORDER([relation computed by order.compare method]
+     * @ensures <pre>
+     * $this.insertionMode = true  and
+     * $this.machineOrder = order  and
+     * $this.entries = <>  and
+     * $this.heapSize = 0
+     * </pre>
+     */
+    private void createNewRep(Comparator<T> order) {
+
+        this.insertionMode = true;
+        this.machineOrder = order;
+        this.entries = new Queue1L<>();
+        this.heapSize = 0;
+
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from order and arity.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @param arity
+     *            number of children of each node of the heap; one of 2, 4,
+     *            or 8
+     */
+    public DaryHeapSortingMachine(Comparator<T> order, int arity) {
+        assert arity == 2 || arity == 4 || arity == 8 : ""
+                + "Violation of: arity is in {2, 4, 8}";
+        this.arity = arity;
+        this.createNewRep(order);
+        assert this.conventionHolds();
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final SortingMachine<T> newInstance() {
+        try {
+            Constructor<?> c = this.getClass().getConstructor(Comparator.class,
+                    int.class);
+            return (SortingMachine<T>) c.newInstance(this.machineOrder,
+                    this.arity);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep(this.machineOrder);
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void transferFrom(SortingMachine<T> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof DaryHeapSortingMachine<?> : ""
+                + "Violation of: source is of dynamic type DaryHeapSortingMachine<?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case: source must be of dynamic type
+         * DaryHeapSortingMachine<?>, and the ? must be T or the call would not
+         * have compiled.
+         */
+        DaryHeapSortingMachine<T> localSource = (DaryHeapSortingMachine<T>) source;
+        this.insertionMode = localSource.insertionMode;
+        this.machineOrder = localSource.machineOrder;
+        this.arity = localSource.arity;
+        this.entries = localSource.entries;
+        this.heap = localSource.heap;
+        this.heapSize = localSource.heapSize;
+        localSource.createNewRep(localSource.machineOrder);
+        assert this.conventionHolds();
+        assert localSource.conventionHolds();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(T x) {
+        assert x != null : "Violation of: x is not null";
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        this.entries.enqueue(x);
+
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void changeToExtractionMode() {
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        this.insertionMode = false;
+        this.heap = buildHeap(this.entries, this.arity, this.machineOrder);
+        this.heapSize = this.heap.length;
+
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final T removeFirst() {
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
+        assert this.size() > 0 : "Violation of: this.contents /= {}";
+
+        T first = this.heap[0];
+        /*
+         * Move the last entry to the root and leave the first one behind as
+         * "junk data", then sift the new root down.
+         */
+        this.heapSize--;
+        this.heap[0] = this.heap[this.heapSize];
+        this.heap[this.heapSize] = first;
+        siftDown(this.heap, this.arity, 0, this.heapSize - 1,
+                this.machineOrder);
+
+        assert this.conventionHolds();
+        return first;
+    }
+
+    @Override
+    public final boolean isInInsertionMode() {
+        assert this.conventionHolds();
+        return this.insertionMode;
+    }
+
+    @Override
+    public final Comparator<T> order() {
+        assert this.conventionHolds();
+        return this.machineOrder;
+    }
+
+    @Override
+    public final int size() {
+
+        int size = 0;
+
+        if (this.isInInsertionMode()) {
+            size = this.entries.length();
+        } else {
+            size = this.heapSize;
+        }
+
+        assert this.conventionHolds();
+
+        return size;
+    }
+
+    @Override
+    public final Iterator<T> iterator() {
+        return new DaryHeapSortingMachineIterator();
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for
+     * {@code DaryHeapSortingMachine}.
+     */
+    private final class DaryHeapSortingMachineIterator implements Iterator<T> {
+
+        /**
+         * Representation iterator when in insertion mode.
+         */
+        private Iterator<T> queueIterator;
+
+        /**
+         * Representation iterator count when in extraction mode.
+         */
+        private int arrayCurrentIndex;
+
+        /**
+         * No-argument constructor.
+         */
+        private DaryHeapSortingMachineIterator() {
+            if (DaryHeapSortingMachine.this.insertionMode) {
+                this.queueIterator = DaryHeapSortingMachine.this.entries
+                        .iterator();
+            } else {
+                this.arrayCurrentIndex = 0;
+            }
+            assert DaryHeapSortingMachine.this.conventionHolds();
+        }
+
+        @Override
+        public boolean hasNext() {
+            boolean hasNext;
+            if (DaryHeapSortingMachine.this.insertionMode) {
+                hasNext = this.queueIterator.hasNext();
+            } else {
+                hasNext = this.arrayCurrentIndex < DaryHeapSortingMachine.this.heapSize;
+            }
+            assert DaryHeapSortingMachine.this.conventionHolds();
+            return hasNext;
+        }
+
+        @Override
+        public T next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            T next;
+            if (DaryHeapSortingMachine.this.insertionMode) {
+                next = this.queueIterator.next();
+            } else {
+                next = DaryHeapSortingMachine.this.heap[this.arrayCurrentIndex];
+                this.arrayCurrentIndex++;
+            }
+            assert DaryHeapSortingMachine.this.conventionHolds();
+            return next;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+}
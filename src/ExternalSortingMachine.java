@@ -0,0 +1,1386 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachineSecondary;
+
+/**
+ * {@code SortingMachine} that holds at most a fixed number of entries in
+ * memory, represented as an array buffer plus sorted runs spilled to
+ * temporary files.
+ *
+ * <p>
+ * In insertion mode, entries are added to the buffer; whenever the buffer is
+ * full it is heap sorted and written out, through a {@code FileChannel}, as a
+ * sorted run in a temporary file. If nothing was spilled,
+ * {@code changeToExtractionMode} just heapifies the buffer, as in
+ * {@code SortingMachine5a}. Otherwise the rest of the buffer is spilled too,
+ * and {@code removeFirst} streams a k-way merge over the runs, reading each
+ * one sequentially. Entries are written and read by a pluggable
+ * {@code Serializer}.
+ *
+ * <p>
+ * At most {@code min(budget, MAX_FAN_IN)} runs (and at least two) are merged
+ * at once, so that the heads of the runs being merged fit in the budget. If
+ * there are more runs than that, {@code changeToExtractionMode} first merges
+ * consecutive groups of them into longer runs, as many times as needed. The
+ * read buffer of each run being merged is sized from the budget too, so the
+ * memory and the file descriptors a merge takes grow with the budget, not
+ * with the number of entries.
+ *
+ * <p>
+ * The temporary file of a run is deleted once the run has been merged
+ * completely, when the machine is cleared or transferred into, or, failing
+ * all of those, when the JVM exits.
+ *
+ * @param <T>
+ *            type of {@code SortingMachine} entries
+ * @convention <pre>
+ * IS_TOTAL_PREORDER([relation computed by $this.machineOrder.compare method]  and
+ * 1 <= $this.budget = |$this.buffer|  and
+ * 0 <= $this.bufferSize <= $this.budget  and
+ * [the entries of $this.buffer[0, $this.bufferSize) are not null]  and
+ * [each run in $this.runs is sorted according to the relation computed by
+ *  $this.machineOrder.compare method]  and
+ * if $this.insertionMode then
+ *   $this.merge = null
+ * else if $this.runs = <> then
+ *   $this.merge = null  and
+ *   [$this.buffer[0, $this.bufferSize) is a heap]
+ * else
+ *   $this.bufferSize = 0  and
+ *   |$this.runs| <= max(2, min(MAX_FAN_IN, $this.budget))  and
+ *   $this.merge /= null  and
+ *   [$this.merge is a heap of the runs that are not exhausted, ordered by
+ *    their next entries]
+ * </pre>
+ * @correspondence <pre>
+ * this = ($this.insertionMode, $this.machineOrder,
+ *         multiset_entries($this.buffer[0, $this.bufferSize)) union
+ *           [the multiset of the entries not yet read from $this.runs])
+ * </pre>
+ */
+public class ExternalSortingMachine<T> extends SortingMachineSecondary<T> {
+
+    /**
+     * Converts entries to and from bytes, so they can be written to and read
+     * back from the temporary files.
+     *
+     * @param <T>
+     *            type of entries
+     */
+    public interface Serializer<T> {
+
+        /**
+         * Returns the bytes representing {@code x}.
+         *
+         * @param x
+         *            the entry
+         * @return the bytes representing {@code x}
+         * @ensures deserialize(serialize(x)) = x
+         */
+        byte[] serialize(T x);
+
+        /**
+         * Returns the entry represented by {@code bytes}.
+         *
+         * @param bytes
+         *            the bytes, as returned by {@code serialize}
+         * @return the entry represented by {@code bytes}
+         */
+        T deserialize(byte[] bytes);
+
+    }
+
+    /**
+     * Returns a {@code Serializer} for {@code String} entries, using UTF-8.
+     *
+     * @return a UTF-8 {@code Serializer} for {@code String}
+     */
+    public static Serializer<String> stringSerializer() {
+        return new Serializer<String>() {
+
+            @Override
+            public byte[] serialize(String x) {
+                return x.getBytes(StandardCharsets.UTF_8);
+            }
+
+            @Override
+            public String deserialize(byte[] bytes) {
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+
+        };
+    }
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Size in bytes of the buffer used to write a run file, and largest size
+     * of the buffer used to read one.
+     */
+    private static final int IO_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Smallest size in bytes of the buffer used to read a run file.
+     */
+    private static final int MIN_READ_BUFFER_SIZE = 1 << 12;
+
+    /**
+     * Number of bytes of read buffer allowed, across all the runs being
+     * merged, for each entry of the budget.
+     */
+    private static final int READ_BYTES_PER_ENTRY = 1 << 6;
+
+    /**
+     * Largest number of runs merged at once.
+     */
+    private static final int MAX_FAN_IN = 1 << 6;
+
+    /**
+     * Size in bytes of the length prefix of each record in a run file.
+     */
+    private static final int LENGTH_SIZE = Integer.BYTES;
+
+    /**
+     * Maximum number of entries an iterator reads from a run file at a time.
+     */
+    private static final int ITERATOR_BATCH = 1 << 10;
+
+    /**
+     * Run files that have been created and not deleted yet, by any machine;
+     * whatever is left in it is deleted when the JVM exits.
+     */
+    private static final Set<Path> LIVE_RUN_FILES = ConcurrentHashMap
+            .newKeySet();
+
+    static {
+        /*
+         * Backstop for machines that are dropped without being drained or
+         * cleared. Unlike File.deleteOnExit, this forgets each file as soon
+         * as it is deleted, so it does not grow with the number of spills.
+         */
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (Path file : LIVE_RUN_FILES) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    /*
+                     * Nothing more can be done about it at this point.
+                     */
+                }
+            }
+        }));
+    }
+
+    /**
+     * Deletes the run file {@code file}, if it exists, and forgets it.
+     *
+     * @param file
+     *            the run file
+     */
+    private static void deleteRunFile(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            LIVE_RUN_FILES.remove(file);
+        }
+    }
+
+    /**
+     * Closes {@code channel} after a failure; if closing fails too, that
+     * failure is added to {@code cause}.
+     *
+     * @param channel
+     *            the channel to close
+     * @param cause
+     *            the failure that made closing necessary
+     */
+    private static void closeQuietly(FileChannel channel, Throwable cause) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            cause.addSuppressed(e);
+        }
+    }
+
+    /**
+     * Order.
+     */
+    private Comparator<T> machineOrder;
+
+    /**
+     * Maximum number of entries held in memory.
+     */
+    private int budget;
+
+    /**
+     * Entry serializer.
+     */
+    private Serializer<T> serializer;
+
+    /**
+     * Insertion mode.
+     */
+    private boolean insertionMode;
+
+    /**
+     * In-memory entries; a heap in extraction mode when nothing was spilled.
+     */
+    private T[] buffer;
+
+    /**
+     * Number of entries in {@code buffer}.
+     */
+    private int bufferSize;
+
+    /**
+     * Sorted runs spilled to temporary files, oldest first.
+     */
+    private List<Run> runs;
+
+    /**
+     * Heap of the runs being merged that are not exhausted, ordered by their
+     * next entries; {@code null} unless merging.
+     */
+    private Run[] merge;
+
+    /**
+     * Number of runs in {@code merge}.
+     */
+    private int mergeSize;
+
+    /**
+     * Sequential reader over the entries of a run file.
+     */
+    private final class RunReader {
+
+        /**
+         * Channel over the run file.
+         */
+        private final FileChannel channel;
+
+        /**
+         * Read buffer over {@code channel}.
+         */
+        private final ByteBuffer in;
+
+        /**
+         * File offset of the next entry to read.
+         */
+        private long offset;
+
+        /**
+         * Constructor.
+         *
+         * @param file
+         *            the run file
+         * @param offset
+         *            file offset of the first entry to read
+         */
+        private RunReader(Path file, long offset) {
+            try {
+                this.channel = FileChannel.open(file, StandardOpenOption.READ);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            try {
+                this.channel.position(offset);
+            } catch (IOException e) {
+                closeQuietly(this.channel, e);
+                throw new UncheckedIOException(e);
+            }
+            this.in = ByteBuffer
+                    .allocate(ExternalSortingMachine.this.readBufferSize());
+            this.in.flip();
+            this.offset = offset;
+        }
+
+        /**
+         * Reads the next entry.
+         *
+         * @return the entry read
+         */
+        private T read() {
+            this.fill(LENGTH_SIZE);
+            byte[] bytes = new byte[this.in.getInt()];
+            int done = 0;
+            while (done < bytes.length) {
+                this.fill(1);
+                int n = Math.min(this.in.remaining(), bytes.length - done);
+                this.in.get(bytes, done, n);
+                done += n;
+            }
+            this.offset += LENGTH_SIZE + bytes.length;
+            return ExternalSortingMachine.this.serializer.deserialize(bytes);
+        }
+
+        /**
+         * Makes sure at least {@code n} bytes are available in {@code in},
+         * reading more from the file if needed.
+         *
+         * @param n
+         *            number of bytes needed
+         */
+        private void fill(int n) {
+            try {
+                if (this.in.remaining() < n) {
+                    this.in.compact();
+                    while (this.in.position() < n) {
+                        if (this.channel.read(this.in) < 0) {
+                            throw new IOException("Unexpected end of run");
+                        }
+                    }
+                    this.in.flip();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Closes the channel.
+         */
+        private void close() {
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+    }
+
+    /**
+     * Sequential writer of the entries of a new run file.
+     */
+    private final class RunWriter {
+
+        /**
+         * The run file.
+         */
+        private final Path file;
+
+        /**
+         * Channel over the run file.
+         */
+        private final FileChannel channel;
+
+        /**
+         * Write buffer over {@code channel}.
+         */
+        private ByteBuffer out;
+
+        /**
+         * Number of entries written.
+         */
+        private long count;
+
+        /**
+         * Constructor; creates the run file.
+         */
+        private RunWriter() {
+            try {
+                this.file = Files.createTempFile("sortingmachine", ".run");
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            LIVE_RUN_FILES.add(this.file);
+            try {
+                this.channel = FileChannel.open(this.file,
+                        StandardOpenOption.WRITE);
+            } catch (IOException e) {
+                deleteRunFile(this.file);
+                throw new UncheckedIOException(e);
+            }
+            this.out = ByteBuffer.allocate(IO_BUFFER_SIZE);
+            this.count = 0;
+        }
+
+        /**
+         * Writes {@code x} after the entries already written.
+         *
+         * @param x
+         *            the entry to write
+         */
+        private void write(T x) {
+            byte[] data = ExternalSortingMachine.this.serializer.serialize(x);
+            if (this.out.remaining() < LENGTH_SIZE + data.length) {
+                this.flush();
+                if (this.out.capacity() < LENGTH_SIZE + data.length) {
+                    this.out = ByteBuffer.allocate(LENGTH_SIZE + data.length);
+                }
+            }
+            this.out.putInt(data.length);
+            this.out.put(data);
+            this.count++;
+        }
+
+        /**
+         * Writes out the contents of {@code out}, leaving it empty.
+         */
+        private void flush() {
+            this.out.flip();
+            try {
+                while (this.out.hasRemaining()) {
+                    this.channel.write(this.out);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            this.out.clear();
+        }
+
+        /**
+         * Writes out what is left, closes the file, and returns it as a run.
+         *
+         * @param index
+         *            position of the run in {@code runs}
+         * @return the run written
+         */
+        private Run finish(int index) {
+            this.flush();
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return new Run(this.file, index, this.count);
+        }
+
+        /**
+         * Closes and deletes the file, after a failure to write it; any
+         * further failure is added to {@code cause}.
+         *
+         * @param cause
+         *            the failure to write the file
+         */
+        private void abort(Throwable cause) {
+            closeQuietly(this.channel, cause);
+            try {
+                deleteRunFile(this.file);
+            } catch (UncheckedIOException e) {
+                cause.addSuppressed(e);
+            }
+        }
+
+    }
+
+    /**
+     * A sorted run of entries in a temporary file. Each entry is stored as
+     * its length in bytes followed by its serialized bytes.
+     */
+    private final class Run {
+
+        /**
+         * The temporary file.
+         */
+        private final Path file;
+
+        /**
+         * Position of this run in {@code runs}; breaks ties between runs.
+         */
+        private final int index;
+
+        /**
+         * Number of entries not yet merged, including {@code head}.
+         */
+        private long remaining;
+
+        /**
+         * Reader while merging, otherwise {@code null}.
+         */
+        private RunReader reader;
+
+        /**
+         * The next entry of the run while merging, otherwise {@code null}.
+         */
+        private T head;
+
+        /**
+         * Constructor.
+         *
+         * @param file
+         *            the temporary file
+         * @param index
+         *            position of this run in {@code runs}
+         * @param count
+         *            number of entries in the file
+         */
+        private Run(Path file, int index, long count) {
+            this.file = file;
+            this.index = index;
+            this.remaining = count;
+        }
+
+        /**
+         * Opens the file and reads the first entry into {@code head}; if that
+         * fails, the file is left closed.
+         */
+        private void open() {
+            this.reader = new RunReader(this.file, 0);
+            try {
+                this.head = this.reader.read();
+            } catch (RuntimeException e) {
+                closeQuietly(this.reader.channel, e);
+                this.reader = null;
+                throw e;
+            }
+        }
+
+        /**
+         * Moves {@code head} to the next entry of the run; closes the file
+         * once the run is exhausted.
+         */
+        private void advance() {
+            this.remaining--;
+            if (this.remaining > 0) {
+                this.head = this.reader.read();
+            } else {
+                this.head = null;
+                this.close();
+            }
+        }
+
+        /**
+         * Closes the file, if it is open.
+         */
+        private void close() {
+            if (this.reader != null) {
+                this.reader.close();
+                this.reader = null;
+            }
+        }
+
+        /**
+         * Closes and deletes the file.
+         */
+        private void delete() {
+            this.close();
+            deleteRunFile(this.file);
+        }
+
+    }
+
+    /**
+     * Returns a new array of {@code n} runs.
+     *
+     * @param n
+     *            length of the array
+     * @return the new array
+     */
+    @SuppressWarnings("unchecked")
+    private Run[] newRunArray(int n) {
+        /*
+         * Run is an inner class of a generic class, so "new Run[n]" does not
+         * compile; as with "new T[...]", the cast cannot fail.
+         */
+        return (Run[]) new ExternalSortingMachine<?>.Run[n];
+    }
+
+    /**
+     * Reports whether run {@code a} should be merged before run {@code b}:
+     * its next entry is smaller, or they are equal and it was spilled first.
+     *
+     * @param a
+     *            one run
+     * @param b
+     *            the other run
+     * @return true iff {@code a} comes before {@code b}
+     */
+    private boolean isBefore(Run a, Run b) {
+        int c = this.machineOrder.compare(a.head, b.head);
+        return c < 0 || (c == 0 && a.index < b.index);
+    }
+
+    /**
+     * Sifts the run at index {@code top} of {@code merge} down to restore the
+     * heap ordering of {@code merge[0, mergeSize)}.
+     *
+     * @param top
+     *            the index of the run to sift down
+     */
+    private void siftDownMerge(int top) {
+        Run root = this.merge[top];
+        int hole = top;
+        int child = 2 * hole + 1;
+        while (child < this.mergeSize) {
+            if (child + 1 < this.mergeSize && this.isBefore(
+                    this.merge[child + 1], this.merge[child])) {
+                child++;
+            }
+            if (!this.isBefore(this.merge[child], root)) {
+                break;
+            }
+            this.merge[hole] = this.merge[child];
+            hole = child;
+            child = 2 * hole + 1;
+        }
+        this.merge[hole] = root;
+    }
+
+    /**
+     * Sifts the entry at index {@code top} of {@code array} down, shifting up
+     * the smaller child of each slot from {@code top} to a leaf and then
+     * placing the entry at the first slot up from there whose parent is
+     * smaller; used to heap sort the buffer before each spill, and to
+     * restore the buffer heap after each removal when nothing was spilled.
+     *
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the complete binary tree
+     * @param top
+     *            the index of the root of the "subtree"
+     * @param last
+     *            the index of the last entry in the heap
+     * @param order
+     *            total preorder for sorting
+     * @updates array
+     * @requires <pre>
+     * 0 <= top  and  last < |array|  and
+     * [both subtrees of the entry at index top are heaps]
+     * </pre>
+     * @ensures <pre>
+     * [the subtree rooted at top, through last, is a heap]  and
+     * perms(array, #array)
+     * </pre>
+     */
+    private static <T> void siftDown(T[] array, int top, int last,
+            Comparator<T> order) {
+        T root = array[top];
+        int hole = top;
+        int child = 2 * hole + 1;
+        while (child < last) {
+            if (order.compare(array[child], array[child + 1]) > 0) {
+                child++;
+            }
+            array[hole] = array[child];
+            hole = child;
+            child = 2 * hole + 1;
+        }
+        if (child == last) {
+            array[hole] = array[child];
+            hole = child;
+        }
+        while (hole > top) {
+            int parent = (hole - 1) / 2;
+            if (order.compare(array[parent], root) < 0) {
+                break;
+            }
+            array[hole] = array[parent];
+            hole = parent;
+        }
+        array[hole] = root;
+    }
+
+    /**
+     * Heapifies {@code array[0, size)} bottom-up.
+     *
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the complete binary tree
+     * @param size
+     *            the number of entries in the heap
+     * @param order
+     *            total preorder for sorting
+     * @updates array
+     * @requires 0 <= size <= |array|
+     * @ensures [array[0, size) is a heap]  and  perms(array, #array)
+     */
+    private static <T> void heapify(T[] array, int size,
+            Comparator<T> order) {
+        for (int top = size / 2 - 1; top >= 0; top--) {
+            siftDown(array, top, size - 1, order);
+        }
+    }
+
+    /**
+     * Removes and returns the first entry of the heap {@code array[0, size)}.
+     *
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the heap
+     * @param size
+     *            the number of entries in the heap
+     * @param order
+     *            total preorder for sorting
+     * @return the entry removed
+     * @updates array
+     * @requires 0 < size <= |array|  and  [array[0, size) is a heap]
+     * @ensures <pre>
+     * [array[0, size - 1) is a heap of #array[0, size) without
+     *  removeFirst]  and
+     * array[size - 1] = null
+     * </pre>
+     */
+    private static <T> T removeFirst(T[] array, int size,
+            Comparator<T> order) {
+        T first = array[0];
+        array[0] = array[size - 1];
+        array[size - 1] = null;
+        siftDown(array, 0, size - 2, order);
+        return first;
+    }
+
+    /**
+     * Heap sorts {@code array[0, size)} in place into non-increasing order.
+     *
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the entries to sort
+     * @param size
+     *            the number of entries to sort
+     * @param order
+     *            total preorder for sorting
+     * @updates array
+     * @requires 0 <= size <= |array|
+     * @ensures <pre>
+     * perms(array[0, size), #array[0, size))  and
+     * [array[0, size) is sorted in non-increasing order]
+     * </pre>
+     */
+    private static <T> void sortDescending(T[] array, int size,
+            Comparator<T> order) {
+        heapify(array, size, order);
+        for (int last = size - 1; last > 0; last--) {
+            T first = array[0];
+            array[0] = array[last];
+            array[last] = first;
+            siftDown(array, 0, last - 1, order);
+        }
+    }
+
+    /**
+     * Sorts the buffer and writes it out as a new run, leaving the buffer
+     * empty. If writing fails, the file is deleted and the buffer keeps all
+     * its entries, so {@code this} is unchanged but for their order.
+     */
+    private void spill() {
+        sortDescending(this.buffer, this.bufferSize, this.machineOrder);
+        RunWriter out = new RunWriter();
+        Run run;
+        try {
+            for (int i = this.bufferSize - 1; i >= 0; i--) {
+                out.write(this.buffer[i]);
+            }
+            run = out.finish(this.runs.size());
+        } catch (RuntimeException e) {
+            out.abort(e);
+            throw e;
+        }
+        this.runs.add(run);
+        Arrays.fill(this.buffer, 0, this.bufferSize, null);
+        this.bufferSize = 0;
+    }
+
+    /**
+     * Returns the largest number of runs merged at once: as many as the
+     * budget, so that their heads fit in it, but at least two and at most
+     * {@code MAX_FAN_IN}.
+     *
+     * @return the largest number of runs merged at once
+     */
+    private int fanIn() {
+        return Math.max(2, Math.min(MAX_FAN_IN, this.budget));
+    }
+
+    /**
+     * Returns the size in bytes of the buffer used to read a run file:
+     * {@code READ_BYTES_PER_ENTRY} bytes for each entry of the budget, shared
+     * by the runs of a merge, but at least {@code MIN_READ_BUFFER_SIZE} and
+     * at most {@code IO_BUFFER_SIZE}.
+     *
+     * @return the size of the buffer used to read a run file
+     */
+    private int readBufferSize() {
+        long size = (long) this.budget * READ_BYTES_PER_ENTRY / this.fanIn();
+        return (int) Math.max(MIN_READ_BUFFER_SIZE,
+                Math.min(IO_BUFFER_SIZE, size));
+    }
+
+    /**
+     * Opens each of {@code runs} and makes them the merge heap, ordered by
+     * their first entries. If one of them cannot be opened, the ones already
+     * open are closed again, and the merge heap is left empty.
+     *
+     * @param runs
+     *            the runs to merge, none of them open or exhausted
+     */
+    private void openMerge(Run[] runs) {
+        int opened = 0;
+        try {
+            for (Run run : runs) {
+                run.open();
+                opened++;
+            }
+        } catch (RuntimeException e) {
+            for (int i = 0; i < opened; i++) {
+                try {
+                    runs[i].close();
+                } catch (UncheckedIOException closing) {
+                    e.addSuppressed(closing);
+                }
+            }
+            throw e;
+        }
+        this.merge = runs;
+        this.mergeSize = runs.length;
+        for (int top = this.mergeSize / 2 - 1; top >= 0; top--) {
+            this.siftDownMerge(top);
+        }
+    }
+
+    /**
+     * Removes and returns the next entry of the merge: the head of the run
+     * at the root of the merge heap. A run that this exhausts is closed and
+     * leaves the merge heap.
+     *
+     * @return the entry removed
+     */
+    private T removeFirstMerged() {
+        Run run = this.merge[0];
+        T first = run.head;
+        run.advance();
+        if (run.remaining == 0) {
+            this.mergeSize--;
+            this.merge[0] = this.merge[this.mergeSize];
+            this.merge[this.mergeSize] = null;
+        }
+        if (this.mergeSize > 0) {
+            this.siftDownMerge(0);
+        }
+        return first;
+    }
+
+    /**
+     * Merges {@code group}, a list of consecutive runs, into a new run, which
+     * it returns. The runs of {@code group} are left as they were, files
+     * included, whether the merge succeeds or not.
+     *
+     * @param group
+     *            the runs to merge, oldest first
+     * @param index
+     *            position of the new run in {@code runs}
+     * @return the new run
+     */
+    private Run mergeRuns(List<Run> group, int index) {
+        /*
+         * Merge copies of the runs, so that their counts of entries not yet
+         * merged are not touched.
+         */
+        Run[] copies = this.newRunArray(group.size());
+        for (int i = 0; i < copies.length; i++) {
+            Run run = group.get(i);
+            copies[i] = new Run(run.file, i, run.remaining);
+        }
+        this.openMerge(copies);
+        RunWriter out = null;
+        Run merged;
+        try {
+            out = new RunWriter();
+            while (this.mergeSize > 0) {
+                out.write(this.removeFirstMerged());
+            }
+            merged = out.finish(index);
+        } catch (RuntimeException e) {
+            for (int i = 0; i < this.mergeSize; i++) {
+                try {
+                    this.merge[i].close();
+                } catch (UncheckedIOException closing) {
+                    e.addSuppressed(closing);
+                }
+            }
+            if (out != null) {
+                out.abort(e);
+            }
+            throw e;
+        } finally {
+            this.merge = null;
+            this.mergeSize = 0;
+        }
+        return merged;
+    }
+
+    /**
+     * Merges consecutive groups of runs into longer runs until there are no
+     * more than {@code fanIn()} of them. If a merge fails, the runs merged so
+     * far stay merged, and the others are left as they were.
+     */
+    private void reduceRuns() {
+        int fanIn = this.fanIn();
+        while (this.runs.size() > fanIn) {
+            int index = 0;
+            while (index < this.runs.size()) {
+                int to = Math.min(index + fanIn, this.runs.size());
+                if (to - index > 1) {
+                    List<Run> group = this.runs.subList(index, to);
+                    Run merged = this.mergeRuns(group, index);
+                    List<Run> done = new ArrayList<>(group);
+                    group.clear();
+                    this.runs.add(index, merged);
+                    /*
+                     * Keep the positions of the runs after the new one up to
+                     * date, since they break ties in the merge.
+                     */
+                    for (int i = index + 1; i < this.runs.size(); i++) {
+                        Run run = this.runs.get(i);
+                        this.runs.set(i, new Run(run.file, i, run.remaining));
+                    }
+                    for (Run run : done) {
+                        run.delete();
+                    }
+                }
+                index++;
+            }
+        }
+    }
+
+    /**
+     * Deletes the temporary files of all runs.
+     */
+    private void deleteRuns() {
+        for (Run run : this.runs) {
+            run.delete();
+        }
+    }
+
+    /**
+     * Checks that the part of the convention repeated below holds for the
+     * current representation.
+     *
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * 1 <= $this.budget = |$this.buffer|  and
+     * 0 <= $this.bufferSize <= $this.budget  and
+     * [the entries of $this.buffer[0, $this.bufferSize) are not null]  and
+     * if $this.insertionMode then
+     *   $this.merge = null
+     * else if $this.runs = <> then
+     *   $this.merge = null  and
+     *   [$this.buffer[0, $this.bufferSize) is a heap]
+     * else
+     *   $this.bufferSize = 0  and
+     *   |$this.runs| <= max(2, min(MAX_FAN_IN, $this.budget))  and
+     *   $this.merge /= null
+     * </pre>
+     */
+    private boolean conventionHolds() {
+        assert 1 <= this.budget && this.budget == this.buffer.length : ""
+                + "Violation of: 1 <= $this.budget = |$this.buffer|";
+        assert 0 <= this.bufferSize && this.bufferSize <= this.budget : ""
+                + "Violation of: 0 <= $this.bufferSize <= $this.budget";
+        for (int i = 0; i < this.bufferSize; i++) {
+            assert this.buffer[i] != null : ""
+                    + "Violation of: all entries in $this.buffer are not null";
+        }
+        if (this.insertionMode || this.runs.isEmpty()) {
+            assert this.merge == null : "Violation of: $this.merge = null";
+        } else {
+            assert this.bufferSize == 0 : ""
+                    + "Violation of: $this.bufferSize = 0";
+            assert this.runs.size() <= this.fanIn() : "Violation of:"
+                    + " |$this.runs| <= max(2, min(MAX_FAN_IN, $this.budget))";
+            assert this.merge != null : "Violation of: $this.merge /= null";
+        }
+        if (!this.insertionMode && this.runs.isEmpty()) {
+            for (int i = 1; i < this.bufferSize; i++) {
+                assert this.machineOrder.compare(this.buffer[(i - 1) / 2],
+                        this.buffer[i]) <= 0 : ""
+                                + "Violation of: [$this.buffer is a heap]";
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @requires IS_TOTAL_PREORDER([relation computed by order.compare method]
+     * @ensures <pre>
+     * $this.insertionMode = true  and
+     * $this.machineOrder = order  and
+     * $this.bufferSize = 0  and
+     * $this.runs = <>  and
+     * $this.merge = null
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    private void createNewRep(Comparator<T> order) {
+
+        this.insertionMode = true;
+        this.machineOrder = order;
+        this.buffer = (T[]) (new Object[this.budget]);
+        this.bufferSize = 0;
+        this.runs = new ArrayList<>();
+        this.merge = null;
+        this.mergeSize = 0;
+
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from order, memory budget, and serializer.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @param budget
+     *            maximum number of entries held in memory
+     * @param serializer
+     *            converts entries to and from bytes
+     */
+    public ExternalSortingMachine(Comparator<T> order, int budget,
+            Serializer<T> serializer) {
+        assert budget >= 1 : "Violation of: budget >= 1";
+        assert serializer != null : "Violation of: serializer is not null";
+        this.budget = budget;
+        this.serializer = serializer;
+        this.createNewRep(order);
+        assert this.conventionHolds();
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final SortingMachine<T> newInstance() {
+        try {
+            Constructor<?> c = this.getClass().getConstructor(Comparator.class,
+                    int.class, Serializer.class);
+            return (SortingMachine<T>) c.newInstance(this.machineOrder,
+                    this.budget, this.serializer);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.deleteRuns();
+        this.createNewRep(this.machineOrder);
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void transferFrom(SortingMachine<T> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof ExternalSortingMachine<?> : ""
+                + "Violation of: source is of dynamic type ExternalSortingMachine<?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case: source must be of dynamic type
+         * ExternalSortingMachine<?>, and the ? must be T or the call would not
+         * have compiled.
+         */
+        ExternalSortingMachine<T> localSource = (ExternalSortingMachine<T>) source;
+        this.deleteRuns();
+        /*
+         * The runs read entries through the serializer of the machine that
+         * spilled them, so they stay with the rest of the representation only
+         * if the serializer comes along too.
+         */
+        this.insertionMode = localSource.insertionMode;
+        this.machineOrder = localSource.machineOrder;
+        this.budget = localSource.budget;
+        this.serializer = localSource.serializer;
+        this.buffer = localSource.buffer;
+        this.bufferSize = localSource.bufferSize;
+        this.runs = localSource.runs;
+        this.merge = localSource.merge;
+        this.mergeSize = localSource.mergeSize;
+        localSource.createNewRep(localSource.machineOrder);
+        assert this.conventionHolds();
+        assert localSource.conventionHolds();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(T x) {
+        assert x != null : "Violation of: x is not null";
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        if (this.bufferSize == this.budget) {
+            this.spill();
+        }
+        this.buffer[this.bufferSize] = x;
+        this.bufferSize++;
+
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void changeToExtractionMode() {
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        if (this.runs.isEmpty()) {
+            /*
+             * Everything fits in memory: no files at all.
+             */
+            heapify(this.buffer, this.bufferSize, this.machineOrder);
+        } else {
+            /*
+             * Spill what is left in memory as the last run, merge runs until
+             * there are few enough to merge at once, then open them and
+             * heapify them by their first entries. If any of this fails,
+             * this is left in insertion mode, with the same entries.
+             */
+            if (this.bufferSize > 0) {
+                this.spill();
+            }
+            this.reduceRuns();
+            Run[] runs = this.newRunArray(this.runs.size());
+            this.openMerge(this.runs.toArray(runs));
+        }
+        this.insertionMode = false;
+
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final T removeFirst() {
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
+        assert this.size() > 0 : "Violation of: this.contents /= {}";
+
+        T first;
+        if (this.merge == null) {
+            first = removeFirst(this.buffer, this.bufferSize,
+                    this.machineOrder);
+            this.bufferSize--;
+        } else {
+            Run run = this.merge[0];
+            first = this.removeFirstMerged();
+            if (run.remaining == 0) {
+                run.delete();
+            }
+        }
+
+        assert this.conventionHolds();
+        return first;
+    }
+
+    @Override
+    public final boolean isInInsertionMode() {
+        assert this.conventionHolds();
+        return this.insertionMode;
+    }
+
+    @Override
+    public final Comparator<T> order() {
+        assert this.conventionHolds();
+        return this.machineOrder;
+    }
+
+    @Override
+    public final int size() {
+        long size = this.bufferSize;
+        for (Run run : this.runs) {
+            size += run.remaining;
+        }
+        assert this.conventionHolds();
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public final Iterator<T> iterator() {
+        return new ExternalSortingMachineIterator();
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for
+     * {@code ExternalSortingMachine}. Returns the entries in the buffer, then
+     * the entries not yet merged from each run, which it reads from the run
+     * files in batches of at most {@code ITERATOR_BATCH} entries, opening and
+     * closing a reader for each batch, so that no file stays open between
+     * calls, even if the iteration is abandoned.
+     */
+    private final class ExternalSortingMachineIterator implements Iterator<T> {
+
+        /**
+         * Representation iterator count over the buffer.
+         */
+        private int bufferCurrentIndex;
+
+        /**
+         * Index in {@code runs} of the next run to read.
+         */
+        private int runIndex;
+
+        /**
+         * File of the run being read, or {@code null}.
+         */
+        private Path file;
+
+        /**
+         * File offset of the next entry to read from the run being read.
+         */
+        private long offset;
+
+        /**
+         * Number of entries of the run being read not yet read into
+         * {@code batch}.
+         */
+        private long left;
+
+        /**
+         * Entries read from the run being read and not yet returned.
+         */
+        private final T[] batch;
+
+        /**
+         * Number of entries in {@code batch}.
+         */
+        private int batchSize;
+
+        /**
+         * Index in {@code batch} of the next entry to return.
+         */
+        private int batchIndex;
+
+        /**
+         * No-argument constructor.
+         */
+        @SuppressWarnings("unchecked")
+        private ExternalSortingMachineIterator() {
+            this.bufferCurrentIndex = 0;
+            this.runIndex = 0;
+            this.left = 0;
+            this.batch = (T[]) (new Object[Math.min(ITERATOR_BATCH,
+                    ExternalSortingMachine.this.budget)]);
+            this.batchSize = 0;
+            this.batchIndex = 0;
+            assert ExternalSortingMachine.this.conventionHolds();
+        }
+
+        @Override
+        public boolean hasNext() {
+            ExternalSortingMachine<T> m = ExternalSortingMachine.this;
+            boolean hasNext = this.bufferCurrentIndex < m.bufferSize
+                    || this.batchIndex < this.batchSize || this.left > 0;
+            for (int i = this.runIndex; !hasNext && i < m.runs.size(); i++) {
+                hasNext = m.runs.get(i).remaining > 0;
+            }
+            assert m.conventionHolds();
+            return hasNext;
+        }
+
+        @Override
+        public T next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            ExternalSortingMachine<T> m = ExternalSortingMachine.this;
+            T next;
+            if (this.bufferCurrentIndex < m.bufferSize) {
+                next = m.buffer[this.bufferCurrentIndex];
+                this.bufferCurrentIndex++;
+            } else {
+                if (this.batchIndex == this.batchSize) {
+                    this.readBatch();
+                }
+                next = this.batch[this.batchIndex];
+                this.batch[this.batchIndex] = null;
+                this.batchIndex++;
+            }
+            assert m.conventionHolds();
+            return next;
+        }
+
+        /**
+         * Refills {@code batch} with the next entries not yet returned, moving
+         * on to the next run that still has entries if the one being read is
+         * done.
+         */
+        private void readBatch() {
+            ExternalSortingMachine<T> m = ExternalSortingMachine.this;
+            this.batchSize = 0;
+            this.batchIndex = 0;
+            if (this.left == 0) {
+                Run run = m.runs.get(this.runIndex);
+                while (run.remaining == 0) {
+                    this.runIndex++;
+                    run = m.runs.get(this.runIndex);
+                }
+                this.runIndex++;
+                this.file = run.file;
+                this.left = run.remaining;
+                this.offset = 0;
+                if (run.reader != null) {
+                    /*
+                     * The run is being merged: its head has already been read,
+                     * and the rest of it starts where the merge's reader is
+                     * now.
+                     */
+                    this.batch[0] = run.head;
+                    this.batchSize = 1;
+                    this.left--;
+                    this.offset = run.reader.offset;
+                }
+            }
+            int n = (int) Math.min(this.left,
+                    this.batch.length - this.batchSize);
+            if (n > 0) {
+                RunReader reader = new RunReader(this.file, this.offset);
+                try {
+                    for (int i = 0; i < n; i++) {
+                        this.batch[this.batchSize] = reader.read();
+                        this.batchSize++;
+                    }
+                } finally {
+                    reader.close();
+                }
+                this.offset = reader.offset;
+                this.left -= n;
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+}
@@ -0,0 +1,461 @@
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachineSecondary;
+
+/**
+ * {@code SortingMachine} that orders its entries by a key derived from each
+ * entry, represented as an array of entries next to an array of their keys
+ * (using an embedding of heap sort on the keys).
+ *
+ * <p>
+ * A {@code Comparator} that derives a key from each entry (parsing a date,
+ * lowercasing a name, ...) derives it again on every comparison, about log n
+ * times per entry while sorting. This machine applies the key extractor
+ * exactly once per entry, when it is added, and keeps the key in
+ * {@code keys[i]} next to the entry in {@code entries[i]}; the heap compares
+ * the keys only and moves the entries in lockstep. {@code order()} still
+ * reports an order on the entries, which derives the keys on every call, for
+ * clients that need one.
+ *
+ * <p>
+ * Entries added in insertion mode are appended to the arrays;
+ * {@code changeToExtractionMode} heapifies them in place, like
+ * {@code IntSortingMachine}.
+ *
+ * @param <T>
+ *            type of {@code SortingMachine} entries
+ * @param <K>
+ *            type of the keys
+ * @convention <pre>
+ * IS_TOTAL_PREORDER([relation computed by $this.keyOrder.compare method]  and
+ * 0 <= $this.size <= |$this.entries| = |$this.keys|  and
+ * [the entries of $this.entries[0, $this.size) are not null]  and
+ * for all i: integer where (0 <= i < $this.size)
+ *   ($this.keys[i] = $this.keyExtractor.apply($this.entries[i]))  and
+ * [the entries of $this.entries and $this.keys from $this.size on are
+ *  null]  and
+ * if not $this.insertionMode then
+ *   [$this.keys[0, $this.size) is a heap according to the relation computed
+ *    by $this.keyOrder.compare method]
+ * </pre>
+ * @correspondence <pre>
+ * this = ($this.insertionMode, $this.machineOrder,
+ *         multiset_entries($this.entries[0, $this.size)))
+ * </pre>
+ */
+public class KeyedSortingMachine<T, K> extends SortingMachineSecondary<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Initial capacity of the arrays.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Key extractor.
+     */
+    private Function<? super T, ? extends K> keyExtractor;
+
+    /**
+     * Order of the keys.
+     */
+    private Comparator<? super K> keyOrder;
+
+    /**
+     * Order of the entries, derived from the key extractor and the key order.
+     */
+    private Comparator<T> machineOrder;
+
+    /**
+     * Insertion mode.
+     */
+    private boolean insertionMode;
+
+    /**
+     * Entries, moved in lockstep with their keys.
+     */
+    private T[] entries;
+
+    /**
+     * Keys of the entries; a heap in extraction mode.
+     */
+    private K[] keys;
+
+    /**
+     * Number of entries.
+     */
+    private int size;
+
+    /**
+     * Sifts the key at index {@code top} down through a heap of keys, moving
+     * the entries in lockstep: each step compares only the keys, which were
+     * computed once when the entries were added, shifting the smaller child
+     * key and its entry up to a leaf, then placing the key and its entry on
+     * the way back up.
+     *
+     * @param <T>
+     *            type of entries
+     * @param <K>
+     *            type of keys
+     * @param entries
+     *            the entries of the keys
+     * @param keys
+     *            the complete binary tree of keys
+     * @param top
+     *            the index of the root of the "subtree"
+     * @param last
+     *            the index of the last key in the heap
+     * @param order
+     *            total preorder on the keys
+     * @updates entries, keys
+     * @requires <pre>
+     * 0 <= top  and  last < |keys| = |entries|  and
+     * [both subtrees of the key at index top are heaps]
+     * </pre>
+     * @ensures <pre>
+     * [the subtree of keys rooted at top, through last, is a heap]  and
+     * [entries and keys are permuted in the same way]
+     * </pre>
+     */
+    private static <T, K> void siftDown(T[] entries, K[] keys, int top,
+            int last, Comparator<? super K> order) {
+        T rootEntry = entries[top];
+        K root = keys[top];
+        int hole = top;
+        int child = 2 * hole + 1;
+        while (child < last) {
+            if (order.compare(keys[child], keys[child + 1]) > 0) {
+                child++;
+            }
+            entries[hole] = entries[child];
+            keys[hole] = keys[child];
+            hole = child;
+            child = 2 * hole + 1;
+        }
+        if (child == last) {
+            entries[hole] = entries[child];
+            keys[hole] = keys[child];
+            hole = child;
+        }
+        while (hole > top) {
+            int parent = (hole - 1) / 2;
+            if (order.compare(keys[parent], root) < 0) {
+                break;
+            }
+            entries[hole] = entries[parent];
+            keys[hole] = keys[parent];
+            hole = parent;
+        }
+        entries[hole] = rootEntry;
+        keys[hole] = root;
+    }
+
+    /**
+     * Returns the order on entries that compares their keys. When the key
+     * extractor is {@code Function.identity()}, the entries are their own
+     * keys, and this is {@code keyOrder} itself.
+     *
+     * @param <T>
+     *            type of entries
+     * @param <K>
+     *            type of keys
+     * @param keyExtractor
+     *            function computing the key of an entry
+     * @param keyOrder
+     *            total preorder on the keys
+     * @return the order on entries
+     * @ensures <pre>
+     * [orderOf.compare(x, y) = keyOrder.compare(keyExtractor.apply(x),
+     *                                           keyExtractor.apply(y))]
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    private static <T, K> Comparator<T> orderOf(
+            Function<? super T, ? extends K> keyExtractor,
+            Comparator<? super K> keyOrder) {
+        Comparator<T> order;
+        if (keyExtractor == Function.identity()) {
+            /*
+             * T is then a subtype of K, so this cast cannot fail.
+             */
+            order = (Comparator<T>) keyOrder;
+        } else {
+            order = (x, y) -> keyOrder.compare(keyExtractor.apply(x),
+                    keyExtractor.apply(y));
+        }
+        return order;
+    }
+
+    /**
+     * Checks that the part of the convention repeated below holds for the
+     * current representation.
+     *
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * 0 <= $this.size <= |$this.entries| = |$this.keys|  and
+     * [the entries of $this.entries[0, $this.size) are not null]  and
+     * [the entries of $this.entries and $this.keys from $this.size on are
+     *  null]  and
+     * if not $this.insertionMode then
+     *   [$this.keys[0, $this.size) is a heap]
+     * </pre>
+     */
+    private boolean conventionHolds() {
+        assert 0 <= this.size && this.size <= this.entries.length : ""
+                + "Violation of: 0 <= $this.size <= |$this.entries|";
+        assert this.entries.length == this.keys.length : ""
+                + "Violation of: |$this.entries| = |$this.keys|";
+        for (int i = 0; i < this.size; i++) {
+            assert this.entries[i] != null : "Violation of: the entries of"
+                    + " $this.entries[0, $this.size) are not null";
+        }
+        for (int i = this.size; i < this.entries.length; i++) {
+            assert this.entries[i] == null && this.keys[i] == null : ""
+                    + "Violation of: [the entries of $this.entries and"
+                    + " $this.keys from $this.size on are null]";
+        }
+        if (!this.insertionMode) {
+            for (int i = 1; i < this.size; i++) {
+                assert this.keyOrder.compare(this.keys[(i - 1) / 2],
+                        this.keys[i]) <= 0 : ""
+                                + "Violation of: if not $this.insertionMode"
+                                + " then [$this.keys is a heap]";
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @ensures <pre>
+     * $this.insertionMode = true  and
+     * $this.size = 0
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    private void createNewRep() {
+
+        this.insertionMode = true;
+        this.entries = (T[]) (new Object[INITIAL_CAPACITY]);
+        this.keys = (K[]) (new Object[INITIAL_CAPACITY]);
+        this.size = 0;
+
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from key extractor and key order.
+     *
+     * @param keyExtractor
+     *            function computing the key of an entry
+     * @param keyOrder
+     *            total preorder on the keys
+     */
+    public KeyedSortingMachine(Function<? super T, ? extends K> keyExtractor,
+            Comparator<? super K> keyOrder) {
+        assert keyExtractor != null : "Violation of: keyExtractor is not null";
+        assert keyOrder != null : "Violation of: keyOrder is not null";
+        this.keyExtractor = keyExtractor;
+        this.keyOrder = keyOrder;
+        this.machineOrder = orderOf(keyExtractor, keyOrder);
+        this.createNewRep();
+        assert this.conventionHolds();
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final SortingMachine<T> newInstance() {
+        try {
+            Constructor<?> c = this.getClass().getConstructor(Function.class,
+                    Comparator.class);
+            return (SortingMachine<T>) c.newInstance(this.keyExtractor,
+                    this.keyOrder);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep();
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void transferFrom(SortingMachine<T> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof KeyedSortingMachine<?, ?> : ""
+                + "Violation of: source is of dynamic type"
+                + " KeyedSortingMachine<?, ?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case: source must be of dynamic type
+         * KeyedSortingMachine<?, ?>, and the first ? must be T or the call
+         * would not have compiled. The second ? does not matter, since the
+         * key extractor, the key order and the keys are all taken over
+         * together.
+         */
+        @SuppressWarnings("unchecked")
+        KeyedSortingMachine<T, K> localSource =
+                (KeyedSortingMachine<T, K>) source;
+        this.keyExtractor = localSource.keyExtractor;
+        this.keyOrder = localSource.keyOrder;
+        this.machineOrder = localSource.machineOrder;
+        this.insertionMode = localSource.insertionMode;
+        this.entries = localSource.entries;
+        this.keys = localSource.keys;
+        this.size = localSource.size;
+        localSource.createNewRep();
+        assert this.conventionHolds();
+        assert localSource.conventionHolds();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(T x) {
+        assert x != null : "Violation of: x is not null";
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        if (this.size == this.entries.length) {
+            this.entries = Arrays.copyOf(this.entries, 2 * this.size);
+            this.keys = Arrays.copyOf(this.keys, 2 * this.size);
+        }
+        this.entries[this.size] = x;
+        this.keys[this.size] = this.keyExtractor.apply(x);
+        this.size++;
+
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void changeToExtractionMode() {
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        this.insertionMode = false;
+        int last = this.size - 1;
+        for (int top = (last - 1) / 2; top >= 0; top--) {
+            siftDown(this.entries, this.keys, top, last, this.keyOrder);
+        }
+
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final T removeFirst() {
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
+        assert this.size() > 0 : "Violation of: this.contents /= {}";
+
+        T first = this.entries[0];
+        this.size--;
+        this.entries[0] = this.entries[this.size];
+        this.keys[0] = this.keys[this.size];
+        /*
+         * Release the last slots so the entry and key can be garbage
+         * collected.
+         */
+        this.entries[this.size] = null;
+        this.keys[this.size] = null;
+        siftDown(this.entries, this.keys, 0, this.size - 1, this.keyOrder);
+
+        assert this.conventionHolds();
+        return first;
+    }
+
+    @Override
+    public final boolean isInInsertionMode() {
+        assert this.conventionHolds();
+        return this.insertionMode;
+    }
+
+    @Override
+    public final Comparator<T> order() {
+        assert this.conventionHolds();
+        return this.machineOrder;
+    }
+
+    @Override
+    public final int size() {
+        assert this.conventionHolds();
+        return this.size;
+    }
+
+    @Override
+    public final Iterator<T> iterator() {
+        return new KeyedSortingMachineIterator();
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for
+     * {@code KeyedSortingMachine}.
+     */
+    private final class KeyedSortingMachineIterator implements Iterator<T> {
+
+        /**
+         * Index of the next entry to return.
+         */
+        private int currentIndex;
+
+        /**
+         * No-argument constructor.
+         */
+        private KeyedSortingMachineIterator() {
+            this.currentIndex = 0;
+            assert KeyedSortingMachine.this.conventionHolds();
+        }
+
+        @Override
+        public boolean hasNext() {
+            assert KeyedSortingMachine.this.conventionHolds();
+            return this.currentIndex < KeyedSortingMachine.this.size;
+        }
+
+        @Override
+        public T next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            T next = KeyedSortingMachine.this.entries[this.currentIndex];
+            this.currentIndex++;
+            assert KeyedSortingMachine.this.conventionHolds();
+            return next;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+}
@@ -0,0 +1,394 @@
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.ToLongFunction;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachineSecondary;
+
+/**
+ * {@code SortingMachine} that orders its entries by increasing {@code long}
+ * key derived from each entry, represented as an array of entries next to a
+ * {@code long[]} of their keys (using an embedding of heap sort on the keys).
+ * It is the primitive counterpart of {@code KeyedSortingMachine}, for keys
+ * such as timestamps or ids: the keys are stored unboxed and compared
+ * directly, with no {@code Comparator} call.
+ *
+ * <p>
+ * As in {@code KeyedSortingMachine}, the key extractor is applied once per
+ * entry, when it is added, and the heap moves the entries in lockstep with
+ * their keys. {@code order()} reports the equivalent order on the entries.
+ *
+ * <p>
+ * Entries added in insertion mode are appended to the arrays;
+ * {@code changeToExtractionMode} heapifies them in place, like
+ * {@code IntSortingMachine}.
+ *
+ * @param <T>
+ *            type of {@code SortingMachine} entries
+ * @convention <pre>
+ * 0 <= $this.size <= |$this.entries| = |$this.keys|  and
+ * [the entries of $this.entries[0, $this.size) are not null]  and
+ * for all i: integer where (0 <= i < $this.size)
+ *   ($this.keys[i] = $this.keyExtractor.applyAsLong($this.entries[i]))  and
+ * [the entries of $this.entries from $this.size on are null]  and
+ * if not $this.insertionMode then
+ *   [$this.keys[0, $this.size) is a heap in increasing order]
+ * </pre>
+ * @correspondence <pre>
+ * this = ($this.insertionMode, $this.machineOrder,
+ *         multiset_entries($this.entries[0, $this.size)))
+ * </pre>
+ */
+public class LongKeyedSortingMachine<T> extends SortingMachineSecondary<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Initial capacity of the arrays.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Key extractor.
+     */
+    private ToLongFunction<? super T> keyExtractor;
+
+    /**
+     * Order of the entries, derived from the key extractor.
+     */
+    private Comparator<T> machineOrder;
+
+    /**
+     * Insertion mode.
+     */
+    private boolean insertionMode;
+
+    /**
+     * Entries, moved in lockstep with their keys.
+     */
+    private T[] entries;
+
+    /**
+     * Keys of the entries; a heap in extraction mode.
+     */
+    private long[] keys;
+
+    /**
+     * Number of entries.
+     */
+    private int size;
+
+    /**
+     * Sifts the key at index {@code top} down through a heap of {@code long}
+     * keys, moving the entries in lockstep. The keys are compared with
+     * {@code <} and {@code >}, never through a comparator: the smaller child
+     * key and its entry are shifted up to a leaf, and the sifted key and its
+     * entry then settle on the way back up.
+     *
+     * @param <T>
+     *            type of entries
+     * @param entries
+     *            the entries of the keys
+     * @param keys
+     *            the complete binary tree of keys
+     * @param top
+     *            the index of the root of the "subtree"
+     * @param last
+     *            the index of the last key in the heap
+     * @updates entries, keys
+     * @requires <pre>
+     * 0 <= top  and  last < |keys| = |entries|  and
+     * [both subtrees of the key at index top are heaps]
+     * </pre>
+     * @ensures <pre>
+     * [the subtree of keys rooted at top, through last, is a heap]  and
+     * [entries and keys are permuted in the same way]
+     * </pre>
+     */
+    private static <T> void siftDown(T[] entries, long[] keys, int top,
+            int last) {
+        T rootEntry = entries[top];
+        long root = keys[top];
+        int hole = top;
+        int child = 2 * hole + 1;
+        while (child < last) {
+            if (keys[child] > keys[child + 1]) {
+                child++;
+            }
+            entries[hole] = entries[child];
+            keys[hole] = keys[child];
+            hole = child;
+            child = 2 * hole + 1;
+        }
+        if (child == last) {
+            entries[hole] = entries[child];
+            keys[hole] = keys[child];
+            hole = child;
+        }
+        while (hole > top) {
+            int parent = (hole - 1) / 2;
+            if (keys[parent] < root) {
+                break;
+            }
+            entries[hole] = entries[parent];
+            keys[hole] = keys[parent];
+            hole = parent;
+        }
+        entries[hole] = rootEntry;
+        keys[hole] = root;
+    }
+
+    /**
+     * Checks that the part of the convention repeated below holds for the
+     * current representation.
+     *
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * 0 <= $this.size <= |$this.entries| = |$this.keys|  and
+     * [the entries of $this.entries[0, $this.size) are not null]  and
+     * [the entries of $this.entries from $this.size on are null]  and
+     * if not $this.insertionMode then
+     *   [$this.keys[0, $this.size) is a heap]
+     * </pre>
+     */
+    private boolean conventionHolds() {
+        assert 0 <= this.size && this.size <= this.entries.length : ""
+                + "Violation of: 0 <= $this.size <= |$this.entries|";
+        assert this.entries.length == this.keys.length : ""
+                + "Violation of: |$this.entries| = |$this.keys|";
+        for (int i = 0; i < this.size; i++) {
+            assert this.entries[i] != null : "Violation of: the entries of"
+                    + " $this.entries[0, $this.size) are not null";
+        }
+        for (int i = this.size; i < this.entries.length; i++) {
+            assert this.entries[i] == null : "Violation of: [the entries of"
+                    + " $this.entries from $this.size on are null]";
+        }
+        if (!this.insertionMode) {
+            for (int i = 1; i < this.size; i++) {
+                assert this.keys[(i - 1) / 2] <= this.keys[i] : ""
+                        + "Violation of: if not $this.insertionMode"
+                        + " then [$this.keys is a heap]";
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @ensures <pre>
+     * $this.insertionMode = true  and
+     * $this.size = 0
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    private void createNewRep() {
+
+        this.insertionMode = true;
+        this.entries = (T[]) (new Object[INITIAL_CAPACITY]);
+        this.keys = new long[INITIAL_CAPACITY];
+        this.size = 0;
+
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from key extractor.
+     *
+     * @param keyExtractor
+     *            function computing the key of an entry
+     */
+    public LongKeyedSortingMachine(ToLongFunction<? super T> keyExtractor) {
+        assert keyExtractor != null : "Violation of: keyExtractor is not null";
+        this.keyExtractor = keyExtractor;
+        this.machineOrder = Comparator.comparingLong(keyExtractor);
+        this.createNewRep();
+        assert this.conventionHolds();
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final SortingMachine<T> newInstance() {
+        try {
+            Constructor<?> c = this.getClass()
+                    .getConstructor(ToLongFunction.class);
+            return (SortingMachine<T>) c.newInstance(this.keyExtractor);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep();
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void transferFrom(SortingMachine<T> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof LongKeyedSortingMachine<?> : ""
+                + "Violation of: source is of dynamic type"
+                + " LongKeyedSortingMachine<?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case: source must be of dynamic type
+         * LongKeyedSortingMachine<?>, and the ? must be T or the call would
+         * not have compiled.
+         */
+        LongKeyedSortingMachine<T> localSource =
+                (LongKeyedSortingMachine<T>) source;
+        this.keyExtractor = localSource.keyExtractor;
+        this.machineOrder = localSource.machineOrder;
+        this.insertionMode = localSource.insertionMode;
+        this.entries = localSource.entries;
+        this.keys = localSource.keys;
+        this.size = localSource.size;
+        localSource.createNewRep();
+        assert this.conventionHolds();
+        assert localSource.conventionHolds();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(T x) {
+        assert x != null : "Violation of: x is not null";
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        if (this.size == this.entries.length) {
+            this.entries = Arrays.copyOf(this.entries, 2 * this.size);
+            this.keys = Arrays.copyOf(this.keys, 2 * this.size);
+        }
+        this.entries[this.size] = x;
+        this.keys[this.size] = this.keyExtractor.applyAsLong(x);
+        this.size++;
+
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void changeToExtractionMode() {
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        this.insertionMode = false;
+        int last = this.size - 1;
+        for (int top = (last - 1) / 2; top >= 0; top--) {
+            siftDown(this.entries, this.keys, top, last);
+        }
+
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final T removeFirst() {
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
+        assert this.size() > 0 : "Violation of: this.contents /= {}";
+
+        T first = this.entries[0];
+        this.size--;
+        this.entries[0] = this.entries[this.size];
+        this.keys[0] = this.keys[this.size];
+        /*
+         * Release the last slot so the entry can be garbage collected.
+         */
+        this.entries[this.size] = null;
+        siftDown(this.entries, this.keys, 0, this.size - 1);
+
+        assert this.conventionHolds();
+        return first;
+    }
+
+    @Override
+    public final boolean isInInsertionMode() {
+        assert this.conventionHolds();
+        return this.insertionMode;
+    }
+
+    @Override
+    public final Comparator<T> order() {
+        assert this.conventionHolds();
+        return this.machineOrder;
+    }
+
+    @Override
+    public final int size() {
+        assert this.conventionHolds();
+        return this.size;
+    }
+
+    @Override
+    public final Iterator<T> iterator() {
+        return new LongKeyedSortingMachineIterator();
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for
+     * {@code LongKeyedSortingMachine}.
+     */
+    private final class LongKeyedSortingMachineIterator implements Iterator<T> {
+
+        /**
+         * Index of the next entry to return.
+         */
+        private int currentIndex;
+
+        /**
+         * No-argument constructor.
+         */
+        private LongKeyedSortingMachineIterator() {
+            this.currentIndex = 0;
+            assert LongKeyedSortingMachine.this.conventionHolds();
+        }
+
+        @Override
+        public boolean hasNext() {
+            assert LongKeyedSortingMachine.this.conventionHolds();
+            return this.currentIndex < LongKeyedSortingMachine.this.size;
+        }
+
+        @Override
+        public T next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            T next = LongKeyedSortingMachine.this.entries[this.currentIndex];
+            this.currentIndex++;
+            assert LongKeyedSortingMachine.this.conventionHolds();
+            return next;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+}
@@ -0,0 +1,450 @@
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.ToLongFunction;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachineSecondary;
+
+/**
+ * {@code SortingMachine} for entries whose order is the order of a
+ * {@code long} key derived from each entry, represented as an array of
+ * entries next to a {@code long[]} of their keys, sorted by LSD radix sort.
+ *
+ * <p>
+ * It is the fixed-width counterpart of {@code RadixSortingMachine}, for keys
+ * such as ids or timestamps. {@code changeToExtractionMode} counts the
+ * occurrences of every byte of every key in one pass, then makes one stable
+ * distribution pass per byte, least significant first, between the arrays
+ * and a scratch copy of them; a byte that has the same value in every key is
+ * skipped, so small or clustered keys take fewer than eight passes. The sign
+ * bit is flipped for the most significant byte so that negative keys come
+ * first. {@code removeFirst} then just advances a cursor over the sorted
+ * array, and entries with equal keys come out in the order they were added.
+ *
+ * <p>
+ * The order given to the constructor is only reported by {@code order}; the
+ * client must make sure that it is the one that the keys encode.
+ *
+ * @param <T>
+ *            type of {@code SortingMachine} entries
+ * @convention <pre>
+ * 0 <= $this.first <= $this.size <= |$this.entries| = |$this.keys|  and
+ * [the entries of $this.entries[$this.first, $this.size) are not null]  and
+ * for all i: integer where ($this.first <= i < $this.size)
+ *   ($this.keys[i] = $this.keyExtractor.applyAsLong($this.entries[i]))  and
+ * [the other entries of $this.entries are null]  and
+ * if $this.insertionMode then
+ *   $this.first = 0
+ * else
+ *   [$this.keys[$this.first, $this.size) is in increasing order]
+ * </pre>
+ * @correspondence <pre>
+ * this = ($this.insertionMode, $this.machineOrder,
+ *         multiset_entries($this.entries[$this.first, $this.size)))
+ * </pre>
+ */
+public class LongRadixSortingMachine<T> extends SortingMachineSecondary<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Initial capacity of the arrays.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Number of distinct digits (bytes).
+     */
+    private static final int RADIX = 256;
+
+    /**
+     * Number of digits (bytes) in a key.
+     */
+    private static final int DIGITS = Long.BYTES;
+
+    /**
+     * Order.
+     */
+    private Comparator<T> machineOrder;
+
+    /**
+     * Key extractor.
+     */
+    private ToLongFunction<? super T> keyExtractor;
+
+    /**
+     * Insertion mode.
+     */
+    private boolean insertionMode;
+
+    /**
+     * Entries, moved in lockstep with their keys.
+     */
+    private T[] entries;
+
+    /**
+     * Keys of the entries; sorted in extraction mode.
+     */
+    private long[] keys;
+
+    /**
+     * Index of the next entry to remove in extraction mode.
+     */
+    private int first;
+
+    /**
+     * Number of entries in use in {@code entries}, including those removed.
+     */
+    private int size;
+
+    /**
+     * Reports digit {@code d} of {@code key}, digit 0 being the least
+     * significant byte, with the sign bit flipped so that the digits of
+     * negative keys come first.
+     *
+     * @param key
+     *            the key
+     * @param d
+     *            the index of the digit
+     * @return digit {@code d} of {@code key}
+     * @requires 0 <= d < DIGITS
+     * @ensures 0 <= digit < RADIX
+     */
+    private static int digit(long key, int d) {
+        return (int) ((key ^ Long.MIN_VALUE) >>> (Byte.SIZE * d)) & (RADIX - 1);
+    }
+
+    /**
+     * Sorts {@code keys[0, n)}, moving the entries in lockstep.
+     *
+     * @param <T>
+     *            type of entries
+     * @param entries
+     *            the entries of the keys
+     * @param keys
+     *            the keys
+     * @param n
+     *            number of keys to sort
+     * @updates entries, keys
+     * @requires 0 <= n <= |keys| = |entries|
+     * @ensures <pre>
+     * [keys[0, n) is in increasing order, keeping equal keys in the same
+     *  order as in #keys]  and
+     * [entries and keys are permuted in the same way]
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> void sort(T[] entries, long[] keys, int n) {
+        /*
+         * Count every digit of every key in a single pass over the keys.
+         */
+        int[][] count = new int[DIGITS][RADIX + 1];
+        for (int i = 0; i < n; i++) {
+            long key = keys[i];
+            for (int d = 0; d < DIGITS; d++) {
+                count[d][digit(key, d) + 1]++;
+            }
+        }
+        T[] fromEntries = entries;
+        long[] fromKeys = keys;
+        T[] toEntries = (T[]) (new Object[n]);
+        long[] toKeys = new long[n];
+        for (int d = 0; d < DIGITS; d++) {
+            int[] c = count[d];
+            if (n > 0 && c[digit(keys[0], d) + 1] == n) {
+                /*
+                 * All keys have the same digit d: this pass would not move
+                 * anything.
+                 */
+                continue;
+            }
+            for (int r = 0; r < RADIX; r++) {
+                c[r + 1] += c[r];
+            }
+            for (int i = 0; i < n; i++) {
+                int r = digit(fromKeys[i], d);
+                toEntries[c[r]] = fromEntries[i];
+                toKeys[c[r]] = fromKeys[i];
+                c[r]++;
+            }
+            T[] swapEntries = fromEntries;
+            fromEntries = toEntries;
+            toEntries = swapEntries;
+            long[] swapKeys = fromKeys;
+            fromKeys = toKeys;
+            toKeys = swapKeys;
+        }
+        if (fromKeys != keys) {
+            /*
+             * An odd number of passes left the result in the scratch arrays.
+             */
+            System.arraycopy(fromEntries, 0, entries, 0, n);
+            System.arraycopy(fromKeys, 0, keys, 0, n);
+        }
+    }
+
+    /**
+     * Checks that the part of the convention repeated below holds for the
+     * current representation.
+     *
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * 0 <= $this.first <= $this.size <= |$this.entries| = |$this.keys|  and
+     * [the entries of $this.entries[$this.first, $this.size) are not null]  and
+     * [the other entries of $this.entries are null]  and
+     * if $this.insertionMode then
+     *   $this.first = 0
+     * else
+     *   [$this.keys[$this.first, $this.size) is in increasing order]
+     * </pre>
+     */
+    private boolean conventionHolds() {
+        assert 0 <= this.first && this.first <= this.size
+                && this.size <= this.entries.length : "Violation of:"
+                        + " 0 <= $this.first <= $this.size <= |$this.entries|";
+        assert this.entries.length == this.keys.length : ""
+                + "Violation of: |$this.entries| = |$this.keys|";
+        for (int i = 0; i < this.entries.length; i++) {
+            boolean inUse = this.first <= i && i < this.size;
+            assert inUse == (this.entries[i] != null) : "Violation of:"
+                    + " [only the entries of $this.entries[$this.first,"
+                    + " $this.size) are not null]";
+        }
+        if (this.insertionMode) {
+            assert this.first == 0 : ""
+                    + "Violation of: if $this.insertionMode then $this.first = 0";
+        } else {
+            for (int i = this.first + 1; i < this.size; i++) {
+                assert this.keys[i - 1] <= this.keys[i] : ""
+                        + "Violation of: if not $this.insertionMode then"
+                        + " [$this.keys is sorted]";
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @ensures <pre>
+     * $this.insertionMode = true  and
+     * $this.first = 0  and
+     * $this.size = 0
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    private void createNewRep() {
+
+        this.insertionMode = true;
+        this.entries = (T[]) (new Object[INITIAL_CAPACITY]);
+        this.keys = new long[INITIAL_CAPACITY];
+        this.first = 0;
+        this.size = 0;
+
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from order and key extractor.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @param keyExtractor
+     *            function computing the key of an entry
+     * @requires <pre>
+     * [for all entries x and y, order.compare(x, y) has the same sign as
+     *  Long.compare(keyExtractor.applyAsLong(x),
+     *               keyExtractor.applyAsLong(y))]
+     * </pre>
+     */
+    public LongRadixSortingMachine(Comparator<T> order,
+            ToLongFunction<? super T> keyExtractor) {
+        assert order != null : "Violation of: order is not null";
+        assert keyExtractor != null : "Violation of: keyExtractor is not null";
+        this.machineOrder = order;
+        this.keyExtractor = keyExtractor;
+        this.createNewRep();
+        assert this.conventionHolds();
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final SortingMachine<T> newInstance() {
+        try {
+            Constructor<?> c = this.getClass().getConstructor(Comparator.class,
+                    ToLongFunction.class);
+            return (SortingMachine<T>) c.newInstance(this.machineOrder,
+                    this.keyExtractor);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep();
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void transferFrom(SortingMachine<T> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof LongRadixSortingMachine<?> : ""
+                + "Violation of: source is of dynamic type"
+                + " LongRadixSortingMachine<?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case: source must be of dynamic type
+         * LongRadixSortingMachine<?>, and the ? must be T or the call would
+         * not have compiled.
+         */
+        LongRadixSortingMachine<T> localSource =
+                (LongRadixSortingMachine<T>) source;
+        this.machineOrder = localSource.machineOrder;
+        this.keyExtractor = localSource.keyExtractor;
+        this.insertionMode = localSource.insertionMode;
+        this.entries = localSource.entries;
+        this.keys = localSource.keys;
+        this.first = localSource.first;
+        this.size = localSource.size;
+        localSource.createNewRep();
+        assert this.conventionHolds();
+        assert localSource.conventionHolds();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(T x) {
+        assert x != null : "Violation of: x is not null";
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        if (this.size == this.entries.length) {
+            this.entries = Arrays.copyOf(this.entries, 2 * this.size);
+            this.keys = Arrays.copyOf(this.keys, 2 * this.size);
+        }
+        this.entries[this.size] = x;
+        this.keys[this.size] = this.keyExtractor.applyAsLong(x);
+        this.size++;
+
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void changeToExtractionMode() {
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        this.insertionMode = false;
+        sort(this.entries, this.keys, this.size);
+
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final T removeFirst() {
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
+        assert this.size() > 0 : "Violation of: this.contents /= {}";
+
+        T removed = this.entries[this.first];
+        /*
+         * Release the slot so the entry can be garbage collected.
+         */
+        this.entries[this.first] = null;
+        this.first++;
+
+        assert this.conventionHolds();
+        return removed;
+    }
+
+    @Override
+    public final boolean isInInsertionMode() {
+        assert this.conventionHolds();
+        return this.insertionMode;
+    }
+
+    @Override
+    public final Comparator<T> order() {
+        assert this.conventionHolds();
+        return this.machineOrder;
+    }
+
+    @Override
+    public final int size() {
+        assert this.conventionHolds();
+        return this.size - this.first;
+    }
+
+    @Override
+    public final Iterator<T> iterator() {
+        return new LongRadixSortingMachineIterator();
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for
+     * {@code LongRadixSortingMachine}.
+     */
+    private final class LongRadixSortingMachineIterator implements Iterator<T> {
+
+        /**
+         * Index of the next entry to return.
+         */
+        private int currentIndex;
+
+        /**
+         * No-argument constructor.
+         */
+        private LongRadixSortingMachineIterator() {
+            this.currentIndex = LongRadixSortingMachine.this.first;
+            assert LongRadixSortingMachine.this.conventionHolds();
+        }
+
+        @Override
+        public boolean hasNext() {
+            assert LongRadixSortingMachine.this.conventionHolds();
+            return this.currentIndex < LongRadixSortingMachine.this.size;
+        }
+
+        @Override
+        public T next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            T next = LongRadixSortingMachine.this.entries[this.currentIndex];
+            this.currentIndex++;
+            assert LongRadixSortingMachine.this.conventionHolds();
+            return next;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+}
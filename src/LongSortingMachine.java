@@ -0,0 +1,305 @@
+import java.util.Arrays;
+
+import components.standard.Standard;
+
+/**
+ * Sorting machine for {@code long} entries, in increasing order,
+ * represented as a single {@code long[]} (using an embedding of heap sort). It
+ * follows the same kernel contract as {@code SortingMachine5a} (add, then
+ * changeToExtractionMode, then removeFirst) but stores entries unboxed and
+ * compares them directly instead of through a {@code Comparator}.
+ *
+ * <p>
+ * Entries added in insertion mode are appended to the array;
+ * {@code changeToExtractionMode} heapifies that same array in place, so no
+ * entry is copied when switching modes.
+ *
+ * @mathmodel <pre>
+ * type LongSortingMachine is modeled by (
+ *   insertion_mode: boolean,
+ *   contents: finite multiset of integer
+ *  )
+ * </pre>
+ * @initially <pre>
+ * ():
+ *  ensures
+ *   this = (true, {})
+ * </pre>
+ * @convention <pre>
+ * 0 <= $this.size <= |$this.heap|  and
+ * if not $this.insertionMode then
+ *   [$this.heap[0, $this.size) is a binary heap in increasing order]
+ * </pre>
+ * @correspondence <pre>
+ * this = ($this.insertionMode, multiset_entries($this.heap[0, $this.size)))
+ * </pre>
+ */
+public class LongSortingMachine implements Standard<LongSortingMachine> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Initial capacity of the array.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Insertion mode.
+     */
+    private boolean insertionMode;
+
+    /**
+     * Entries; a heap in extraction mode.
+     */
+    private long[] heap;
+
+    /**
+     * Number of entries.
+     */
+    private int size;
+
+    /**
+     * Reports whether {@code a} comes after {@code b} in the machine order.
+     *
+     * @param a
+     *            one entry
+     * @param b
+     *            the other entry
+     * @return true iff {@code a} comes after {@code b}
+     */
+    private static boolean isGreater(long a, long b) {
+        return a > b;
+    }
+
+    /**
+     * Sifts the entry at index {@code top} down. The slot it leaves empty
+     * goes down to the bottom of the subtree, trading places with the
+     * smaller child at each level; then it goes back up, trading places with
+     * each parent that is greater than the entry, and the entry fills it.
+     *
+     * @param array
+     *            the complete binary tree
+     * @param top
+     *            the index of the root of the "subtree"
+     * @param last
+     *            the index of the last entry in the heap
+     * @updates array
+     * @requires <pre>
+     * 0 <= top  and  last < |array|  and
+     * [both subtrees of the entry at index top are heaps]
+     * </pre>
+     * @ensures <pre>
+     * [the subtree rooted at top, through last, is a heap]  and
+     * perms(array, #array)
+     * </pre>
+     */
+    private static void siftDown(long[] array, int top, int last) {
+        long root = array[top];
+        int hole = top;
+        int child = 2 * hole + 1;
+        while (child < last) {
+            if (isGreater(array[child], array[child + 1])) {
+                child++;
+            }
+            array[hole] = array[child];
+            hole = child;
+            child = 2 * hole + 1;
+        }
+        if (child == last) {
+            array[hole] = array[child];
+            hole = child;
+        }
+        while (hole > top) {
+            int parent = (hole - 1) / 2;
+            if (isGreater(root, array[parent])) {
+                break;
+            }
+            array[hole] = array[parent];
+            hole = parent;
+        }
+        array[hole] = root;
+    }
+
+    /**
+     * Checks if {@code array[0, last]} is a heap.
+     *
+     * @param array
+     *            the complete binary tree
+     * @param last
+     *            the index of the last entry in the heap
+     * @return true iff {@code array[0, last]} is a heap
+     * @requires last < |array|
+     */
+    private static boolean isHeap(long[] array, int last) {
+        boolean isHeap = true;
+        for (int i = 1; isHeap && i <= last; i++) {
+            isHeap = !isGreater(array[(i - 1) / 2], array[i]);
+        }
+        return isHeap;
+    }
+
+    /**
+     * Checks that the part of the convention repeated below holds for the
+     * current representation.
+     *
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * 0 <= $this.size <= |$this.heap|  and
+     * if not $this.insertionMode then
+     *   [$this.heap[0, $this.size) is a binary heap in increasing order]
+     * </pre>
+     */
+    private boolean conventionHolds() {
+        assert 0 <= this.size && this.size <= this.heap.length : ""
+                + "Violation of: 0 <= $this.size <= |$this.heap|";
+        assert this.insertionMode || isHeap(this.heap, this.size - 1) : ""
+                + "Violation of: if not $this.insertionMode then"
+                + " [$this.heap[0, $this.size) is a heap]";
+        return true;
+    }
+
+    /**
+     * Creator of initial representation.
+     */
+    private void createNewRep() {
+
+        this.insertionMode = true;
+        this.heap = new long[INITIAL_CAPACITY];
+        this.size = 0;
+
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * No-argument constructor.
+     */
+    public LongSortingMachine() {
+        this.createNewRep();
+        assert this.conventionHolds();
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @Override
+    public final LongSortingMachine newInstance() {
+        return new LongSortingMachine();
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep();
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void transferFrom(LongSortingMachine source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+
+        this.insertionMode = source.insertionMode;
+        this.heap = source.heap;
+        this.size = source.size;
+        source.createNewRep();
+        assert this.conventionHolds();
+        assert source.conventionHolds();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    /**
+     * Adds {@code x} to the contents of {@code this}.
+     *
+     * @param x
+     *            the entry to be added
+     * @updates this.contents
+     * @requires this.insertion_mode
+     * @ensures this.contents = #this.contents union {x}
+     */
+    public final void add(long x) {
+        assert this.insertionMode : "Violation of: this.insertion_mode";
+
+        if (this.size == this.heap.length) {
+            this.heap = Arrays.copyOf(this.heap, 2 * this.heap.length);
+        }
+        this.heap[this.size] = x;
+        this.size++;
+
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Changes the mode of {@code this} from insertion to extraction.
+     *
+     * @updates this.insertion_mode
+     * @requires this.insertion_mode
+     * @ensures not this.insertion_mode
+     */
+    public final void changeToExtractionMode() {
+        assert this.insertionMode : "Violation of: this.insertion_mode";
+
+        this.insertionMode = false;
+        int last = this.size - 1;
+        for (int top = (last - 1) / 2; top >= 0; top--) {
+            siftDown(this.heap, top, last);
+        }
+
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Removes and returns the smallest entry in {@code this.contents}.
+     *
+     * @return the entry removed
+     * @updates this.contents
+     * @requires not this.insertion_mode and this.contents /= {}
+     * @ensures <pre>
+     * removeFirst is in #this.contents  and
+     * this.contents = #this.contents \ {removeFirst}  and
+     * for all x: integer where (x is in this.contents)
+     *   (removeFirst <= x)
+     * </pre>
+     */
+    public final long removeFirst() {
+        assert !this.insertionMode : "Violation of: not this.insertion_mode";
+        assert this.size > 0 : "Violation of: this.contents /= {}";
+
+        long first = this.heap[0];
+        this.size--;
+        this.heap[0] = this.heap[this.size];
+        siftDown(this.heap, 0, this.size - 1);
+
+        assert this.conventionHolds();
+        return first;
+    }
+
+    /**
+     * Reports whether {@code this} is in insertion mode.
+     *
+     * @return true iff {@code this} is in insertion mode
+     * @ensures isInInsertionMode = this.insertion_mode
+     */
+    public final boolean isInInsertionMode() {
+        return this.insertionMode;
+    }
+
+    /**
+     * Reports the number of entries in {@code this}.
+     *
+     * @return the (multiset) size of {@code this.contents}
+     * @ensures size = |this.contents|
+     */
+    public final int size() {
+        return this.size;
+    }
+
+}
@@ -0,0 +1,576 @@
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachineSecondary;
+
+/**
+ * {@code SortingMachine} for entries whose order is the lexicographic order of
+ * a {@code String} key derived from each entry, represented as an array of
+ * entries next to an array of their keys, sorted by MSD radix sort.
+ *
+ * <p>
+ * The key extractor is applied once per entry, when it is added.
+ * {@code changeToExtractionMode} sorts the keys most significant digit first,
+ * a digit being one byte of a {@code char} (so that there are 257 buckets,
+ * counting one for keys that have ended, instead of 65537), moving the
+ * entries in lockstep; it never calls the order, and costs time proportional
+ * to the total length of the key prefixes needed to tell the keys apart. Small
+ * groups of keys are finished by insertion sort, and a digit that all keys of
+ * a group share is skipped without moving anything. {@code removeFirst} then
+ * just advances a cursor over the sorted array. Both sorts are stable, so
+ * entries with equal keys come out in the order they were added.
+ *
+ * <p>
+ * The order given to the constructor is only reported by {@code order}; the
+ * client must make sure that it is the one that the keys encode.
+ *
+ * @param <T>
+ *            type of {@code SortingMachine} entries
+ * @convention <pre>
+ * 0 <= $this.first <= $this.size <= |$this.entries| = |$this.keys|  and
+ * [the entries of $this.entries[$this.first, $this.size) are not null]  and
+ * for all i: integer where ($this.first <= i < $this.size)
+ *   ($this.keys[i] = $this.keyExtractor.apply($this.entries[i]))  and
+ * [the other entries of $this.entries and $this.keys are null]  and
+ * if $this.insertionMode then
+ *   $this.first = 0
+ * else
+ *   [$this.keys[$this.first, $this.size) is in lexicographic order]
+ * </pre>
+ * @correspondence <pre>
+ * this = ($this.insertionMode, $this.machineOrder,
+ *         multiset_entries($this.entries[$this.first, $this.size)))
+ * </pre>
+ */
+public class RadixSortingMachine<T> extends SortingMachineSecondary<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Initial capacity of the arrays.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Number of distinct digits (bytes).
+     */
+    private static final int RADIX = 256;
+
+    /**
+     * Groups of at most this many keys are sorted by insertion sort.
+     */
+    private static final int INSERTION_SORT_CUTOFF = 16;
+
+    /**
+     * Order.
+     */
+    private Comparator<T> machineOrder;
+
+    /**
+     * Key extractor.
+     */
+    private Function<? super T, String> keyExtractor;
+
+    /**
+     * Insertion mode.
+     */
+    private boolean insertionMode;
+
+    /**
+     * Entries, moved in lockstep with their keys.
+     */
+    private T[] entries;
+
+    /**
+     * Keys of the entries; sorted in extraction mode.
+     */
+    private String[] keys;
+
+    /**
+     * Index of the next entry to remove in extraction mode.
+     */
+    private int first;
+
+    /**
+     * Number of entries in use in {@code entries}, including those removed.
+     */
+    private int size;
+
+    /**
+     * Reports the bucket of digit {@code d} of {@code key}: 0 if the key has
+     * fewer than {@code d + 1} digits, and 1 + the digit otherwise. Digit
+     * {@code 2i} is the high byte of {@code key.charAt(i)}, and digit
+     * {@code 2i + 1} its low byte.
+     *
+     * @param key
+     *            the key
+     * @param d
+     *            the index of the digit
+     * @return the bucket of digit {@code d} of {@code key}
+     * @ensures 0 <= bucket <= RADIX
+     */
+    private static int bucket(String key, int d) {
+        int i = d >> 1;
+        int bucket = 0;
+        if (i < key.length()) {
+            char c = key.charAt(i);
+            if ((d & 1) == 0) {
+                bucket = (c >>> Byte.SIZE) + 1;
+            } else {
+                bucket = (c & (RADIX - 1)) + 1;
+            }
+        }
+        return bucket;
+    }
+
+    /**
+     * Sorts {@code keys[lo, hi)} by insertion sort, moving the entries in
+     * lockstep, knowing that they share their first {@code d} digits.
+     *
+     * @param <T>
+     *            type of entries
+     * @param entries
+     *            the entries of the keys
+     * @param keys
+     *            the keys
+     * @param lo
+     *            index of the first key to sort
+     * @param hi
+     *            index after the last key to sort
+     * @param d
+     *            number of digits that all keys in the range share
+     * @updates entries, keys
+     * @requires 0 <= lo <= hi <= |keys| = |entries|
+     * @ensures <pre>
+     * [keys[lo, hi) is in lexicographic order, keeping equal keys in the same
+     *  order as in #keys]  and
+     * [entries and keys are permuted in the same way]
+     * </pre>
+     */
+    private static <T> void insertionSort(T[] entries, String[] keys, int lo,
+            int hi, int d) {
+        /*
+         * The shared digits cover the first d / 2 chars, so the comparison can
+         * start there.
+         */
+        int from = d >> 1;
+        for (int i = lo + 1; i < hi; i++) {
+            T entry = entries[i];
+            String key = keys[i];
+            int j = i;
+            while (j > lo && compareFrom(keys[j - 1], key, from) > 0) {
+                entries[j] = entries[j - 1];
+                keys[j] = keys[j - 1];
+                j--;
+            }
+            entries[j] = entry;
+            keys[j] = key;
+        }
+    }
+
+    /**
+     * Compares {@code a} and {@code b} lexicographically, knowing that their
+     * first {@code from} chars are the same.
+     *
+     * @param a
+     *            one key
+     * @param b
+     *            the other key
+     * @param from
+     *            number of chars that {@code a} and {@code b} share
+     * @return negative, zero, or positive as {@code a} is less than, equal to,
+     *         or greater than {@code b}
+     * @requires [a and b share their first from chars]
+     * @ensures compareFrom = [a.compareTo(b), up to its magnitude]
+     */
+    private static int compareFrom(String a, String b, int from) {
+        int n = Math.min(a.length(), b.length());
+        int i = from;
+        while (i < n && a.charAt(i) == b.charAt(i)) {
+            i++;
+        }
+        int cmp;
+        if (i < n) {
+            cmp = a.charAt(i) - b.charAt(i);
+        } else {
+            cmp = a.length() - b.length();
+        }
+        return cmp;
+    }
+
+    /**
+     * Sorts {@code keys[lo, hi)} most significant digit first, starting with
+     * digit {@code d}, moving the entries in lockstep.
+     *
+     * @param <T>
+     *            type of entries
+     * @param entries
+     *            the entries of the keys
+     * @param keys
+     *            the keys
+     * @param auxEntries
+     *            scratch space for entries
+     * @param auxKeys
+     *            scratch space for keys
+     * @param counts
+     *            bucket counts for each digit, allocated on first use; the
+     *            recursive calls only use those of later digits, so each
+     *            array is reused by every call at its digit
+     * @param lo
+     *            index of the first key to sort
+     * @param hi
+     *            index after the last key to sort
+     * @param d
+     *            number of digits that all keys in the range share
+     * @updates entries, keys, auxEntries, auxKeys, counts
+     * @requires <pre>
+     * 0 <= lo <= hi <= |keys| = |entries| <= |auxKeys| = |auxEntries|  and
+     * [|counts| is more than the number of digits of the longest key]  and
+     * [keys[lo, hi) share their first d digits]
+     * </pre>
+     * @ensures <pre>
+     * [keys[lo, hi) is in lexicographic order, keeping equal keys in the same
+     *  order as in #keys]  and
+     * [entries and keys are permuted in the same way]
+     * </pre>
+     */
+    private static <T> void sort(T[] entries, String[] keys, T[] auxEntries,
+            String[] auxKeys, int[][] counts, int lo, int hi, int d) {
+        int digit = d;
+        boolean shared = true;
+        int[] count = null;
+        while (shared && hi - lo > INSERTION_SORT_CUTOFF) {
+            count = counts[digit];
+            if (count == null) {
+                count = new int[RADIX + 2];
+                counts[digit] = count;
+            }
+            /*
+             * Count the keys in each bucket; when they all fall in one bucket,
+             * there is nothing to move, so go on with the next digit right
+             * away (unless all the keys have ended, in which case they are
+             * all equal).
+             */
+            Arrays.fill(count, 0);
+            for (int i = lo; i < hi; i++) {
+                count[bucket(keys[i], digit) + 1]++;
+            }
+            int firstBucket = bucket(keys[lo], digit);
+            shared = count[firstBucket + 1] == hi - lo;
+            if (shared) {
+                if (firstBucket == 0) {
+                    return;
+                }
+                digit++;
+            }
+        }
+        if (hi - lo <= INSERTION_SORT_CUTOFF) {
+            insertionSort(entries, keys, lo, hi, digit);
+        } else {
+            /*
+             * Distribute the keys into buckets through the scratch arrays,
+             * keeping their order within each bucket, then sort each bucket
+             * on the next digit. Keys that have ended, in bucket 0, are equal.
+             */
+            for (int r = 0; r <= RADIX; r++) {
+                count[r + 1] += count[r];
+            }
+            for (int i = lo; i < hi; i++) {
+                int b = bucket(keys[i], digit);
+                auxEntries[count[b]] = entries[i];
+                auxKeys[count[b]] = keys[i];
+                count[b]++;
+            }
+            System.arraycopy(auxEntries, 0, entries, lo, hi - lo);
+            System.arraycopy(auxKeys, 0, keys, lo, hi - lo);
+            /*
+             * Now count[b] is the end of bucket b, relative to lo.
+             */
+            for (int b = 1; b <= RADIX; b++) {
+                sort(entries, keys, auxEntries, auxKeys, counts,
+                        lo + count[b - 1], lo + count[b], digit + 1);
+            }
+        }
+    }
+
+    /**
+     * Checks that the part of the convention repeated below holds for the
+     * current representation.
+     *
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * 0 <= $this.first <= $this.size <= |$this.entries| = |$this.keys|  and
+     * [the entries of $this.entries[$this.first, $this.size) are not null]  and
+     * [the other entries of $this.entries and $this.keys are null]  and
+     * if $this.insertionMode then
+     *   $this.first = 0
+     * else
+     *   [$this.keys[$this.first, $this.size) is in lexicographic order]
+     * </pre>
+     */
+    private boolean conventionHolds() {
+        assert 0 <= this.first && this.first <= this.size
+                && this.size <= this.entries.length : "Violation of:"
+                        + " 0 <= $this.first <= $this.size <= |$this.entries|";
+        assert this.entries.length == this.keys.length : ""
+                + "Violation of: |$this.entries| = |$this.keys|";
+        for (int i = 0; i < this.entries.length; i++) {
+            boolean inUse = this.first <= i && i < this.size;
+            assert inUse == (this.entries[i] != null) : "Violation of:"
+                    + " [only the entries of $this.entries[$this.first,"
+                    + " $this.size) are not null]";
+            assert inUse || this.keys[i] == null : "Violation of:"
+                    + " [the other entries of $this.keys are null]";
+        }
+        if (this.insertionMode) {
+            assert this.first == 0 : ""
+                    + "Violation of: if $this.insertionMode then $this.first = 0";
+        } else {
+            for (int i = this.first + 1; i < this.size; i++) {
+                assert this.keys[i - 1].compareTo(this.keys[i]) <= 0 : ""
+                        + "Violation of: if not $this.insertionMode then"
+                        + " [$this.keys is sorted]";
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @ensures <pre>
+     * $this.insertionMode = true  and
+     * $this.first = 0  and
+     * $this.size = 0
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    private void createNewRep() {
+
+        this.insertionMode = true;
+        this.entries = (T[]) (new Object[INITIAL_CAPACITY]);
+        this.keys = new String[INITIAL_CAPACITY];
+        this.first = 0;
+        this.size = 0;
+
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from order and key extractor.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @param keyExtractor
+     *            function computing the key of an entry
+     * @requires <pre>
+     * [for all entries x and y, order.compare(x, y) has the same sign as
+     *  keyExtractor.apply(x).compareTo(keyExtractor.apply(y))]
+     * </pre>
+     */
+    public RadixSortingMachine(Comparator<T> order,
+            Function<? super T, String> keyExtractor) {
+        assert order != null : "Violation of: order is not null";
+        assert keyExtractor != null : "Violation of: keyExtractor is not null";
+        this.machineOrder = order;
+        this.keyExtractor = keyExtractor;
+        this.createNewRep();
+        assert this.conventionHolds();
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final SortingMachine<T> newInstance() {
+        try {
+            Constructor<?> c = this.getClass().getConstructor(Comparator.class,
+                    Function.class);
+            return (SortingMachine<T>) c.newInstance(this.machineOrder,
+                    this.keyExtractor);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep();
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void transferFrom(SortingMachine<T> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof RadixSortingMachine<?> : ""
+                + "Violation of: source is of dynamic type"
+                + " RadixSortingMachine<?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case: source must be of dynamic type
+         * RadixSortingMachine<?>, and the ? must be T or the call would not
+         * have compiled.
+         */
+        RadixSortingMachine<T> localSource = (RadixSortingMachine<T>) source;
+        this.machineOrder = localSource.machineOrder;
+        this.keyExtractor = localSource.keyExtractor;
+        this.insertionMode = localSource.insertionMode;
+        this.entries = localSource.entries;
+        this.keys = localSource.keys;
+        this.first = localSource.first;
+        this.size = localSource.size;
+        localSource.createNewRep();
+        assert this.conventionHolds();
+        assert localSource.conventionHolds();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(T x) {
+        assert x != null : "Violation of: x is not null";
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        if (this.size == this.entries.length) {
+            this.entries = Arrays.copyOf(this.entries, 2 * this.size);
+            this.keys = Arrays.copyOf(this.keys, 2 * this.size);
+        }
+        this.entries[this.size] = x;
+        this.keys[this.size] = this.keyExtractor.apply(x);
+        this.size++;
+
+        assert this.conventionHolds();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final void changeToExtractionMode() {
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        this.insertionMode = false;
+        if (this.size > INSERTION_SORT_CUTOFF) {
+            T[] auxEntries = (T[]) (new Object[this.size]);
+            String[] auxKeys = new String[this.size];
+            int maxLength = 0;
+            for (int i = 0; i < this.size; i++) {
+                maxLength = Math.max(maxLength, this.keys[i].length());
+            }
+            int[][] counts = new int[2 * maxLength + 1][];
+            sort(this.entries, this.keys, auxEntries, auxKeys, counts, 0,
+                    this.size, 0);
+        } else {
+            insertionSort(this.entries, this.keys, 0, this.size, 0);
+        }
+
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final T removeFirst() {
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
+        assert this.size() > 0 : "Violation of: this.contents /= {}";
+
+        T removed = this.entries[this.first];
+        /*
+         * Release the slots so the entry and its key can be garbage collected.
+         */
+        this.entries[this.first] = null;
+        this.keys[this.first] = null;
+        this.first++;
+
+        assert this.conventionHolds();
+        return removed;
+    }
+
+    @Override
+    public final boolean isInInsertionMode() {
+        assert this.conventionHolds();
+        return this.insertionMode;
+    }
+
+    @Override
+    public final Comparator<T> order() {
+        assert this.conventionHolds();
+        return this.machineOrder;
+    }
+
+    @Override
+    public final int size() {
+        assert this.conventionHolds();
+        return this.size - this.first;
+    }
+
+    @Override
+    public final Iterator<T> iterator() {
+        return new RadixSortingMachineIterator();
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for
+     * {@code RadixSortingMachine}.
+     */
+    private final class RadixSortingMachineIterator implements Iterator<T> {
+
+        /**
+         * Index of the next entry to return.
+         */
+        private int currentIndex;
+
+        /**
+         * No-argument constructor.
+         */
+        private RadixSortingMachineIterator() {
+            this.currentIndex = RadixSortingMachine.this.first;
+            assert RadixSortingMachine.this.conventionHolds();
+        }
+
+        @Override
+        public boolean hasNext() {
+            assert RadixSortingMachine.this.conventionHolds();
+            return this.currentIndex < RadixSortingMachine.this.size;
+        }
+
+        @Override
+        public T next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            T next = RadixSortingMachine.this.entries[this.currentIndex];
+            this.currentIndex++;
+            assert RadixSortingMachine.this.conventionHolds();
+            return next;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+}
@@ -0,0 +1,539 @@
+import java.lang.reflect.Constructor;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.stream.IntStream;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachineSecondary;
+
+/**
+ * {@code SortingMachine} whose entries are spread over several
+ * {@code SortingMachine5a} "shards", whose heaps are built on separate cores,
+ * and merged again on extraction by a loser tree.
+ *
+ * <p>
+ * {@code add} hands entries to the shards in turn, so their sizes never differ
+ * by more than one. {@code changeToExtractionMode} switches all the shards to
+ * extraction mode in parallel (on the common fork/join pool), so that building
+ * the heaps, the only step of heap sort that is not inherently sequential,
+ * uses up to one core per shard. It then takes the first entry of each shard
+ * as its "head" and builds a loser tree over the heads: each internal node of
+ * the tree holds the shard that lost the match played there, and the overall
+ * winner is kept on top. {@code removeFirst} returns the winning head,
+ * replaces it with the next entry of the same shard, and replays only the
+ * matches on the path from that shard to the root, which costs one comparison
+ * per level of the tree (about log2 of the number of shards), half as many as
+ * sifting through a heap of the heads would.
+ *
+ * <p>
+ * Equal heads are won by the shard with the smaller index.
+ *
+ * @param <T>
+ *            type of {@code SortingMachine} entries
+ * @convention <pre>
+ * 1 <= |$this.shards| = |$this.heads| = |$this.tree|  and
+ * 0 <= $this.next < |$this.shards|  and
+ * [the entries of $this.shards are not null and have order
+ *  $this.machineOrder]  and
+ * $this.size = [sum of |$this.shards[i].contents|] +
+ *              [number of non-null entries of $this.heads]  and
+ * if $this.insertionMode then
+ *   [the entries of $this.shards are in insertion mode]  and
+ *   [the entries of $this.heads are null]
+ * else
+ *   [the entries of $this.shards are in extraction mode]  and
+ *   for all i: integer where (0 <= i < |$this.heads|)
+ *     ((if $this.heads[i] = null then $this.shards[i].contents = {})  and
+ *      [$this.heads[i] is not greater than any entry of
+ *       $this.shards[i].contents])  and
+ *   [$this.tree[0] is the shard that wins among all heads, and
+ *    $this.tree[1, |$this.tree|) are the losers of the matches of the loser
+ *    tree over $this.heads]
+ * </pre>
+ * @correspondence <pre>
+ * this = ($this.insertionMode, $this.machineOrder,
+ *         [union of $this.shards[i].contents] union
+ *         [multiset of the non-null entries of $this.heads])
+ * </pre>
+ */
+public class ShardedSortingMachine<T> extends SortingMachineSecondary<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Order.
+     */
+    private Comparator<T> machineOrder;
+
+    /**
+     * Insertion mode.
+     */
+    private boolean insertionMode;
+
+    /**
+     * Shards.
+     */
+    private SortingMachine5a<T>[] shards;
+
+    /**
+     * Index of the shard receiving the next entry added.
+     */
+    private int next;
+
+    /**
+     * Smallest entry of each shard not yet returned, or null once the shard
+     * is exhausted.
+     */
+    private T[] heads;
+
+    /**
+     * Loser tree: winning shard at index 0, losing shard of each internal node
+     * at indices 1 to |heads| - 1. The leaves are implicit: shard i is leaf
+     * i + |heads|.
+     */
+    private int[] tree;
+
+    /**
+     * Number of entries.
+     */
+    private int size;
+
+    /**
+     * Reports whether the head of shard {@code a} wins its match against the
+     * head of shard {@code b}.
+     *
+     * @param a
+     *            one shard
+     * @param b
+     *            the other shard
+     * @return true iff shard {@code a} wins
+     * @requires a /= b
+     * @ensures <pre>
+     * beats = ($this.heads[b] = null  and
+     *          ($this.heads[a] /= null  or  a < b))  or
+     *         ($this.heads[a] /= null  and
+     *          ([$this.heads[a] comes before $this.heads[b]]  or
+     *           ([$this.heads[a] is equal to $this.heads[b]]  and  a < b)))
+     * </pre>
+     */
+    private boolean beats(int a, int b) {
+        T headA = this.heads[a];
+        T headB = this.heads[b];
+        boolean beats;
+        if (headA == null || headB == null) {
+            /*
+             * An exhausted shard loses to any other shard.
+             */
+            beats = (headB == null) && (headA != null || a < b);
+        } else {
+            int cmp = this.machineOrder.compare(headA, headB);
+            beats = cmp < 0 || (cmp == 0 && a < b);
+        }
+        return beats;
+    }
+
+    /**
+     * Builds the loser tree over {@code $this.heads}.
+     *
+     * @updates $this.tree
+     * @ensures [$this.tree is the loser tree over $this.heads]
+     */
+    private void buildTree() {
+        int k = this.heads.length;
+        /*
+         * winners[n] is the winner of the subtree rooted at node n; the leaves
+         * win their own (empty) subtrees. Each internal node keeps the loser of
+         * the match between the winners of its two children.
+         */
+        int[] winners = new int[2 * k];
+        for (int i = 0; i < k; i++) {
+            winners[k + i] = i;
+        }
+        for (int n = k - 1; n > 0; n--) {
+            int left = winners[2 * n];
+            int right = winners[2 * n + 1];
+            if (this.beats(left, right)) {
+                winners[n] = left;
+                this.tree[n] = right;
+            } else {
+                winners[n] = right;
+                this.tree[n] = left;
+            }
+        }
+        this.tree[0] = winners[1];
+    }
+
+    /**
+     * Replays the matches on the path from shard {@code s} to the root, after
+     * its head changed.
+     *
+     * @param s
+     *            the shard whose head changed
+     * @updates $this.tree
+     * @requires <pre>
+     * [$this.tree is the loser tree over $this.heads, except for the matches
+     *  on the path from leaf s to the root]  and
+     * $this.tree[0] = s
+     * </pre>
+     * @ensures [$this.tree is the loser tree over $this.heads]
+     */
+    private void replay(int s) {
+        int winner = s;
+        for (int n = (s + this.heads.length) / 2; n > 0; n /= 2) {
+            if (this.beats(this.tree[n], winner)) {
+                int loser = winner;
+                winner = this.tree[n];
+                this.tree[n] = loser;
+            }
+        }
+        this.tree[0] = winner;
+    }
+
+    /**
+     * Checks that the part of the convention repeated below holds for the
+     * current representation.
+     *
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * 1 <= |$this.shards| = |$this.heads| = |$this.tree|  and
+     * 0 <= $this.next < |$this.shards|  and
+     * $this.size = [sum of |$this.shards[i].contents|] +
+     *              [number of non-null entries of $this.heads]  and
+     * if $this.insertionMode then
+     *   [the entries of $this.shards are in insertion mode]  and
+     *   [the entries of $this.heads are null]
+     * else
+     *   [the entries of $this.shards are in extraction mode]  and
+     *   for all i: integer where (0 <= i < |$this.heads|)
+     *     (if $this.heads[i] = null then $this.shards[i].contents = {})  and
+     *   [$this.tree[0] wins against every other shard]
+     * </pre>
+     */
+    private boolean conventionHolds() {
+        int k = this.shards.length;
+        assert 1 <= k : "Violation of: 1 <= |$this.shards|";
+        assert k == this.heads.length && k == this.tree.length : ""
+                + "Violation of: |$this.shards| = |$this.heads| = |$this.tree|";
+        assert 0 <= this.next && this.next < k : ""
+                + "Violation of: 0 <= $this.next < |$this.shards|";
+        int count = 0;
+        for (int i = 0; i < k; i++) {
+            count += this.shards[i].size();
+            if (this.heads[i] != null) {
+                count++;
+            }
+            assert this.shards[i].isInInsertionMode() == this.insertionMode : ""
+                    + "Violation of: [the entries of $this.shards are in the"
+                    + " same mode as this]";
+            if (this.insertionMode) {
+                assert this.heads[i] == null : "Violation of: if"
+                        + " $this.insertionMode then [the entries of"
+                        + " $this.heads are null]";
+            } else {
+                assert this.heads[i] != null || this.shards[i].size() == 0 : ""
+                        + "Violation of: if $this.heads[i] = null then"
+                        + " $this.shards[i].contents = {}";
+                assert i == this.tree[0] || !this.beats(i, this.tree[0]) : ""
+                        + "Violation of: [$this.tree[0] wins against every"
+                        + " other shard]";
+            }
+        }
+        assert this.size == count : "Violation of: $this.size = [sum of"
+                + " |$this.shards[i].contents|] + [number of non-null entries"
+                + " of $this.heads]";
+        return true;
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @param shardCount
+     *            number of shards
+     * @requires <pre>
+     * IS_TOTAL_PREORDER([relation computed by order.compare method]  and
+     * 1 <= shardCount
+     * </pre>
+     * @ensures <pre>
+     * $this.insertionMode = true  and
+     * $this.machineOrder = order  and
+     * |$this.shards| = shardCount  and
+     * [the entries of $this.shards are (true, order, {})]  and
+     * $this.next = 0  and
+     * [the entries of $this.heads are null]  and
+     * $this.size = 0
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    private void createNewRep(Comparator<T> order, int shardCount) {
+
+        this.insertionMode = true;
+        this.machineOrder = order;
+        SortingMachine5a<?>[] newShards = new SortingMachine5a<?>[shardCount];
+        this.shards = (SortingMachine5a<T>[]) newShards;
+        for (int i = 0; i < shardCount; i++) {
+            this.shards[i] = new SortingMachine5a<>(order);
+        }
+        this.next = 0;
+        this.heads = (T[]) (new Object[shardCount]);
+        this.tree = new int[shardCount];
+        this.size = 0;
+
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from order, using one shard per available processor.
+     *
+     * @param order
+     *            total preorder for sorting
+     */
+    public ShardedSortingMachine(Comparator<T> order) {
+        this(order, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor from order and number of shards.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @param shards
+     *            number of shards
+     */
+    public ShardedSortingMachine(Comparator<T> order, int shards) {
+        assert shards >= 1 : "Violation of: shards >= 1";
+        this.createNewRep(order, shards);
+        assert this.conventionHolds();
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final SortingMachine<T> newInstance() {
+        try {
+            Constructor<?> c = this.getClass().getConstructor(Comparator.class,
+                    int.class);
+            return (SortingMachine<T>) c.newInstance(this.machineOrder,
+                    this.shards.length);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep(this.machineOrder, this.shards.length);
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void transferFrom(SortingMachine<T> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof ShardedSortingMachine<?> : ""
+                + "Violation of: source is of dynamic type"
+                + " ShardedSortingMachine<?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case: source must be of dynamic type
+         * ShardedSortingMachine<?>, and the ? must be T or the call would not
+         * have compiled.
+         */
+        ShardedSortingMachine<T> localSource =
+                (ShardedSortingMachine<T>) source;
+        this.insertionMode = localSource.insertionMode;
+        this.machineOrder = localSource.machineOrder;
+        this.shards = localSource.shards;
+        this.next = localSource.next;
+        this.heads = localSource.heads;
+        this.tree = localSource.tree;
+        this.size = localSource.size;
+        localSource.createNewRep(localSource.machineOrder,
+                localSource.shards.length);
+        assert this.conventionHolds();
+        assert localSource.conventionHolds();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(T x) {
+        assert x != null : "Violation of: x is not null";
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        this.shards[this.next].add(x);
+        this.next++;
+        if (this.next == this.shards.length) {
+            this.next = 0;
+        }
+        this.size++;
+
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void changeToExtractionMode() {
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        this.insertionMode = false;
+        /*
+         * Build the heaps of the shards in parallel, then move the first entry
+         * of each one to the heads and build the tree over them.
+         */
+        IntStream.range(0, this.shards.length).parallel()
+                .forEach(i -> this.shards[i].changeToExtractionMode());
+        for (int i = 0; i < this.shards.length; i++) {
+            if (this.shards[i].size() > 0) {
+                this.heads[i] = this.shards[i].removeFirst();
+            }
+        }
+        this.buildTree();
+
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final T removeFirst() {
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
+        assert this.size() > 0 : "Violation of: this.contents /= {}";
+
+        int winner = this.tree[0];
+        T first = this.heads[winner];
+        SortingMachine5a<T> shard = this.shards[winner];
+        if (shard.size() > 0) {
+            this.heads[winner] = shard.removeFirst();
+        } else {
+            this.heads[winner] = null;
+        }
+        this.replay(winner);
+        this.size--;
+
+        assert this.conventionHolds();
+        return first;
+    }
+
+    @Override
+    public final boolean isInInsertionMode() {
+        assert this.conventionHolds();
+        return this.insertionMode;
+    }
+
+    @Override
+    public final Comparator<T> order() {
+        assert this.conventionHolds();
+        return this.machineOrder;
+    }
+
+    @Override
+    public final int size() {
+        assert this.conventionHolds();
+        return this.size;
+    }
+
+    @Override
+    public final Iterator<T> iterator() {
+        return new ShardedSortingMachineIterator();
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for
+     * {@code ShardedSortingMachine}. It returns the heads first, then the
+     * entries of each shard in turn.
+     */
+    private final class ShardedSortingMachineIterator implements Iterator<T> {
+
+        /**
+         * Number of entries not yet returned.
+         */
+        private int remaining;
+
+        /**
+         * Index of the next head to look at.
+         */
+        private int head;
+
+        /**
+         * Index of the shard being iterated over.
+         */
+        private int shard;
+
+        /**
+         * Iterator over the current shard, or null before the first one.
+         */
+        private Iterator<T> shardIterator;
+
+        /**
+         * No-argument constructor.
+         */
+        private ShardedSortingMachineIterator() {
+            this.remaining = ShardedSortingMachine.this.size;
+            this.head = 0;
+            this.shard = 0;
+            this.shardIterator = null;
+            assert ShardedSortingMachine.this.conventionHolds();
+        }
+
+        @Override
+        public boolean hasNext() {
+            assert ShardedSortingMachine.this.conventionHolds();
+            return this.remaining > 0;
+        }
+
+        @Override
+        public T next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            T[] heads = ShardedSortingMachine.this.heads;
+            while (this.head < heads.length && heads[this.head] == null) {
+                this.head++;
+            }
+            T next;
+            if (this.head < heads.length) {
+                next = heads[this.head];
+                this.head++;
+            } else {
+                SortingMachine5a<T>[] shards =
+                        ShardedSortingMachine.this.shards;
+                while (this.shardIterator == null
+                        || !this.shardIterator.hasNext()) {
+                    this.shardIterator = shards[this.shard].iterator();
+                    this.shard++;
+                }
+                next = this.shardIterator.next();
+            }
+            this.remaining--;
+            assert ShardedSortingMachine.this.conventionHolds();
+            return next;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+}
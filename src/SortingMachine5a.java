@@ -1,16 +1,51 @@
 import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-import components.queue.Queue;
-import components.queue.Queue1L;
 import components.sortingmachine.SortingMachine;
 import components.sortingmachine.SortingMachineSecondary;
 
 /**
- * {@code SortingMachine} represented as a {@code Queue} and an array (using an
- * embedding of heap sort), with implementations of primary methods.
+ * {@code SortingMachine} represented as a {@code ChunkedBuffer} and an array
+ * (using an embedding of heap sort), with implementations of primary methods.
+ *
+ * <p>
+ * With {@code HeapConstruction.EAGER}, the {@code ChunkedBuffer} is not used:
+ * each entry is sifted up into the (growable) array heap as it is added, so
+ * {@code changeToExtractionMode} only has to flip the mode.
+ *
+ * <p>
+ * A stable machine also keeps, in an {@code int} array moved in lockstep
+ * with the heap, the insertion sequence number of every entry, and breaks
+ * ties between equal entries in favor of the one added first, so that
+ * {@code removeFirst} returns equal entries in the order in which they were
+ * added. Without the {@code EAGER} strategy, a stable machine always builds
+ * its heap bottom-up, since the entries of the buffer are numbered by their
+ * position there.
+ *
+ * <p>
+ * Without the {@code EAGER} strategy, {@code changeToExtractionMode} first
+ * checks whether the entries are already sorted, or made of a few long runs
+ * in increasing or decreasing order. If so, it sorts them in decreasing
+ * order instead of building a heap, and {@code removeFirst} just takes the
+ * last entry of the array.
+ *
+ * <p>
+ * {@code changeToInsertionMode} goes back to insertion mode without giving up
+ * the heap. Without the {@code EAGER} strategy, the entries added afterwards
+ * are staged in the {@code ChunkedBuffer}, and the next
+ * {@code changeToExtractionMode} appends them to the heap and sifts down only
+ * their ancestors, instead of building the heap again from all the entries.
  *
  * @param <T>
  *            type of {@code SortingMachine} entries
@@ -43,22 +78,34 @@ import components.sortingmachine.SortingMachineSecondary;
  * </pre>
  * @convention <pre>
  * IS_TOTAL_PREORDER([relation computed by $this.machineOrder.compare method]  and
- * if $this.insertionMode then
- *   $this.heapSize = 0
- * else
- *   $this.entries = <>  and
- *   for all i: integer
- *       where (0 <= i  and  i < |$this.heap|)
- *     ([entry at position i in $this.heap is not null])  and
- *   SUBTREE_IS_HEAP($this.heap, 0, $this.heapSize - 1,
- *     [relation computed by $this.machineOrder.compare method])  and
- *   0 <= $this.heapSize <= |$this.heap|
+ * 0 <= $this.heapSize <= |$this.heap|  and
+ * for all i: integer
+ *     where (0 <= i  and  i < $this.heapSize)
+ *   ([entry at position i in $this.heap is not null])  and
+ * [the entries of $this.heap[$this.heapSize, |$this.heap|) are null]  and
+ * (if $this.sorted then
+ *    [$this.heap[0, $this.heapSize) is sorted in decreasing order according
+ *     to the relation computed by $this.machineOrder.compare method]  and
+ *    not $this.insertionMode  and  $this.construction /= EAGER
+ *  else
+ *    SUBTREE_IS_HEAP($this.heap, 0, $this.heapSize - 1,
+ *      [relation computed by $this.machineOrder.compare method]))  and
+ * (if not $this.insertionMode  or  $this.construction = EAGER then
+ *    $this.entries = <>)  and
+ * (if $this.stable  and  not $this.sorted then
+ *    |$this.heap| <= |$this.sequence|  and
+ *    [the entries of $this.sequence[0, $this.heapSize) are distinct and
+ *     less than $this.nextSequence]  and
+ *    [$this.heap[0, $this.heapSize) is a heap according to the relation
+ *     computed by $this.machineOrder.compare method, with ties broken by
+ *     $this.sequence]
+ *  else if not $this.stable then
+ *    $this.sequence = null)
  * </pre>
  * @correspondence <pre>
- * if $this.insertionMode then
- *   this = (true, $this.machineOrder, multiset_entries($this.entries))
- * else
- *   this = (false, $this.machineOrder, multiset_entries($this.heap[0, $this.heapSize)))
+ * this = ($this.insertionMode, $this.machineOrder,
+ *         multiset_entries($this.entries) union
+ *           multiset_entries($this.heap[0, $this.heapSize)))
  * </pre>
  *
  * @author Zheyuan Gao
@@ -67,15 +114,145 @@ import components.sortingmachine.SortingMachineSecondary;
  */
 public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
 
+    /**
+     * Strategies for turning the entries collected in insertion mode into a
+     * heap when {@code changeToExtractionMode} is called.
+     */
+    public enum HeapConstruction {
+
+        /**
+         * Heapifies the left and right subtrees recursively before sifting
+         * down each root.
+         */
+        RECURSIVE,
+
+        /**
+         * Floyd's bottom-up construction: sifts down every parent iteratively,
+         * starting from the last parent and moving towards the root.
+         */
+        BOTTOM_UP,
+
+        /**
+         * Sifts each entry up into the heap as it is added, spreading the cost
+         * of construction over the calls to {@code add}; switching modes then
+         * takes constant time.
+         */
+        EAGER,
+
+        /**
+         * Same as {@code RECURSIVE}, but large left and right subtrees are
+         * heapified as separate tasks in the common {@code ForkJoinPool}.
+         */
+        PARALLEL
+
+    }
+
+    /**
+     * Levels of checking, when assertions are enabled, of the convention and
+     * of the preconditions of the private helpers, for all the machines. The
+     * level is given by the system property
+     * {@code SortingMachine5a.validation}, in any case; it is {@code FULL} if
+     * the property is not set or names no level.
+     */
+    public enum Validation {
+
+        /**
+         * Checks the whole convention on every call, and the whole heap
+         * before every sift, which costs O(n) per entry added or removed.
+         */
+        FULL,
+
+        /**
+         * Checks the parts of the convention that take constant time on every
+         * call, and the heap ordering along the path of each sift after it;
+         * checks the whole convention only on the 1st, 2nd, 4th, 8th, ...
+         * call for each machine, so that this costs O(log n) per entry added
+         * or removed, amortized.
+         */
+        SAMPLED,
+
+        /**
+         * Checks only the arguments of the public methods.
+         */
+        OFF
+
+    }
+
     /*
      * Private members --------------------------------------------------------
      */
 
+    /**
+     * Subtrees with at most this many entries are heapified sequentially by
+     * {@code HeapConstruction.PARALLEL}.
+     */
+    private static final int PARALLEL_CUTOFF = 1 << 13;
+
+    /**
+     * Initial capacity of the heap for {@code HeapConstruction.EAGER}.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Entries that form runs at least this long on average, in increasing or
+     * decreasing order, are sorted by {@code changeToExtractionMode} instead
+     * of being heapified.
+     */
+    private static final int PRESORTED_RUN_LENGTH = 64;
+
+    /**
+     * Default of the largest heap capacity kept across {@code clear} and
+     * {@code transferFrom}, and below which the heap is never shrunk.
+     */
+    public static final int DEFAULT_RETAINED_CAPACITY = 1 << 16;
+
+    /**
+     * A heap larger than the retained capacity is halved when no more than
+     * this fraction of it is in use.
+     */
+    private static final int SHRINK_RATIO = 4;
+
+    /**
+     * The heap of a machine whose entries are in its buffer.
+     */
+    private static final Object[] EMPTY = {};
+
+    /**
+     * Level of checking of the convention and of the preconditions of the
+     * private helpers; only ever read within an assert.
+     */
+    private static volatile Validation validation = parseValidation(
+            System.getProperty("SortingMachine5a.validation"));
+
     /**
      * Order.
      */
     private Comparator<T> machineOrder;
 
+    /**
+     * Order used by the operations: {@code machineOrder} itself, or a
+     * comparator counting its calls when the machine is instrumented.
+     */
+    private Comparator<T> countedOrder;
+
+    /**
+     * Recorder of the operation counts and times.
+     */
+    private SortingMachineStats stats;
+
+    /**
+     * Largest heap capacity kept across {@code clear} and
+     * {@code transferFrom}, and below which the heap is never shrunk.
+     */
+    private int retainedCapacity;
+
+    /**
+     * Number of calls of {@code conventionHolds} that got past its constant
+     * time checks, used to sample the others with
+     * {@code Validation.SAMPLED}.
+     */
+    private int checks;
+
     /**
      * Insertion mode.
      */
@@ -84,7 +261,7 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
     /**
      * Entries.
      */
-    private Queue<T> entries;
+    private ChunkedBuffer<T> entries;
 
     /**
      * Heap.
@@ -96,6 +273,35 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
      */
     private int heapSize;
 
+    /**
+     * Heap construction strategy used by {@code changeToExtractionMode}.
+     */
+    private HeapConstruction construction;
+
+    /**
+     * Whether the heap is instead sorted in decreasing order, so that
+     * {@code removeFirst} takes its last entry.
+     */
+    private boolean sorted;
+
+    /**
+     * Whether equal entries are removed in the order in which they were
+     * added.
+     */
+    private boolean stable;
+
+    /**
+     * Insertion sequence numbers of the entries of the heap, moved in
+     * lockstep with them, when the machine is stable; otherwise null.
+     */
+    private int[] sequence;
+
+    /**
+     * Sequence number of the next entry added to the heap by
+     * {@code HeapConstruction.EAGER}, when the machine is stable.
+     */
+    private int nextSequence;
+
     /**
      * Exchanges entries at indices {@code i} and {@code j} of {@code array}.
      *
@@ -134,11 +340,12 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
      *            the index of the last entry in the heap
      * @param order
      *            total preorder for sorting
+     * @return the index where the root ends
      * @updates array
      * @requires <pre>
      * 0 <= top  and  last < |array|  and
      * for all i: integer
-     *     where (0 <= i  and  i < |array|)
+     *     where (0 <= i  and  i <= last)
      *   ([entry at position i in array is not null])  and
      * [subtree rooted at {@code top} is a complete binary tree]  and
      * SUBTREE_IS_HEAP(array, 2 * top + 1, last,
@@ -153,25 +360,33 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
      * perms(array, #array)  and
      * SUBTREE_ARRAY_ENTRIES(array, top, last) =
      *  SUBTREE_ARRAY_ENTRIES(#array, top, last)  and
-     * [the other entries in array are the same as in #array]
+     * [the other entries in array are the same as in #array]  and
+     * array[siftDown] = #array[top]
      * </pre>
      */
-    private static <T> void siftDown(T[] array, int top, int last,
+    private static <T> int siftDown(T[] array, int top, int last,
             Comparator<T> order) {
         assert array != null : "Violation of: array is not null";
         assert order != null : "Violation of: order is not null";
         assert 0 <= top : "Violation of: 0 <= top";
         assert last < array.length : "Violation of: last < |array|";
-        for (int i = 0; i < array.length; i++) {
-            assert array[i] != null : ""
-                    + "Violation of: all entries in array are not null";
-        }
-        assert isHeap(array, 2 * top + 1, last, order) : ""
-                + "Violation of: SUBTREE_IS_HEAP(array, 2 * top + 1, last,"
-                + " [relation computed by order.compare method])";
-        assert isHeap(array, 2 * top + 2, last, order) : ""
-                + "Violation of: SUBTREE_IS_HEAP(array, 2 * top + 2, last,"
-                + " [relation computed by order.compare method])";
+        /*
+         * Each check of the level of checking is part of an assert, so that
+         * without assertions none of this costs anything.
+         */
+        assert validation != Validation.FULL
+                || entriesNotNull(array, last) : "Violation of:"
+                        + " all entries in array[0, last] are not null";
+        assert validation != Validation.FULL
+                || isHeap(array, 2 * top + 1, last, order) : ""
+                        + "Violation of: SUBTREE_IS_HEAP(array, 2 * top + 1,"
+                        + " last, [relation computed by order.compare"
+                        + " method])";
+        assert validation != Validation.FULL
+                || isHeap(array, 2 * top + 2, last, order) : ""
+                        + "Violation of: SUBTREE_IS_HEAP(array, 2 * top + 2,"
+                        + " last, [relation computed by order.compare"
+                        + " method])";
         /*
          * Impractical to check last requires clause; no need to check the other
          * requires clause, because it must be true when using the array
@@ -179,353 +394,1566 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
          */
 
         /*
-         * First use the method find in class to define the index of left child
-         * and right child given the index of the root(top).
+         * Take the root out, leaving a "hole" at top. Carry the hole down to a
+         * leaf along the path of smaller children, moving each smaller child
+         * up into the hole; this costs one comparison and one write per
+         * level, and no swaps.
          */
-        int leftChildIndex = top * 2 + 1;
-        int rightChildIndex = top * 2 + 2;
-        int newTop = top;
-        if (last > top) {
-
+        T root = array[top];
+        int hole = top;
+        int child = 2 * hole + 1;
+        while (child < last) {
             /*
-             * Tree has two children.
-             *
-             * Note that if rightChildIndex <= last, that automatically means
-             * leftChildIndex <= last as well, so no need to list both.
+             * The hole has two children; pick the smaller one (the left one
+             * when they are equal).
              */
-            if (rightChildIndex <= last) {
-                /*
-                 * If the left child is less than or equal to right child.
-                 */
-                if (order.compare(array[leftChildIndex],
-                        array[rightChildIndex]) <= 0) {
-                    /*
-                     * If the root is greater then the smaller child.
-                     */
-                    if (order.compare(array[top], array[leftChildIndex]) > 0) {
-                        /*
-                         * Swap the root with that child.
-                         */
-                        exchangeEntries(array, top, leftChildIndex);
-                        /*
-                         * Update the position of the root.
-                         */
-                        newTop = leftChildIndex;
-                    }
-                } else {
-                    /*
-                     * If the right child is less than the left child. And the
-                     * root is greater then the smaller child.
-                     */
-                    if (order.compare(array[top], array[rightChildIndex]) > 0) {
-                        /*
-                         * Swap the root with that child.
-                         */
-                        exchangeEntries(array, top, rightChildIndex);
-                        /*
-                         * Update the position of the root.
-                         */
-                        newTop = rightChildIndex;
-                    }
-                }
-                /*
-                 * If the root only has left child.
-                 */
-            } else if (leftChildIndex <= last) {
-                /*
-                 * If the root is greater then the smaller child.
-                 */
-                if (order.compare(array[top], array[leftChildIndex]) > 0) {
-                    /*
-                     * Swap the root with that child.
-                     */
-                    exchangeEntries(array, top, leftChildIndex);
-                    /*
-                     * Update the position of the root.
-                     */
-                    newTop = leftChildIndex;
-                }
-
+            if (order.compare(array[child], array[child + 1]) > 0) {
+                child++;
             }
-
+            array[hole] = array[child];
+            hole = child;
+            child = 2 * hole + 1;
         }
-        /*
-         * If the value of the newTop changed, this means the swapping happened.
-         * And the array might still not a heap.
-         */
-        if (newTop != top) {
+        if (child == last) {
             /*
-             * Recursively sift down the root of the corresponding tree.
+             * The hole has only a left child.
              */
-            siftDown(array, newTop, last, order);
+            array[hole] = array[child];
+            hole = child;
         }
+        /*
+         * The root usually belongs near the bottom, so bounce it back up from
+         * the leaf (Wegener's bottom-up heap sort): move the entries on the
+         * path back down until its parent is less than the root. Passing over
+         * equal entries leaves the root above them, exactly where the
+         * top-down sift would have stopped.
+         */
+        while (hole > top) {
+            int parent = (hole - 1) / 2;
+            if (order.compare(array[parent], root) < 0) {
+                break;
+            }
+            array[hole] = array[parent];
+            hole = parent;
+        }
+        array[hole] = root;
+        return hole;
 
     }
 
     /**
-     * Heapifies the subtree of the given array rooted at the given {@code top}.
+     * Given an array that represents a complete binary tree and an index
+     * referring to an entry such that the array through that entry would be a
+     * heap except for that entry, sifts the entry up to turn the array through
+     * that entry into a heap.
      *
      * @param <T>
      *            type of array entries
      * @param array
      *            the complete binary tree
-     * @param top
-     *            the index of the root of the "subtree" to heapify
+     * @param bottom
+     *            the index of the entry to sift up
      * @param order
-     *            the total preorder for sorting
+     *            total preorder for sorting
      * @updates array
      * @requires <pre>
-     * 0 <= top  and
+     * 0 <= bottom < |array|  and
      * for all i: integer
-     *     where (0 <= i  and  i < |array|)
+     *     where (0 <= i  and  i <= bottom)
      *   ([entry at position i in array is not null])  and
-     * [subtree rooted at {@code top} is a complete binary tree]  and
+     * SUBTREE_IS_HEAP(array, 0, bottom - 1,
+     *     [relation computed by order.compare method])  and
      * IS_TOTAL_PREORDER([relation computed by order.compare method])
      * </pre>
      * @ensures <pre>
-     * SUBTREE_IS_HEAP(array, top, |array| - 1,
+     * SUBTREE_IS_HEAP(array, 0, bottom,
      *     [relation computed by order.compare method])  and
-     * perms(array, #array)
+     * perms(array, #array)  and
+     * [the other entries in array are the same as in #array]
      * </pre>
      */
-    private static <T> void heapify(T[] array, int top, Comparator<T> order) {
+    private static <T> void siftUp(T[] array, int bottom,
+            Comparator<T> order) {
         assert array != null : "Violation of: array is not null";
         assert order != null : "Violation of: order is not null";
-        assert 0 <= top : "Violation of: 0 <= top";
-        for (int i = 0; i < array.length; i++) {
-            assert array[i] != null : ""
-                    + "Violation of: all entries in array are not null";
-        }
+        assert 0 <= bottom : "Violation of: 0 <= bottom";
+        assert bottom < array.length : "Violation of: bottom < |array|";
         /*
-         * Impractical to check last requires clause; no need to check the other
-         * requires clause, because it must be true when using the array
-         * representation for a complete binary tree.
+         * Impractical to check the other requires clauses.
          */
+
         /*
-         * We only need to heapify the array that length is greater than 1.
+         * Same idea as siftDown: lift the entry out and move each greater
+         * parent down into the hole, then drop the entry into the hole. The
+         * entry stops below an equal parent, so equal entries keep the order
+         * in which they were added along each path.
          */
-        if (array.length > 1 && array.length > top) {
-            /*
-             * Find the index of the right and left child of the array.
-             */
-            int leftChildIndex = top * 2 + 1;
-            int rightChildIndex = top * 2 + 2;
-            int last = array.length - 1;
-            /*
-             * If the heap has a left subtree, then heapify the left subtree.
-             */
-            if (leftChildIndex < array.length) {
-                heapify(array, leftChildIndex, order);
-                /*
-                 * If the heap has a right subtree, then heapify the right
-                 * subtree.
-                 *
-                 * The if statement is put here for efficiency: if
-                 * leftChildIndex is not less than array.length, then we already
-                 * known rightChildIndex is greater than array.length.
-                 */
-                if (rightChildIndex < array.length) {
-                    heapify(array, rightChildIndex, order);
-                }
-
+        T entry = array[bottom];
+        int hole = bottom;
+        while (hole > 0) {
+            int parent = (hole - 1) / 2;
+            if (order.compare(array[parent], entry) <= 0) {
+                break;
             }
-
-            /*
-             * Finally, sift down the root.
-             */
-            siftDown(array, top, last, order);
-
+            array[hole] = array[parent];
+            hole = parent;
         }
-
+        array[hole] = entry;
     }
 
     /**
-     * Constructs and returns an array representing a heap with the entries from
-     * the given {@code Queue}.
+     * Reports whether entry {@code x}, added as number {@code xSequence},
+     * comes after entry {@code y}, added as number {@code ySequence}: either
+     * {@code x} is greater than {@code y}, or they are equal and {@code x} was
+     * added later.
      *
      * @param <T>
-     *            type of {@code Queue} and array entries
-     * @param q
-     *            the {@code Queue} with the entries for the heap
+     *            type of entries
+     * @param x
+     *            one entry
+     * @param xSequence
+     *            insertion sequence number of {@code x}
+     * @param y
+     *            the other entry
+     * @param ySequence
+     *            insertion sequence number of {@code y}
      * @param order
-     *            the total preorder for sorting
-     * @return the array representation of a heap
-     * @clears q
-     * @requires IS_TOTAL_PREORDER([relation computed by order.compare method])
-     * @ensures <pre>
-     * SUBTREE_IS_HEAP(buildHeap, 0, |buildHeap| - 1)  and
-     * perms(buildHeap, #q)  and
-     * for all i: integer
-     *     where (0 <= i  and  i < |buildHeap|)
-     *   ([entry at position i in buildHeap is not null])  and
-     * </pre>
+     *            total preorder for sorting
+     * @return true iff {@code x} comes after {@code y}
      */
-    @SuppressWarnings("unchecked")
-    private static <T> T[] buildHeap(Queue<T> q, Comparator<T> order) {
-        assert q != null : "Violation of: q is not null";
-        assert order != null : "Violation of: order is not null";
-        /*
-         * Impractical to check the requires clause.
-         */
-        /*
-         * With "new T[...]" in place of "new Object[...]" it does not compile;
-         * as shown, it results in a warning about an unchecked cast, though it
-         * cannot fail.
-         */
-        T[] heap = (T[]) (new Object[q.length()]);
-        /*
-         * Move all entries from queue to array.
-         */
-        for (int i = 0; i < heap.length; i++) {
-            heap[i] = q.dequeue();
-        }
-        /*
-         * Heapify the array heap.
-         */
-        heapify(heap, 0, order);
-
-        return heap;
+    private static <T> boolean isAfter(T x, int xSequence, T y,
+            int ySequence, Comparator<T> order) {
+        int c = order.compare(x, y);
+        return c > 0 || (c == 0 && xSequence > ySequence);
     }
 
     /**
-     * Checks if the subtree of the given {@code array} rooted at the given
-     * {@code top} is a heap.
+     * Same as {@code siftDown}, but moves the sequence numbers of the entries
+     * in lockstep with them and uses them to break ties.
      *
      * @param <T>
      *            type of array entries
      * @param array
      *            the complete binary tree
+     * @param sequence
+     *            the insertion sequence numbers of the entries in array
      * @param top
      *            the index of the root of the "subtree"
      * @param last
      *            the index of the last entry in the heap
      * @param order
      *            total preorder for sorting
-     * @return true if the subtree of the given {@code array} rooted at the
-     *         given {@code top} is a heap; false otherwise
+     * @return the index where the root ends
+     * @updates array, sequence
      * @requires <pre>
-     * 0 <= top  and  last < |array|  and
-     * for all i: integer
-     *     where (0 <= i  and  i < |array|)
-     *   ([entry at position i in array is not null])  and
-     * [subtree rooted at {@code top} is a complete binary tree]
+     * 0 <= top  and  last < |array| = |sequence|  and
+     * [both subtrees of the entry at index top are heaps, with ties broken
+     *  by sequence]
      * </pre>
      * @ensures <pre>
-     * isHeap = SUBTREE_IS_HEAP(array, top, last,
-     *     [relation computed by order.compare method])
+     * [the subtree rooted at top, through last, is a heap, with ties broken
+     *  by sequence]  and
+     * [array and sequence are permuted in the same way]  and
+     * array[siftDown] = #array[top]
      * </pre>
      */
-    private static <T> boolean isHeap(T[] array, int top, int last,
-            Comparator<T> order) {
-        assert array != null : "Violation of: array is not null";
-        assert 0 <= top : "Violation of: 0 <= top";
-        assert last < array.length : "Violation of: last < |array|";
-        for (int i = 0; i < array.length; i++) {
-            assert array[i] != null : ""
-                    + "Violation of: all entries in array are not null";
+    private static <T> int siftDown(T[] array, int[] sequence, int top,
+            int last, Comparator<T> order) {
+        T root = array[top];
+        int rootSequence = sequence[top];
+        int hole = top;
+        int child = 2 * hole + 1;
+        while (child < last) {
+            if (isAfter(array[child], sequence[child], array[child + 1],
+                    sequence[child + 1], order)) {
+                child++;
+            }
+            array[hole] = array[child];
+            sequence[hole] = sequence[child];
+            hole = child;
+            child = 2 * hole + 1;
         }
-        /*
-         * No need to check the other requires clause, because it must be true
-         * when using the Array representation for a complete binary tree.
-         */
-        int left = 2 * top + 1;
-        boolean isHeap = true;
-        if (left <= last) {
-            isHeap = (order.compare(array[top], array[left]) <= 0)
-                    && isHeap(array, left, last, order);
-            int right = left + 1;
-            if (isHeap && (right <= last)) {
-                isHeap = (order.compare(array[top], array[right]) <= 0)
-                        && isHeap(array, right, last, order);
+        if (child == last) {
+            array[hole] = array[child];
+            sequence[hole] = sequence[child];
+            hole = child;
+        }
+        while (hole > top) {
+            int parent = (hole - 1) / 2;
+            if (isAfter(root, rootSequence, array[parent], sequence[parent],
+                    order)) {
+                break;
             }
+            array[hole] = array[parent];
+            sequence[hole] = sequence[parent];
+            hole = parent;
         }
-        return isHeap;
+        array[hole] = root;
+        sequence[hole] = rootSequence;
+        return hole;
     }
 
     /**
-     * Checks that the part of the convention repeated below holds for the
-     * current representation.
+     * Same as {@code siftUp}, but moves the sequence numbers of the entries in
+     * lockstep with them and uses them to break ties.
      *
-     * @return true if the convention holds (or if assertion checking is off);
-     *         otherwise reports a violated assertion
-     * @convention <pre>
-     * if $this.insertionMode then
-     *   $this.heapSize = 0
-     * else
-     *   $this.entries = <>  and
-     *   for all i: integer
-     *       where (0 <= i  and  i < |$this.heap|)
-     *     ([entry at position i in $this.heap is not null])  and
-     *   SUBTREE_IS_HEAP($this.heap, 0, $this.heapSize - 1,
-     *     [relation computed by $this.machineOrder.compare method])  and
-     *   0 <= $this.heapSize <= |$this.heap|
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the complete binary tree
+     * @param sequence
+     *            the insertion sequence numbers of the entries in array
+     * @param bottom
+     *            the index of the entry to sift up
+     * @param order
+     *            total preorder for sorting
+     * @updates array, sequence
+     * @requires <pre>
+     * 0 <= bottom < |array| = |sequence|  and
+     * [array[0, bottom] is a heap, with ties broken by sequence, except for
+     *  the entry at bottom]
+     * </pre>
+     * @ensures <pre>
+     * [array[0, bottom] is a heap, with ties broken by sequence]  and
+     * [array and sequence are permuted in the same way]
      * </pre>
      */
-    private boolean conventionHolds() {
-        if (this.insertionMode) {
-            assert this.heapSize == 0 : ""
-                    + "Violation of: if $this.insertionMode then $this.heapSize = 0";
-        } else {
-            assert this.entries.length() == 0 : ""
-                    + "Violation of: if not $this.insertionMode then $this.entries = <>";
-            assert 0 <= this.heapSize : ""
-                    + "Violation of: if not $this.insertionMode then 0 <= $this.heapSize";
-            assert this.heapSize <= this.heap.length : ""
-                    + "Violation of: if not $this.insertionMode then"
-                    + " $this.heapSize <= |$this.heap|";
-            for (int i = 0; i < this.heap.length; i++) {
-                assert this.heap[i] != null : ""
-                        + "Violation of: if not $this.insertionMode then"
-                        + " all entries in $this.heap are not null";
+    private static <T> void siftUp(T[] array, int[] sequence, int bottom,
+            Comparator<T> order) {
+        T entry = array[bottom];
+        int entrySequence = sequence[bottom];
+        int hole = bottom;
+        while (hole > 0) {
+            int parent = (hole - 1) / 2;
+            if (isAfter(entry, entrySequence, array[parent], sequence[parent],
+                    order)) {
+                break;
             }
-            assert isHeap(this.heap, 0, this.heapSize - 1,
-                    this.machineOrder) : ""
-                            + "Violation of: if not $this.insertionMode then"
-                            + " SUBTREE_IS_HEAP($this.heap, 0, $this.heapSize - 1,"
-                            + " [relation computed by $this.machineOrder.compare"
-                            + " method])";
+            array[hole] = array[parent];
+            sequence[hole] = sequence[parent];
+            hole = parent;
         }
-        return true;
+        array[hole] = entry;
+        sequence[hole] = entrySequence;
     }
 
     /**
-     * Creator of initial representation.
+     * Same as {@code heapifyBottomUp}, but moves the sequence numbers of the
+     * entries in lockstep with them and uses them to break ties.
      *
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the complete binary tree
+     * @param sequence
+     *            the insertion sequence numbers of the entries in array
+     * @param last
+     *            the index of the last entry in the heap
      * @param order
      *            total preorder for sorting
-     * @requires IS_TOTAL_PREORDER([relation computed by order.compare method]
+     * @updates array, sequence
+     * @requires last < |array| = |sequence|
      * @ensures <pre>
-     * $this.insertionMode = true  and
-     * $this.machineOrder = order  and
-     * $this.entries = <>  and
-     * $this.heapSize = 0
+     * [array[0, last] is a heap, with ties broken by sequence]  and
+     * [array and sequence are permuted in the same way]
      * </pre>
      */
-    private void createNewRep(Comparator<T> order) {
-
-        this.insertionMode = true;
-        this.machineOrder = order;
-        this.entries = new Queue1L<>();
-        this.heapSize = 0;
-
+    private static <T> void heapifyBottomUp(T[] array, int[] sequence,
+            int last, Comparator<T> order) {
+        for (int top = (last - 1) / 2; top >= 0; top--) {
+            siftDown(array, sequence, top, last, order);
+        }
     }
 
-    /*
-     * Constructors -----------------------------------------------------------
-     */
-
     /**
-     * Constructor from order.
+     * Stable version of {@code heapifyAppended}: restores the heap ordering of
+     * {@code array[0, last]}, with ties broken by {@code sequence}, after the
+     * entries {@code array[first, last]} have been appended to the heap
+     * {@code array[0, first)}.
      *
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the complete binary tree
+     * @param sequence
+     *            the insertion sequence numbers of the entries in array
+     * @param first
+     *            the index of the first entry appended
+     * @param last
+     *            the index of the last entry in the heap
      * @param order
      *            total preorder for sorting
+     * @updates array, sequence
+     * @requires <pre>
+     * 0 <= first <= last < |array| <= |sequence|  and
+     * [array[0, first) is a heap, with ties broken by sequence]
+     * </pre>
+     * @ensures <pre>
+     * [array[0, last] is a heap, with ties broken by sequence]  and
+     * [array and sequence are permuted in the same way]
+     * </pre>
      */
-    public SortingMachine5a(Comparator<T> order) {
-        this.createNewRep(order);
-        assert this.conventionHolds();
+    private static <T> void heapifyAppended(T[] array, int[] sequence,
+            int first, int last, Comparator<T> order) {
+        if (last + 1 - first <= Integer.SIZE - 1
+                - Integer.numberOfLeadingZeros(last + 1)) {
+            for (int i = first; i <= last; i++) {
+                siftUp(array, sequence, i, order);
+            }
+        } else {
+            int low = (first - 1) / 2;
+            int high = (last - 1) / 2;
+            while (high >= 0) {
+                for (int top = high; top >= low; top--) {
+                    siftDown(array, sequence, top, last, order);
+                }
+                high = Math.min((high - 1) / 2, low - 1);
+                low = (low - 1) / 2;
+            }
+        }
     }
 
-    /*
+    /**
+     * Heapifies the subtree of the given array rooted at the given {@code top}.
+     *
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the complete binary tree
+     * @param top
+     *            the index of the root of the "subtree" to heapify
+     * @param last
+     *            the index of the last entry in the heap
+     * @param order
+     *            the total preorder for sorting
+     * @updates array
+     * @requires <pre>
+     * 0 <= top  and  last < |array|  and
+     * for all i: integer
+     *     where (0 <= i  and  i <= last)
+     *   ([entry at position i in array is not null])  and
+     * [subtree rooted at {@code top} is a complete binary tree]  and
+     * IS_TOTAL_PREORDER([relation computed by order.compare method])
+     * </pre>
+     * @ensures <pre>
+     * SUBTREE_IS_HEAP(array, top, last,
+     *     [relation computed by order.compare method])  and
+     * perms(array, #array)
+     * </pre>
+     */
+    private static <T> void heapify(T[] array, int top, int last,
+            Comparator<T> order) {
+        assert array != null : "Violation of: array is not null";
+        assert order != null : "Violation of: order is not null";
+        assert 0 <= top : "Violation of: 0 <= top";
+        assert last < array.length : "Violation of: last < |array|";
+        assert validation != Validation.FULL
+                || entriesNotNull(array, last) : "Violation of:"
+                        + " all entries in array[0, last] are not null";
+        /*
+         * Impractical to check last requires clause; no need to check the other
+         * requires clause, because it must be true when using the array
+         * representation for a complete binary tree.
+         */
+        /*
+         * We only need to heapify the array that length is greater than 1.
+         */
+        if (last > 0 && last >= top) {
+            /*
+             * Find the index of the right and left child of the array.
+             */
+            int leftChildIndex = top * 2 + 1;
+            int rightChildIndex = top * 2 + 2;
+            /*
+             * If the heap has a left subtree, then heapify the left subtree.
+             */
+            if (leftChildIndex <= last) {
+                heapify(array, leftChildIndex, last, order);
+                /*
+                 * If the heap has a right subtree, then heapify the right
+                 * subtree.
+                 *
+                 * The if statement is put here for efficiency: if
+                 * leftChildIndex is greater than last, then we already known
+                 * rightChildIndex is greater than last.
+                 */
+                if (rightChildIndex <= last) {
+                    heapify(array, rightChildIndex, last, order);
+                }
+
+            }
+
+            /*
+             * Finally, sift down the root.
+             */
+            siftDown(array, top, last, order);
+
+        }
+
+    }
+
+    /**
+     * Heapifies the given array iteratively, bottom-up (Floyd's method): every
+     * parent is sifted down, from the last parent up to the root, so each
+     * subtree is already a heap by the time its root is sifted down.
+     *
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the complete binary tree
+     * @param last
+     *            the index of the last entry in the heap
+     * @param order
+     *            the total preorder for sorting
+     * @updates array
+     * @requires <pre>
+     * last < |array|  and
+     * for all i: integer
+     *     where (0 <= i  and  i <= last)
+     *   ([entry at position i in array is not null])  and
+     * IS_TOTAL_PREORDER([relation computed by order.compare method])
+     * </pre>
+     * @ensures <pre>
+     * SUBTREE_IS_HEAP(array, 0, last,
+     *     [relation computed by order.compare method])  and
+     * perms(array, #array)
+     * </pre>
+     */
+    private static <T> void heapifyBottomUp(T[] array, int last,
+            Comparator<T> order) {
+        assert array != null : "Violation of: array is not null";
+        assert order != null : "Violation of: order is not null";
+        assert last < array.length : "Violation of: last < |array|";
+        assert validation != Validation.FULL
+                || entriesNotNull(array, last) : "Violation of:"
+                        + " all entries in array[0, last] are not null";
+        /*
+         * Impractical to check last requires clause.
+         */
+        /*
+         * The entries after the last parent are leaves, which are heaps
+         * already, so start sifting down from the last parent.
+         */
+        for (int top = (last - 1) / 2; top >= 0; top--) {
+            siftDown(array, top, last, order);
+        }
+    }
+
+    /**
+     * Restores the heap ordering of {@code array[0, last]} after the entries
+     * {@code array[first, last]} have been appended to the heap
+     * {@code array[0, first)}. Only the ancestors of the new entries can be
+     * out of order, so this is Floyd's method restricted to them: their
+     * indices form one interval per level, and those intervals are sifted
+     * down from the bottom level up, each from its last index to its first;
+     * when there are no more new entries than levels, each is sifted up
+     * instead. With k new entries and n old ones, this takes O(k + log(n)^2)
+     * comparisons, instead of O(n + k) for rebuilding the whole heap.
+     *
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the complete binary tree
+     * @param first
+     *            the index of the first entry appended
+     * @param last
+     *            the index of the last entry in the heap
+     * @param order
+     *            the total preorder for sorting
+     * @updates array
+     * @requires <pre>
+     * 0 <= first <= last < |array|  and
+     * [the entries in array[0, last] are not null]  and
+     * SUBTREE_IS_HEAP(array, 0, first - 1,
+     *     [relation computed by order.compare method])  and
+     * IS_TOTAL_PREORDER([relation computed by order.compare method])
+     * </pre>
+     * @ensures <pre>
+     * SUBTREE_IS_HEAP(array, 0, last,
+     *     [relation computed by order.compare method])  and
+     * perms(array, #array)
+     * </pre>
+     */
+    private static <T> void heapifyAppended(T[] array, int first, int last,
+            Comparator<T> order) {
+        assert array != null : "Violation of: array is not null";
+        assert order != null : "Violation of: order is not null";
+        assert 0 <= first : "Violation of: 0 <= first";
+        assert first <= last : "Violation of: first <= last";
+        assert last < array.length : "Violation of: last < |array|";
+        /*
+         * Impractical to check the other requires clauses.
+         */
+        /*
+         * No more new entries than levels in the heap: sifting each one up
+         * takes at most O(log(n)^2) comparisons too, and is much cheaper on
+         * average. Otherwise, the parents of the new entries are the indices
+         * [low, high]; those of [low, high] are [(low - 1) / 2,
+         * (high - 1) / 2], of which the ones from low up were sifted down
+         * already. Once the root has been sifted down, high becomes -1.
+         */
+        if (last + 1 - first <= Integer.SIZE - 1
+                - Integer.numberOfLeadingZeros(last + 1)) {
+            for (int i = first; i <= last; i++) {
+                siftUp(array, i, order);
+            }
+        } else {
+            int low = (first - 1) / 2;
+            int high = (last - 1) / 2;
+            while (high >= 0) {
+                for (int top = high; top >= low; top--) {
+                    siftDown(array, top, last, order);
+                }
+                high = Math.min((high - 1) / 2, low - 1);
+                low = (low - 1) / 2;
+            }
+        }
+    }
+
+    /**
+     * Fork/join version of {@code heapify}: the left and right subtrees of
+     * {@code top} are independent, so when they are large they are heapified
+     * as two separate tasks, which are joined before {@code top} is sifted
+     * down. Subtrees with at most {@code PARALLEL_CUTOFF} entries are
+     * heapified sequentially.
+     *
+     * @param <T>
+     *            type of array entries
+     */
+    private static final class HeapifyTask<T> extends RecursiveAction {
+
+        /**
+         * Serial version UID.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * The complete binary tree.
+         */
+        private final T[] array;
+
+        /**
+         * The index of the root of the subtree to heapify.
+         */
+        private final int top;
+
+        /**
+         * The index of the last entry in the heap.
+         */
+        private final int last;
+
+        /**
+         * The total preorder for sorting.
+         */
+        private final Comparator<T> order;
+
+        /**
+         * Constructor from the arguments of {@code heapify}.
+         *
+         * @param array
+         *            the complete binary tree
+         * @param top
+         *            the index of the root of the subtree to heapify
+         * @param last
+         *            the index of the last entry in the heap
+         * @param order
+         *            the total preorder for sorting
+         */
+        private HeapifyTask(T[] array, int top, int last,
+                Comparator<T> order) {
+            this.array = array;
+            this.top = top;
+            this.last = last;
+            this.order = order;
+        }
+
+        @Override
+        protected void compute() {
+            /*
+             * The subtree rooted at top has about (last + 1) / 2^depth
+             * entries, where depth is the depth of top in the tree.
+             */
+            int depth = Integer.SIZE - 1
+                    - Integer.numberOfLeadingZeros(this.top + 1);
+            if (((this.last + 1) >> depth) <= PARALLEL_CUTOFF) {
+                heapify(this.array, this.top, this.last, this.order);
+            } else {
+                int leftChildIndex = this.top * 2 + 1;
+                int rightChildIndex = this.top * 2 + 2;
+                /*
+                 * A subtree this large always has both children.
+                 */
+                invokeAll(
+                        new HeapifyTask<>(this.array, leftChildIndex,
+                                this.last, this.order),
+                        new HeapifyTask<>(this.array, rightChildIndex,
+                                this.last, this.order));
+                siftDown(this.array, this.top, this.last, this.order);
+            }
+        }
+
+    }
+
+    /**
+     * Heapifies {@code array[0, last]} with the given heap construction
+     * strategy.
+     *
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the complete binary tree
+     * @param last
+     *            the index of the last entry in the heap
+     * @param order
+     *            the total preorder for sorting
+     * @param construction
+     *            the heap construction strategy
+     * @updates array
+     * @requires <pre>
+     * last < |array|  and
+     * [the entries in array[0, last] are not null]  and
+     * IS_TOTAL_PREORDER([relation computed by order.compare method])
+     * </pre>
+     * @ensures <pre>
+     * SUBTREE_IS_HEAP(array, 0, last,
+     *     [relation computed by order.compare method])  and
+     * perms(array, #array)  and
+     * [the other entries in array are the same as in #array]
+     * </pre>
+     */
+    private static <T> void buildHeap(T[] array, int last,
+            Comparator<T> order, HeapConstruction construction) {
+        assert array != null : "Violation of: array is not null";
+        assert order != null : "Violation of: order is not null";
+        assert construction != null : "Violation of: construction is not null";
+        assert last < array.length : "Violation of: last < |array|";
+        /*
+         * Impractical to check the other requires clauses.
+         */
+        if (construction == HeapConstruction.BOTTOM_UP) {
+            heapifyBottomUp(array, last, order);
+        } else if (construction == HeapConstruction.PARALLEL
+                && last >= PARALLEL_CUTOFF) {
+            ForkJoinPool.commonPool()
+                    .invoke(new HeapifyTask<>(array, 0, last, order));
+        } else {
+            heapify(array, 0, last, order);
+        }
+    }
+
+    /**
+     * Reverses the order of the entries {@code array[from, to]}.
+     *
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the array whose entries are to be reversed
+     * @param from
+     *            the index of the first entry to reverse
+     * @param to
+     *            the index of the last entry to reverse
+     * @updates array
+     * @requires 0 <= from  and  to < |array|
+     * @ensures <pre>
+     * array[from, to] = rev(#array[from, to])  and
+     * [the other entries in array are the same as in #array]
+     * </pre>
+     */
+    private static <T> void reverseEntries(T[] array, int from, int to) {
+        for (int i = from, j = to; i < j; i++, j--) {
+            exchangeEntries(array, i, j);
+        }
+    }
+
+    /**
+     * Scans {@code array[0, size)} once, giving up as soon as the entries
+     * turn out to be far from sorted either way, and, if they form at most
+     * about {@code size / PRESORTED_RUN_LENGTH} ascending or descending runs,
+     * sorts them in decreasing order. Already sorted (or strictly decreasing)
+     * entries take one comparison and at most one exchange each; otherwise
+     * {@code Arrays.sort}, which merges the existing runs, does the sorting.
+     *
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the entries to check
+     * @param size
+     *            the number of entries to check
+     * @param order
+     *            the total preorder for sorting
+     * @return true iff the entries have been sorted
+     * @updates array
+     * @requires <pre>
+     * 0 <= size <= |array|  and
+     * [the entries in array[0, size) are not null]  and
+     * IS_TOTAL_PREORDER([relation computed by order.compare method])
+     * </pre>
+     * @ensures <pre>
+     * perms(array, #array)  and
+     * (if sortIfPresorted then
+     *    [array[0, size) is sorted in decreasing order, with equal entries
+     *     in the reverse of their order in #array]
+     *  else
+     *    array = #array)
+     * </pre>
+     */
+    private static <T> boolean sortIfPresorted(T[] array, int size,
+            Comparator<T> order) {
+        int limit = size / PRESORTED_RUN_LENGTH;
+        int ascents = 0;
+        int descents = 0;
+        for (int i = 1; i < size && (ascents <= limit || descents <= limit);
+                i++) {
+            int c = order.compare(array[i - 1], array[i]);
+            if (c < 0) {
+                ascents++;
+            } else if (c > 0) {
+                descents++;
+            }
+        }
+        boolean sorted = false;
+        if (descents == 0) {
+            /*
+             * Sorted in increasing order: equal entries are adjacent and in
+             * their original order, so reversing is enough.
+             */
+            reverseEntries(array, 0, size - 1);
+            sorted = true;
+        } else if (ascents == 0 && descents == size - 1) {
+            /*
+             * Strictly decreasing, so there are no equal entries: nothing to
+             * do.
+             */
+            sorted = true;
+        } else if (Math.min(ascents, descents) < limit) {
+            /*
+             * Few runs: the sort is stable, and close to linear on such input.
+             */
+            Arrays.sort(array, 0, size, order);
+            reverseEntries(array, 0, size - 1);
+            sorted = true;
+        }
+        return sorted;
+    }
+
+    /**
+     * Reports whether the entries of {@code array[0, last]} are not null.
+     *
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the array to check
+     * @param last
+     *            the index of the last entry to check
+     * @return true iff the entries of {@code array[0, last]} are not null
+     * @requires last < |array|
+     */
+    private static <T> boolean entriesNotNull(T[] array, int last) {
+        boolean notNull = true;
+        for (int i = 0; i <= last && notNull; i++) {
+            notNull = array[i] != null;
+        }
+        return notNull;
+    }
+
+    /**
+     * Checks if the subtree of the given {@code array} rooted at the given
+     * {@code top} is a heap.
+     *
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the complete binary tree
+     * @param top
+     *            the index of the root of the "subtree"
+     * @param last
+     *            the index of the last entry in the heap
+     * @param order
+     *            total preorder for sorting
+     * @return true if the subtree of the given {@code array} rooted at the
+     *         given {@code top} is a heap; false otherwise
+     * @requires <pre>
+     * 0 <= top  and  last < |array|  and
+     * for all i: integer
+     *     where (0 <= i  and  i <= last)
+     *   ([entry at position i in array is not null])  and
+     * [subtree rooted at {@code top} is a complete binary tree]
+     * </pre>
+     * @ensures <pre>
+     * isHeap = SUBTREE_IS_HEAP(array, top, last,
+     *     [relation computed by order.compare method])
+     * </pre>
+     */
+    private static <T> boolean isHeap(T[] array, int top, int last,
+            Comparator<T> order) {
+        assert array != null : "Violation of: array is not null";
+        assert 0 <= top : "Violation of: 0 <= top";
+        assert last < array.length : "Violation of: last < |array|";
+        assert validation != Validation.FULL
+                || entriesNotNull(array, last) : "Violation of:"
+                        + " all entries in array[0, last] are not null";
+        /*
+         * No need to check the other requires clause, because it must be true
+         * when using the Array representation for a complete binary tree.
+         */
+
+        /*
+         * Compare each entry of the subtree but its root with its parent,
+         * one level of the subtree at a time: the entries at a level are
+         * contiguous, from the first child of the first entry at the level
+         * above to the second child of the last one.
+         */
+        boolean isHeap = true;
+        int from = top;
+        int to = top;
+        while (isHeap && 2 * from + 1 <= last) {
+            from = 2 * from + 1;
+            to = Math.min(2 * to + 2, last);
+            for (int i = from; isHeap && i <= to; i++) {
+                isHeap = order.compare(array[(i - 1) / 2], array[i]) <= 0;
+            }
+        }
+        return isHeap;
+    }
+
+    /**
+     * Checks the heap ordering around the path from index {@code bottom} of
+     * the given {@code array} up to the root: each entry on the path is not
+     * greater than its children. This is what a
+     * sift along that path can break, so checking it after a sift costs
+     * O(log n) instead of the O(n) of {@code isHeap}.
+     *
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the complete binary tree
+     * @param bottom
+     *            the index of the lowest entry on the path
+     * @param last
+     *            the index of the last entry in the heap
+     * @param order
+     *            total preorder for sorting
+     * @return true if the heap ordering holds around the path; false
+     *         otherwise
+     * @requires <pre>
+     * last < |array|  and  bottom <= max(last, 0)  and
+     * [the entries in array[0, last] are not null]
+     * </pre>
+     * @ensures <pre>
+     * pathIsHeap = [every entry on the path from bottom up to 0 is not
+     *   greater than its children through last, according to the relation
+     *   computed by order.compare method]
+     * </pre>
+     */
+    private static <T> boolean pathIsHeap(T[] array, int bottom, int last,
+            Comparator<T> order) {
+        /*
+         * The parent of each entry on the path is on the path too, so it is
+         * enough to compare every entry on the path with its children.
+         */
+        boolean isHeap = true;
+        int i = bottom;
+        while (isHeap && 0 <= i && i <= last) {
+            assert array[i] != null : ""
+                    + "Violation of: all entries in array[0, last] are not null";
+            int child = 2 * i + 1;
+            int lastChild = Math.min(child + 1, last);
+            while (isHeap && child <= lastChild) {
+                isHeap = order.compare(array[i], array[child]) <= 0;
+                child++;
+            }
+            if (i == 0) {
+                i = -1;
+            } else {
+                i = (i - 1) / 2;
+            }
+        }
+        return isHeap;
+    }
+
+    /**
+     * Checks that the part of the convention repeated below holds for the
+     * current representation.
+     *
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * 0 <= $this.heapSize <= |$this.heap|  and
+     * for all i: integer
+     *     where (0 <= i  and  i < $this.heapSize)
+     *   ([entry at position i in $this.heap is not null])  and
+     * [the entries of $this.heap[$this.heapSize, |$this.heap|) are null]  and
+     * (if $this.sorted then
+     *    [$this.heap[0, $this.heapSize) is sorted in decreasing order according
+     *     to the relation computed by $this.machineOrder.compare method]  and
+     *    not $this.insertionMode  and  $this.construction /= EAGER
+     *  else
+     *    SUBTREE_IS_HEAP($this.heap, 0, $this.heapSize - 1,
+     *      [relation computed by $this.machineOrder.compare method]))  and
+     * (if not $this.insertionMode  or  $this.construction = EAGER then
+     *    $this.entries = <>)  and
+     * (if $this.stable  and  not $this.sorted then
+     *    |$this.heap| <= |$this.sequence|  and
+     *    [$this.heap[0, $this.heapSize) is a heap according to the relation
+     *     computed by $this.machineOrder.compare method, with ties broken by
+     *     $this.sequence]
+     *  else if not $this.stable then
+     *    $this.sequence = null)
+     * </pre>
+     */
+    private boolean conventionHolds() {
+        if (validation == Validation.OFF) {
+            return true;
+        }
+        assert 0 <= this.heapSize : "Violation of: 0 <= $this.heapSize";
+        assert this.heapSize <= this.heap.length : ""
+                + "Violation of: $this.heapSize <= |$this.heap|";
+        if (this.sorted) {
+            assert !this.insertionMode
+                    && this.construction != HeapConstruction.EAGER : ""
+                            + "Violation of: not $this.insertionMode and"
+                            + " $this.construction /= EAGER";
+        }
+        if (!this.insertionMode
+                || this.construction == HeapConstruction.EAGER) {
+            assert this.entries.length() == 0 : ""
+                    + "Violation of: if not $this.insertionMode or"
+                    + " $this.construction = EAGER then $this.entries = <>";
+        }
+        if (this.stable && !this.sorted) {
+            assert this.sequence != null
+                    && this.heap.length <= this.sequence.length : ""
+                            + "Violation of: |$this.heap| <= |$this.sequence|";
+        } else if (!this.stable) {
+            assert this.sequence == null : ""
+                    + "Violation of: $this.sequence = null";
+        }
+        /*
+         * The rest takes linear time: with Validation.SAMPLED, only check it
+         * on the 1st, 2nd, 4th, 8th, ... call, which adds up to a linear
+         * amount of work over any number of calls up to the size.
+         */
+        this.checks++;
+        if (validation == Validation.SAMPLED
+                && (this.checks & (this.checks - 1)) != 0) {
+            return true;
+        }
+        for (int i = 0; i < this.heapSize; i++) {
+            assert this.heap[i] != null : ""
+                    + "Violation of: all entries in"
+                    + " $this.heap[0, $this.heapSize) are not null";
+        }
+        for (int i = this.heapSize; i < this.heap.length; i++) {
+            assert this.heap[i] == null : ""
+                    + "Violation of: the entries of"
+                    + " $this.heap[$this.heapSize, |$this.heap|) are null";
+        }
+        if (this.sorted) {
+            for (int i = 1; i < this.heapSize; i++) {
+                assert this.machineOrder.compare(this.heap[i - 1],
+                        this.heap[i]) >= 0 : ""
+                                + "Violation of: [$this.heap[0,"
+                                + " $this.heapSize) is sorted in decreasing"
+                                + " order]";
+            }
+        } else {
+            assert isHeap(this.heap, 0, this.heapSize - 1,
+                    this.machineOrder) : ""
+                            + "Violation of: SUBTREE_IS_HEAP($this.heap, 0,"
+                            + " $this.heapSize - 1, [relation computed by"
+                            + " $this.machineOrder.compare method])";
+        }
+        if (this.stable && !this.sorted) {
+            for (int i = 1; i < this.heapSize; i++) {
+                int parent = (i - 1) / 2;
+                assert isAfter(this.heap[i], this.sequence[i],
+                        this.heap[parent], this.sequence[parent],
+                        this.machineOrder) : ""
+                                + "Violation of: [$this.heap is a heap, with"
+                                + " ties broken by $this.sequence]";
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks, with {@code Validation.SAMPLED}, that the heap ordering holds
+     * around the path of a sift that ended at index {@code bottom} of
+     * {@code $this.heap}, and only touched entries on the path from there up
+     * to the root (with the other levels, {@code conventionHolds} checks the
+     * whole heap).
+     *
+     * @param bottom
+     *            the index of the lowest entry moved by the sift
+     * @param last
+     *            the index of the last entry in the heap
+     * @return true if the heap ordering holds around the path (or if
+     *         assertion checking is off); otherwise reports a violated
+     *         assertion
+     * @requires <pre>
+     * last < |$this.heap|  and  bottom <= max(last, 0)  and
+     * [the entries in $this.heap[0, last] are not null]
+     * </pre>
+     */
+    private boolean siftPathHolds(int bottom, int last) {
+        if (validation == Validation.SAMPLED) {
+            assert pathIsHeap(this.heap, bottom, last, this.machineOrder) : ""
+                    + "Violation of: [$this.heap[0, last] is a heap around"
+                    + " the path from bottom to the root]";
+        }
+        return true;
+    }
+
+    /**
+     * Returns the level of checking named by {@code name}, ignoring case and
+     * surrounding white space, or {@code Validation.FULL} if {@code name} is
+     * null or names no level.
+     *
+     * @param name
+     *            the name of a level, or null
+     * @return the level named by {@code name}, or {@code Validation.FULL}
+     */
+    static Validation parseValidation(String name) {
+        Validation level = Validation.FULL;
+        if (name != null) {
+            for (Validation v : Validation.values()) {
+                if (v.name().equalsIgnoreCase(name.trim())) {
+                    level = v;
+                }
+            }
+        }
+        return level;
+    }
+
+    /**
+     * Sets the level of checking for all the machines, replacing the one
+     * given by the system property; meant for tests, which should restore
+     * the level they replaced.
+     *
+     * @param level
+     *            the new level of checking
+     * @return the level replaced
+     */
+    static Validation setValidation(Validation level) {
+        assert level != null : "Violation of: level is not null";
+        Validation previous = validation;
+        validation = level;
+        return previous;
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @requires IS_TOTAL_PREORDER([relation computed by order.compare method]
+     * @ensures <pre>
+     * $this.insertionMode = true  and
+     * $this.machineOrder = order  and
+     * $this.entries = <>  and
+     * $this.heapSize = 0  and
+     * $this.sorted = false  and
+     * $this.nextSequence = 0
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    private void createNewRep(Comparator<T> order) {
+
+        this.insertionMode = true;
+        this.machineOrder = order;
+        this.countedOrder = this.stats.counting(order);
+        /*
+         * Release the entries, but keep the arrays holding them, unless they
+         * are larger than the retained capacity, for the next entries: the
+         * heap itself with EAGER, otherwise the buffer, which hands it back
+         * as the heap in changeToExtractionMode.
+         */
+        T[] spare = this.heap;
+        if (spare != null) {
+            Arrays.fill(spare, 0, this.heapSize, null);
+            if (spare.length > this.retainedCapacity) {
+                spare = null;
+            }
+        }
+        if (this.entries == null) {
+            this.entries = new ChunkedBuffer<>();
+        } else {
+            this.entries.clear(this.retainedCapacity);
+        }
+        if (this.construction == HeapConstruction.EAGER) {
+            if (spare == null || spare.length < INITIAL_CAPACITY) {
+                spare = (T[]) (new Object[INITIAL_CAPACITY]);
+            }
+            this.heap = spare;
+        } else {
+            if (spare != null) {
+                this.entries.recycle(spare);
+            }
+            this.heap = (T[]) EMPTY;
+        }
+        this.heapSize = 0;
+        this.sorted = false;
+        if (!this.stable) {
+            this.sequence = null;
+        } else if (this.sequence == null
+                || this.sequence.length < this.heap.length
+                || this.sequence.length > this.retainedCapacity) {
+            this.sequence = new int[this.heap.length];
+        }
+        this.nextSequence = 0;
+
+    }
+
+    /**
+     * Replaces the heap, and the sequence numbers when the machine is stable,
+     * by copies of the given capacity, larger or smaller.
+     *
+     * @param capacity
+     *            the new capacity
+     * @updates $this.heap, $this.sequence
+     * @requires $this.heapSize <= capacity
+     * @ensures <pre>
+     * |$this.heap| = capacity  and
+     * $this.heap[0, $this.heapSize) = #$this.heap[0, $this.heapSize)  and
+     * [the other entries in $this.heap are null]  and
+     * (if $this.stable then
+     *    |$this.sequence| = capacity  and
+     *    $this.sequence[0, $this.heapSize) =
+     *      #$this.sequence[0, $this.heapSize))
+     * </pre>
+     */
+    private void resizeHeap(int capacity) {
+        this.heap = Arrays.copyOf(this.heap, capacity);
+        if (this.stable) {
+            this.sequence = Arrays.copyOf(this.sequence, capacity);
+        }
+    }
+
+    /**
+     * Makes room for {@code n} more sequence numbers when the next ones would
+     * overflow, by renumbering the entries of the heap 0, 1, 2, ... in the
+     * order of their sequence numbers. This only happens once every
+     * {@code Integer.MAX_VALUE} or so entries added, since a stable machine
+     * that goes back to insertion mode keeps numbering from where it left
+     * off.
+     *
+     * @param n
+     *            the number of sequence numbers about to be given out
+     * @updates $this.sequence, $this.nextSequence
+     * @requires $this.stable  and  0 <= n <= Integer.MAX_VALUE - $this.heapSize
+     * @ensures <pre>
+     * $this.nextSequence <= Integer.MAX_VALUE - n  and
+     * [the entries of $this.sequence[0, $this.heapSize) are in the same
+     *  relative order as in #$this.sequence[0, $this.heapSize)]
+     * </pre>
+     */
+    private void reserveSequence(int n) {
+        if (this.nextSequence > Integer.MAX_VALUE - n) {
+            this.renumberSequence();
+        }
+    }
+
+    /**
+     * Renumbers the entries of the heap 0, 1, 2, ... in the order of their
+     * sequence numbers, in O($this.heapSize log($this.heapSize)) time.
+     *
+     * @updates $this.sequence, $this.nextSequence
+     * @requires $this.stable  and  not $this.sorted
+     * @ensures <pre>
+     * $this.nextSequence = $this.heapSize  and
+     * [the entries of $this.sequence[0, $this.heapSize) are a permutation of
+     *  0, 1, ..., $this.heapSize - 1 in the same relative order as in
+     *  #$this.sequence[0, $this.heapSize)]
+     * </pre>
+     */
+    private void renumberSequence() {
+        /*
+         * Sequence numbers are not negative, so sorting them with their
+         * indices in the low-order bits sorts the indices by them.
+         */
+        long[] keys = new long[this.heapSize];
+        for (int i = 0; i < this.heapSize; i++) {
+            keys[i] = ((long) this.sequence[i] << Integer.SIZE) | i;
+        }
+        Arrays.sort(keys);
+        for (int rank = 0; rank < this.heapSize; rank++) {
+            this.sequence[(int) keys[rank]] = rank;
+        }
+        this.nextSequence = this.heapSize;
+    }
+
+    /**
+     * Halves the heap, repeatedly, while it is larger than the retained
+     * capacity and no more than a {@code 1 / SHRINK_RATIO} of it is in use.
+     * Halving only then keeps the cost of the copies linear in the number of
+     * entries removed.
+     *
+     * @updates $this.heap, $this.sequence
+     * @ensures <pre>
+     * $this.heap[0, $this.heapSize) = #$this.heap[0, $this.heapSize)  and
+     * (if $this.stable then
+     *    $this.sequence[0, $this.heapSize) =
+     *      #$this.sequence[0, $this.heapSize))
+     * </pre>
+     */
+    private void shrinkHeap() {
+        int capacity = this.heap.length;
+        while (capacity > this.retainedCapacity
+                && this.heapSize <= capacity / SHRINK_RATIO) {
+            capacity = Math.max(capacity / 2, this.retainedCapacity);
+        }
+        if (capacity < this.heap.length) {
+            this.resizeHeap(capacity);
+        }
+    }
+
+    /**
+     * Adds {@code x} to the representation, without checking the contract or
+     * the convention.
+     *
+     * @param x
+     *            the entry to be added
+     * @aliases reference x
+     * @updates this.contents
+     * @requires x is not null  and  this.insertion_mode
+     * @ensures this.contents = #this.contents union {x}
+     */
+    private void addEntry(T x) {
+        this.stats.recordAdded(1);
+        if (this.construction == HeapConstruction.EAGER) {
+            /*
+             * Grow the heap if it is full, then sift x up into it.
+             */
+            if (this.heapSize == this.heap.length) {
+                this.resizeHeap(
+                        Math.max(INITIAL_CAPACITY, 2 * this.heap.length));
+            }
+            this.heap[this.heapSize] = x;
+            if (this.stable) {
+                this.reserveSequence(1);
+                this.sequence[this.heapSize] = this.nextSequence;
+                this.nextSequence++;
+                siftUp(this.heap, this.sequence, this.heapSize,
+                        this.countedOrder);
+            } else {
+                siftUp(this.heap, this.heapSize, this.countedOrder);
+            }
+            assert this.siftPathHolds(this.heapSize, this.heapSize);
+            this.heapSize++;
+        } else {
+            this.entries.add(x);
+        }
+    }
+
+    /**
+     * Adds the entries {@code array[from, to)} to the representation, with
+     * bulk copies, without checking the contract or the convention.
+     *
+     * @param array
+     *            the entries to be added
+     * @param from
+     *            index of the first entry to add
+     * @param to
+     *            index after the last entry to add
+     * @aliases references array[from, to)
+     * @updates this.contents
+     * @requires <pre>
+     * 0 <= from <= to <= |array|  and
+     * [the entries in array[from, to) are not null]  and
+     * this.insertion_mode
+     * </pre>
+     * @ensures this.contents = #this.contents union elements(array[from, to))
+     */
+    private void addEntries(T[] array, int from, int to) {
+        this.stats.recordAdded(to - from);
+        if (this.construction == HeapConstruction.EAGER) {
+            /*
+             * Grow the heap once, copy the new entries after it, and restore
+             * the heap: sifting each new entry up costs O(log n) per entry,
+             * which only pays off when there are fewer new entries than old
+             * ones; otherwise one bottom-up heapify of the whole array, which
+             * is linear, is cheaper.
+             */
+            int oldSize = this.heapSize;
+            int newSize = oldSize + (to - from);
+            if (this.stable) {
+                this.reserveSequence(newSize - oldSize);
+            }
+            if (newSize > this.heap.length) {
+                this.resizeHeap(Math.max(newSize, 2 * this.heap.length));
+            }
+            System.arraycopy(array, from, this.heap, oldSize, to - from);
+            this.heapSize = newSize;
+            if (this.stable) {
+                for (int i = oldSize; i < newSize; i++) {
+                    this.sequence[i] = this.nextSequence;
+                    this.nextSequence++;
+                }
+                if (newSize - oldSize >= oldSize) {
+                    heapifyBottomUp(this.heap, this.sequence, newSize - 1,
+                            this.countedOrder);
+                } else {
+                    for (int i = oldSize; i < newSize; i++) {
+                        siftUp(this.heap, this.sequence, i,
+                                this.countedOrder);
+                        assert this.siftPathHolds(i, i);
+                    }
+                }
+            } else if (newSize - oldSize >= oldSize) {
+                heapifyBottomUp(this.heap, newSize - 1, this.countedOrder);
+            } else {
+                for (int i = oldSize; i < newSize; i++) {
+                    siftUp(this.heap, i, this.countedOrder);
+                    assert this.siftPathHolds(i, i);
+                }
+            }
+        } else {
+            this.entries.addAll(array, from, to);
+        }
+    }
+
+    /**
+     * Removes the {@code n} smallest entries from the heap and returns the
+     * index in {@code $this.heap} of the first of {@code n} consecutive slots
+     * that hold them, without checking the contract or the convention.
+     *
+     * @param n
+     *            the number of entries to remove
+     * @return the index of the first slot of the entries removed
+     * @updates $this.heap, $this.heapSize
+     * @requires 0 <= n <= $this.heapSize
+     * @ensures <pre>
+     * $this.heapSize = #$this.heapSize - n  and
+     * [$this.heap[drain, drain + n) are the n smallest entries of
+     *  #$this.heap[0, #$this.heapSize), in increasing order]  and
+     * [$this.heap[drain, drain + n) are not in
+     *  $this.heap[0, $this.heapSize)]
+     * </pre>
+     */
+    private int drain(int n) {
+        int drain;
+        if (this.sorted) {
+            /*
+             * The n smallest entries are the last ones, in decreasing order;
+             * reverse them.
+             */
+            drain = this.heapSize - n;
+            reverseEntries(this.heap, drain, this.heapSize - 1);
+            this.stats.recordExchanges(n / 2);
+            this.heapSize = drain;
+        } else if (2 * n >= this.heapSize && !this.stable) {
+            /*
+             * Most of the heap is wanted: sorting the whole array is about
+             * twice as fast as removing the entries one at a time, and a
+             * sorted array is still a heap. Hand over its first n entries and
+             * rotate the others, in place, to the front, where they stay
+             * sorted. The order of equal entries in the heap is not their
+             * insertion order, so a stable machine cannot take this path.
+             */
+            int size = this.heapSize;
+            Arrays.sort(this.heap, 0, size, this.countedOrder);
+            if (n < size) {
+                reverseEntries(this.heap, 0, n - 1);
+                reverseEntries(this.heap, n, size - 1);
+                reverseEntries(this.heap, 0, size - 1);
+                this.stats.recordExchanges(n / 2 + (size - n) / 2 + size / 2);
+            }
+            this.heapSize = size - n;
+            drain = this.heapSize;
+        } else {
+            /*
+             * This is the second phase of an in-place heap sort, stopped after
+             * n steps: each step exchanges the root with the last entry of the
+             * heap, which shrinks by one, and sifts the new root down. This
+             * leaves the entries removed at the end of the array, in
+             * decreasing order; reverse them.
+             */
+            int last = this.heapSize - 1;
+            for (int i = 0; i < n; i++) {
+                exchangeEntries(this.heap, 0, last);
+                last--;
+                int hole;
+                if (this.stable) {
+                    this.sequence[0] = this.sequence[last + 1];
+                    hole = siftDown(this.heap, this.sequence, 0, last,
+                            this.countedOrder);
+                } else {
+                    hole = siftDown(this.heap, 0, last, this.countedOrder);
+                }
+                assert this.siftPathHolds(hole, last);
+                this.stats.recordSiftDown(0, hole);
+            }
+            drain = last + 1;
+            reverseEntries(this.heap, drain, drain + n - 1);
+            this.stats.recordExchanges(n + n / 2);
+            this.heapSize = drain;
+        }
+        return drain;
+    }
+
+    /**
+     * Moves the entries of the buffer into the heap, without checking the
+     * contract or the convention: when the heap is empty, the entries are
+     * sorted if they are nearly sorted already, or heapified with
+     * {@code $this.construction}; otherwise they are appended to the heap,
+     * and only their ancestors are sifted down.
+     *
+     * @updates $this
+     * @requires $this.construction /= EAGER
+     * @ensures <pre>
+     * $this.entries = <>  and
+     * multiset_entries($this.heap[0, $this.heapSize)) =
+     *   multiset_entries(#$this.entries) union
+     *   multiset_entries(#$this.heap[0, #$this.heapSize))  and
+     * [the convention holds, except for the clause about $this.insertionMode
+     *  in the one about $this.sorted]
+     * </pre>
+     */
+    private void mergeBuffer() {
+        if (this.heapSize > 0) {
+            /*
+             * changeToInsertionMode or meld kept the heap: append the entries
+             * of the buffer to it, numbered from where the heap left off when
+             * the machine is stable, and restore the heap above them.
+             */
+            int first = this.heapSize;
+            int last = first + this.entries.length() - 1;
+            if (first <= last) {
+                if (last >= this.heap.length) {
+                    this.resizeHeap(Math.max(last + 1, 2 * this.heap.length));
+                }
+                this.entries.copyTo(this.heap, first);
+                this.entries.clear(this.retainedCapacity);
+                this.heapSize = last + 1;
+                if (this.stable) {
+                    this.reserveSequence(last + 1 - first);
+                    for (int i = first; i <= last; i++) {
+                        this.sequence[i] = this.nextSequence;
+                        this.nextSequence++;
+                    }
+                    heapifyAppended(this.heap, this.sequence, first, last,
+                            this.countedOrder);
+                } else {
+                    heapifyAppended(this.heap, first, last,
+                            this.countedOrder);
+                }
+            }
+        } else {
+            /*
+             * Update the heap size to the number of entries in the buffer,
+             * then take them over (the array is the buffer's own storage when
+             * that is a single chunk) and sort them if they are nearly
+             * sorted already, or heapify them.
+             */
+            this.heapSize = this.entries.length();
+            this.heap = this.entries.drainToArray();
+            this.sorted = sortIfPresorted(this.heap, this.heapSize,
+                    this.countedOrder);
+            if (!this.sorted && this.stable) {
+                /*
+                 * The buffer keeps the entries in insertion order, so their
+                 * positions are their sequence numbers. The array holding
+                 * them is kept from the last cycle, when large enough.
+                 */
+                if (this.sequence.length < this.heap.length) {
+                    this.sequence = new int[this.heap.length];
+                }
+                for (int i = 0; i < this.heapSize; i++) {
+                    this.sequence[i] = i;
+                }
+                this.nextSequence = this.heapSize;
+                heapifyBottomUp(this.heap, this.sequence, this.heapSize - 1,
+                        this.countedOrder);
+            } else if (!this.sorted) {
+                buildHeap(this.heap, this.heapSize - 1, this.countedOrder,
+                        this.construction);
+            }
+        }
+    }
+
+    /**
+     * Turns a heap sorted in decreasing order back into a heap, without
+     * checking the contract or the convention: an array sorted in increasing
+     * order is a heap, and equal entries are then in the order in which they
+     * were added, so numbering them by position keeps a stable machine
+     * stable.
+     *
+     * @updates $this.heap, $this.sorted, $this.sequence, $this.nextSequence
+     * @ensures <pre>
+     * not $this.sorted  and
+     * multiset_entries($this.heap[0, $this.heapSize)) =
+     *   multiset_entries(#$this.heap[0, $this.heapSize))
+     * </pre>
+     */
+    private void unsortHeap() {
+        if (this.sorted) {
+            reverseEntries(this.heap, 0, this.heapSize - 1);
+            this.stats.recordExchanges(this.heapSize / 2);
+            if (this.stable) {
+                if (this.sequence.length < this.heap.length) {
+                    this.sequence = new int[this.heap.length];
+                }
+                for (int i = 0; i < this.heapSize; i++) {
+                    this.sequence[i] = i;
+                }
+                this.nextSequence = this.heapSize;
+            }
+            this.sorted = false;
+        }
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from order, using {@code HeapConstruction.RECURSIVE}.
+     *
+     * @param order
+     *            total preorder for sorting
+     */
+    public SortingMachine5a(Comparator<T> order) {
+        this(order, HeapConstruction.RECURSIVE);
+    }
+
+    /**
+     * Constructor from order and heap construction strategy.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @param construction
+     *            heap construction strategy used by
+     *            {@code changeToExtractionMode}
+     */
+    public SortingMachine5a(Comparator<T> order,
+            HeapConstruction construction) {
+        this(order, construction, false);
+    }
+
+    /**
+     * Constructor from order, heap construction strategy, and stability.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @param construction
+     *            heap construction strategy used by
+     *            {@code changeToExtractionMode}
+     * @param stable
+     *            whether equal entries are removed in the order in which they
+     *            were added
+     */
+    public SortingMachine5a(Comparator<T> order,
+            HeapConstruction construction, boolean stable) {
+        assert construction != null : "Violation of: construction is not null";
+        this.construction = construction;
+        this.stable = stable;
+        this.stats = SortingMachineStats.DISABLED;
+        this.retainedCapacity = DEFAULT_RETAINED_CAPACITY;
+        this.createNewRep(order);
+        assert this.conventionHolds();
+    }
+
+    /*
      * Standard methods -------------------------------------------------------
      */
 
@@ -533,8 +1961,10 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
     @Override
     public final SortingMachine<T> newInstance() {
         try {
-            Constructor<?> c = this.getClass().getConstructor(Comparator.class);
-            return (SortingMachine<T>) c.newInstance(this.machineOrder);
+            Constructor<?> c = this.getClass().getConstructor(Comparator.class,
+                    HeapConstruction.class, boolean.class);
+            return (SortingMachine<T>) c.newInstance(this.machineOrder,
+                    this.construction, this.stable);
         } catch (ReflectiveOperationException e) {
             throw new AssertionError(
                     "Cannot construct object of type " + this.getClass());
@@ -560,11 +1990,29 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
          * compiled.
          */
         SortingMachine5a<T> localSource = (SortingMachine5a<T>) source;
+        /*
+         * Exchange the storage of the representations, so that
+         * localSource.createNewRep can reuse the arrays of this.
+         */
+        ChunkedBuffer<T> oldEntries = this.entries;
+        T[] oldHeap = this.heap;
+        int oldHeapSize = this.heapSize;
+        int[] oldSequence = this.sequence;
         this.insertionMode = localSource.insertionMode;
         this.machineOrder = localSource.machineOrder;
+        this.countedOrder = this.stats.counting(this.machineOrder);
+        this.construction = localSource.construction;
+        this.stable = localSource.stable;
         this.entries = localSource.entries;
         this.heap = localSource.heap;
         this.heapSize = localSource.heapSize;
+        this.sorted = localSource.sorted;
+        this.sequence = localSource.sequence;
+        this.nextSequence = localSource.nextSequence;
+        localSource.entries = oldEntries;
+        localSource.heap = oldHeap;
+        localSource.heapSize = oldHeapSize;
+        localSource.sequence = oldSequence;
         localSource.createNewRep(localSource.machineOrder);
         assert this.conventionHolds();
         assert localSource.conventionHolds();
@@ -579,7 +2027,7 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
         assert x != null : "Violation of: x is not null";
         assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
 
-        this.entries.enqueue(x);
+        this.addEntry(x);
 
         assert this.conventionHolds();
     }
@@ -588,15 +2036,12 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
     public final void changeToExtractionMode() {
         assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
 
+        long start = this.stats.start();
         this.insertionMode = false;
-        /*
-         * Move the entries in queue to array and heap sort them.
-         */
-        this.heap = buildHeap(this.entries, this.machineOrder);
-        /*
-         * Update the heap size to the size of the array heap.
-         */
-        this.heapSize = this.heap.length;
+        if (this.construction != HeapConstruction.EAGER) {
+            this.mergeBuffer();
+        }
+        this.stats.recordChangeToExtractionMode(start);
 
         assert this.conventionHolds();
     }
@@ -607,21 +2052,46 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
                 .isInInsertionMode() : "Violation of: not this.insertion_mode";
         assert this.size() > 0 : "Violation of: this.contents /= {}";
 
-        /*
-         * The first entry should be at index of 0 in the array.
-         */
-        T first = this.heap[0];
-        /*
-         * Now change the last index of the heap with the first index of the
-         * heap. Update this.heapSize to make it "Junk data".
-         */
-        exchangeEntries(this.heap, 0, this.heapSize - 1);
-        this.heapSize--;
-        /*
-         * Now the first element of the heap might not satisfies the machine
-         * order. Call siftDown to fix this.
-         */
-        siftDown(this.heap, 0, this.heapSize - 1, this.machineOrder);
+        long start = this.stats.start();
+        T first;
+        if (this.sorted) {
+            /*
+             * The first entry is the last one in the array.
+             */
+            this.heapSize--;
+            first = this.heap[this.heapSize];
+            this.heap[this.heapSize] = null;
+        } else {
+            /*
+             * The first entry should be at index of 0 in the array.
+             */
+            first = this.heap[0];
+            /*
+             * Now change the last index of the heap with the first index of
+             * the heap. Update this.heapSize to make it "Junk data".
+             */
+            exchangeEntries(this.heap, 0, this.heapSize - 1);
+            this.stats.recordExchanges(1);
+            this.heapSize--;
+            this.heap[this.heapSize] = null;
+            /*
+             * Now the first element of the heap might not satisfies the
+             * machine order. Call siftDown to fix this.
+             */
+            int hole;
+            if (this.stable) {
+                this.sequence[0] = this.sequence[this.heapSize];
+                hole = siftDown(this.heap, this.sequence, 0,
+                        this.heapSize - 1, this.countedOrder);
+            } else {
+                hole = siftDown(this.heap, 0, this.heapSize - 1,
+                        this.countedOrder);
+            }
+            assert this.siftPathHolds(hole, this.heapSize - 1);
+            this.stats.recordSiftDown(0, hole);
+        }
+        this.shrinkHeap();
+        this.stats.recordRemoveFirst(1, start);
 
         assert this.conventionHolds();
         return first;
@@ -639,69 +2109,303 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
         return this.machineOrder;
     }
 
-    @Override
-    public final int size() {
+    @Override
+    public final int size() {
+
+        /*
+         * Every entry is either in the buffer or in the array heap; see the
+         * correspondence.
+         */
+        int size = this.entries.length() + this.heapSize;
+
+        assert this.conventionHolds();
+
+        return size;
+    }
+
+    @Override
+    public final Iterator<T> iterator() {
+        return new SortingMachine5aIterator();
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for
+     * {@code SortingMachine5a}.
+     */
+    private final class SortingMachine5aIterator implements Iterator<T> {
+
+        /**
+         * Representation iterator over the entries in the buffer, which
+         * are returned first.
+         */
+        private Iterator<T> bufferIterator;
+
+        /**
+         * Representation iterator count over the entries in the array heap,
+         * which are returned after those in the buffer.
+         */
+        private int arrayCurrentIndex;
+
+        /**
+         * No-argument constructor.
+         */
+        private SortingMachine5aIterator() {
+            this.bufferIterator = SortingMachine5a.this.entries.iterator();
+            this.arrayCurrentIndex = 0;
+            assert SortingMachine5a.this.conventionHolds();
+        }
+
+        @Override
+        public boolean hasNext() {
+            boolean hasNext = this.bufferIterator.hasNext()
+                    || this.arrayCurrentIndex < SortingMachine5a.this.heapSize;
+            assert SortingMachine5a.this.conventionHolds();
+            return hasNext;
+        }
+
+        @Override
+        public T next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            T next;
+            if (this.bufferIterator.hasNext()) {
+                next = this.bufferIterator.next();
+            } else {
+                next = SortingMachine5a.this.heap[this.arrayCurrentIndex];
+                this.arrayCurrentIndex++;
+            }
+            assert SortingMachine5a.this.conventionHolds();
+            return next;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+    /**
+     * Returns a spliterator over the entries of {@code this.contents}, in no
+     * particular order, that reports its exact size and splits into halves
+     * of the entries it has left, whether they are in the buffer, in the
+     * heap, or in both, so that {@code StreamSupport.stream(spliterator(),
+     * true)} spreads the work over all the workers.
+     *
+     * @return a spliterator over the entries of {@code this.contents}
+     * @requires [this is not changed while the spliterator is in use]
+     */
+    @Override
+    public final Spliterator<T> spliterator() {
+        return this.entries.spliterator(this.heap, this.heapSize);
+    }
+
+    /*
+     * Mode methods -----------------------------------------------------------
+     */
 
-        int size = 0;
+    /**
+     * Changes {@code this} back to insertion mode, keeping its entries where
+     * they are. Unless the machine uses {@code HeapConstruction.EAGER}, which
+     * keeps sifting new entries up into the heap, the entries added next are
+     * staged apart from the heap, and the next call of
+     * {@code changeToExtractionMode} merges them into it in time linear in
+     * their number, plus O(log(|this.contents|)^2), instead of building the
+     * heap again. Sorted entries are first reversed into increasing order,
+     * which is a heap. A stable machine still removes equal entries in the
+     * order in which they were added, across any number of changes of mode.
+     *
+     * @updates this.insertion_mode
+     * @requires not this.insertion_mode
+     * @ensures this.insertion_mode
+     */
+    @SuppressWarnings("unchecked")
+    public final void changeToInsertionMode() {
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
 
-        if (this.isInInsertionMode()) {
-            /*
-             * If this is in insertion mode, report the length of the entries in
-             * queue.
-             */
-            size = this.entries.length();
-        } else {
+        this.insertionMode = true;
+        if (this.construction != HeapConstruction.EAGER
+                && this.heapSize == 0) {
             /*
-             * If this is in extraction mode, report the array heap length.
+             * Nothing to keep: hand the empty heap over to the buffer, as
+             * createNewRep does, for changeToExtractionMode to take back.
              */
-            size = this.heapSize;
+            if (this.heap.length <= this.retainedCapacity) {
+                this.entries.recycle(this.heap);
+            }
+            this.heap = (T[]) EMPTY;
         }
+        this.unsortHeap();
 
         assert this.conventionHolds();
-
-        return size;
     }
 
-    @Override
-    public final Iterator<T> iterator() {
-        return new SortingMachine5aIterator();
+    /*
+     * Sorted iteration methods -----------------------------------------------
+     */
+
+    /**
+     * Returns an iterator over the entries of {@code this.contents} in the
+     * order in which {@code removeFirst} would remove them, without removing
+     * them or changing the heap: it walks the heap from the root, keeping in
+     * a second, small heap of indices the frontier of the entries not yet
+     * returned whose parents have been, so that returning the first k entries
+     * takes O(k log(k)) time. A machine that is not stable may return equal
+     * entries in a different order than {@code removeFirst} would.
+     *
+     * @return an iterator over the entries of {@code this.contents}, in order
+     * @requires <pre>
+     * not this.insertion_mode  and
+     * [this is not changed while the iterator is in use]
+     * </pre>
+     * @ensures <pre>
+     * [sortedIterator returns the entries of this.contents in increasing
+     *  order, with equal entries in the order in which they were added if
+     *  this is stable]
+     * </pre>
+     */
+    public final Iterator<T> sortedIterator() {
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
+
+        return new SortedIterator();
     }
 
     /**
-     * Implementation of {@code Iterator} interface for
-     * {@code SortingMachine5a}.
+     * Implementation of {@code Iterator} interface returning the entries of
+     * the heap in sorted order.
+     *
+     * @convention <pre>
+     * (if not SortingMachine5a.this.sorted then
+     *    0 <= $this.frontierSize <= |$this.frontier|  and
+     *    [$this.frontier[0, $this.frontierSize) is a heap of indices in
+     *     SortingMachine5a.this.heap, ordered by the entries there, with
+     *     ties broken by SortingMachine5a.this.sequence when the machine is
+     *     stable]  and
+     *    [those indices are the children of the indices of the entries
+     *     already returned that have not been returned yet, and the root
+     *     if no entry has been returned yet])
+     * </pre>
      */
-    private final class SortingMachine5aIterator implements Iterator<T> {
+    private final class SortedIterator implements Iterator<T> {
 
         /**
-         * Representation iterator when in insertion mode.
+         * Initial capacity of the frontier.
          */
-        private Iterator<T> queueIterator;
+        private static final int FRONTIER_CAPACITY = 16;
 
         /**
-         * Representation iterator count when in extraction mode.
+         * Indices in the heap of the next entries that can come next, kept
+         * as a heap themselves.
          */
-        private int arrayCurrentIndex;
+        private int[] frontier;
+
+        /**
+         * Number of indices in the frontier.
+         */
+        private int frontierSize;
+
+        /**
+         * Index of the next entry to return when the heap is sorted in
+         * decreasing order, so that the entries are just read backwards.
+         */
+        private int sortedIndex;
 
         /**
          * No-argument constructor.
          */
-        private SortingMachine5aIterator() {
-            if (SortingMachine5a.this.insertionMode) {
-                this.queueIterator = SortingMachine5a.this.entries.iterator();
-            } else {
-                this.arrayCurrentIndex = 0;
+        private SortedIterator() {
+            this.frontier = new int[FRONTIER_CAPACITY];
+            this.frontierSize = 0;
+            this.sortedIndex = SortingMachine5a.this.heapSize - 1;
+            if (SortingMachine5a.this.heapSize > 0) {
+                this.frontier[0] = 0;
+                this.frontierSize = 1;
             }
             assert SortingMachine5a.this.conventionHolds();
         }
 
+        /**
+         * Reports whether the entry at index {@code i} of the heap comes
+         * before the one at index {@code j}.
+         *
+         * @param i
+         *            one index in the heap
+         * @param j
+         *            the other index in the heap
+         * @return true iff the entry at index i comes before the one at j
+         */
+        private boolean isBefore(int i, int j) {
+            SortingMachine5a<T> m = SortingMachine5a.this;
+            int c = m.countedOrder.compare(m.heap[i], m.heap[j]);
+            return c < 0
+                    || (c == 0 && m.stable && m.sequence[i] < m.sequence[j]);
+        }
+
+        /**
+         * Adds the index {@code i} of the heap to the frontier.
+         *
+         * @param i
+         *            the index to add
+         */
+        private void push(int i) {
+            if (this.frontierSize == this.frontier.length) {
+                this.frontier = Arrays.copyOf(this.frontier,
+                        2 * this.frontier.length);
+            }
+            int hole = this.frontierSize;
+            this.frontierSize++;
+            while (hole > 0
+                    && this.isBefore(i, this.frontier[(hole - 1) / 2])) {
+                this.frontier[hole] = this.frontier[(hole - 1) / 2];
+                hole = (hole - 1) / 2;
+            }
+            this.frontier[hole] = i;
+        }
+
+        /**
+         * Removes the first index from the frontier and returns it.
+         *
+         * @return the index of the first entry in the frontier
+         */
+        private int pop() {
+            int first = this.frontier[0];
+            this.frontierSize--;
+            int i = this.frontier[this.frontierSize];
+            int hole = 0;
+            int child = 1;
+            while (child < this.frontierSize) {
+                if (child + 1 < this.frontierSize && this.isBefore(
+                        this.frontier[child + 1], this.frontier[child])) {
+                    child++;
+                }
+                if (!this.isBefore(this.frontier[child], i)) {
+                    break;
+                }
+                this.frontier[hole] = this.frontier[child];
+                hole = child;
+                child = 2 * hole + 1;
+            }
+            this.frontier[hole] = i;
+            return first;
+        }
+
         @Override
         public boolean hasNext() {
             boolean hasNext;
-            if (SortingMachine5a.this.insertionMode) {
-                hasNext = this.queueIterator.hasNext();
+            if (SortingMachine5a.this.sorted) {
+                hasNext = this.sortedIndex >= 0;
             } else {
-                hasNext = this.arrayCurrentIndex < SortingMachine5a.this.heapSize;
+                hasNext = this.frontierSize > 0;
             }
             assert SortingMachine5a.this.conventionHolds();
             return hasNext;
@@ -719,11 +2423,23 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
                 throw new NoSuchElementException();
             }
             T next;
-            if (SortingMachine5a.this.insertionMode) {
-                next = this.queueIterator.next();
+            if (SortingMachine5a.this.sorted) {
+                next = SortingMachine5a.this.heap[this.sortedIndex];
+                this.sortedIndex--;
             } else {
-                next = SortingMachine5a.this.heap[this.arrayCurrentIndex];
-                this.arrayCurrentIndex++;
+                /*
+                 * The children of the entry returned are the only entries
+                 * that can now come next, besides those in the frontier.
+                 */
+                int i = this.pop();
+                next = SortingMachine5a.this.heap[i];
+                int last = SortingMachine5a.this.heapSize - 1;
+                if (2 * i + 1 <= last) {
+                    this.push(2 * i + 1);
+                    if (2 * i + 2 <= last) {
+                        this.push(2 * i + 2);
+                    }
+                }
             }
             assert SortingMachine5a.this.conventionHolds();
             return next;
@@ -737,4 +2453,469 @@ public class SortingMachine5a<T> extends SortingMachineSecondary<T> {
 
     }
 
+    /**
+     * Returns a sequential stream of the entries of {@code this.contents} in
+     * the order in which {@code removeFirst} would remove them, backed by
+     * {@code sortedIterator}, so that it is lazy and leaves {@code this}
+     * unchanged: {@code sortedStream().limit(k)} only walks the first k
+     * entries. When made parallel, it hands its entries to the workers in
+     * batches, in order.
+     *
+     * @return a stream of the entries of {@code this.contents}, in order
+     * @requires <pre>
+     * not this.insertion_mode  and
+     * [this is not changed while the stream is in use]
+     * </pre>
+     * @ensures <pre>
+     * [sortedStream has the entries of this.contents in increasing order,
+     *  with equal entries in the order in which they were added if this is
+     *  stable]
+     * </pre>
+     */
+    public final Stream<T> sortedStream() {
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
+
+        return StreamSupport.stream(
+                Spliterators.spliterator(this.sortedIterator(), this.size(),
+                        Spliterator.ORDERED | Spliterator.NONNULL),
+                false);
+    }
+
+    /*
+     * Bulk methods -----------------------------------------------------------
+     */
+
+    /**
+     * Adds all the entries of {@code array} to {@code this.contents}. This is
+     * equivalent to calling {@code add} on each entry, but the contract and
+     * the convention are checked once and the entries are moved with bulk
+     * copies.
+     *
+     * @param array
+     *            the entries to be added
+     * @aliases references array[0, |array|)
+     * @updates this.contents
+     * @requires <pre>
+     * [the entries in array are not null]  and
+     * this.insertion_mode
+     * </pre>
+     * @ensures this.contents = #this.contents union elements(array)
+     */
+    public final void addAll(T[] array) {
+        assert array != null : "Violation of: array is not null";
+        for (int i = 0; i < array.length; i++) {
+            assert array[i] != null : ""
+                    + "Violation of: the entries in array are not null";
+        }
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        this.addEntries(array, 0, array.length);
+
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Adds the entries {@code array[0, length)} to {@code this.contents},
+     * taking {@code array} over: when nothing is staged yet, the array itself
+     * becomes the staging buffer, so that {@code changeToExtractionMode}
+     * builds the heap in it without copying any entry. The caller must not
+     * use {@code array} afterwards.
+     *
+     * @param array
+     *            the entries to be added, and the array to take over
+     * @param length
+     *            the number of entries in array
+     * @updates this.contents
+     * @requires <pre>
+     * 0 <= length <= |array|  and
+     * [the entries in array[0, length) are not null]  and
+     * [the entries in array[length, |array|) are null]  and
+     * this.insertion_mode
+     * </pre>
+     * @ensures this.contents = #this.contents union elements(array[0, length))
+     */
+    final void adoptAll(T[] array, int length) {
+        assert array != null : "Violation of: array is not null";
+        assert 0 <= length && length <= array.length : ""
+                + "Violation of: 0 <= length <= |array|";
+        for (int i = 0; i < array.length; i++) {
+            assert (array[i] != null) == (i < length) : ""
+                    + "Violation of: the entries in array[0, length) are not"
+                    + " null, and the others are null";
+        }
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        if (this.construction != HeapConstruction.EAGER
+                && this.entries.length() == 0) {
+            this.stats.recordAdded(length);
+            this.entries.adopt(array, length);
+        } else {
+            this.addEntries(array, 0, length);
+        }
+
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Adds all the entries of {@code source} to {@code this.contents}. This is
+     * equivalent to calling {@code add} on each entry, but the contract and
+     * the convention are checked once; when {@code source} is a
+     * {@code Collection}, its entries are moved with bulk copies.
+     *
+     * @param source
+     *            the entries to be added
+     * @aliases references entries(source)
+     * @updates this.contents
+     * @requires <pre>
+     * [the entries of source are not null]  and
+     * this.insertion_mode
+     * </pre>
+     * @ensures this.contents = #this.contents union entries(source)
+     */
+    @SuppressWarnings("unchecked")
+    public final void addAll(Iterable<? extends T> source) {
+        assert source != null : "Violation of: source is not null";
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        if (source instanceof Collection<?>) {
+            /*
+             * The array is only read, so it does not matter that its dynamic
+             * type is Object[] and not T[].
+             */
+            T[] array = (T[]) ((Collection<? extends T>) source).toArray();
+            for (int i = 0; i < array.length; i++) {
+                assert array[i] != null : ""
+                        + "Violation of: the entries of source are not null";
+            }
+            this.addEntries(array, 0, array.length);
+        } else {
+            for (T x : source) {
+                assert x != null : ""
+                        + "Violation of: the entries of source are not null";
+                this.addEntry(x);
+            }
+        }
+
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Adds all the remaining entries of {@code source} to
+     * {@code this.contents}, consuming {@code source}. This is equivalent to
+     * calling {@code add} on each entry, but the contract and the convention
+     * are checked once, and, when the exact number of entries is known in
+     * advance, room for all of them is reserved at once.
+     *
+     * @param source
+     *            the entries to be added
+     * @aliases references [remaining entries of source]
+     * @updates this.contents, source
+     * @requires <pre>
+     * [the remaining entries of source are not null]  and
+     * this.insertion_mode
+     * </pre>
+     * @ensures <pre>
+     * this.contents = #this.contents union [remaining entries of #source]  and
+     * [source has no remaining entries]
+     * </pre>
+     */
+    public final void addAll(Spliterator<? extends T> source) {
+        assert source != null : "Violation of: source is not null";
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        long n = source.getExactSizeIfKnown();
+        if (n > 0 && n < Integer.MAX_VALUE) {
+            if (this.construction == HeapConstruction.EAGER) {
+                int newSize = (int) Math.min(this.heapSize + n,
+                        Integer.MAX_VALUE);
+                if (newSize > this.heap.length) {
+                    this.resizeHeap(newSize);
+                }
+            } else {
+                this.entries.reserve((int) n);
+            }
+        }
+        source.forEachRemaining(x -> {
+            assert x != null : "Violation of: the remaining entries"
+                    + " of source are not null";
+            this.addEntry(x);
+        });
+
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Moves all the entries of {@code source} to {@code this}, leaving
+     * {@code source} empty and in insertion mode, as {@code transferFrom}
+     * does. In insertion mode, the entries of {@code source} are just staged
+     * with those of {@code this}; otherwise, they are appended to the heap of
+     * {@code this}, and only their ancestors are sifted down. Either way, this
+     * takes time linear in {@code |source.contents|} (plus
+     * O(log(|this.contents|)^2)), instead of O(n log(n)) for removing the
+     * entries of {@code source} one at a time and adding them to
+     * {@code this}. A stable machine orders the entries of {@code source}
+     * after its own, as if they had been added last, in the order in which
+     * they were added to {@code source} if it is stable too.
+     *
+     * @param source
+     *            the machine whose entries are moved
+     * @updates this.contents
+     * @clears source
+     * @requires <pre>
+     * source /= this  and
+     * [source is of dynamic type SortingMachine5a<?>]  and
+     * [the relations computed by source.order.compare and this.order.compare
+     *  are the same]
+     * </pre>
+     * @ensures this.contents = #this.contents union #source.contents
+     */
+    public final void meld(SortingMachine<T> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof SortingMachine5a<?> : ""
+                + "Violation of: source is of dynamic type SortingMachine5a<?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case: source must be of dynamic type
+         * SortingMachine5a<?>, and the ? must be T or the call would not have
+         * compiled. Impractical to check that the orders are the same.
+         */
+        SortingMachine5a<T> localSource = (SortingMachine5a<T>) source;
+        int h = localSource.heapSize;
+        int b = localSource.entries.length();
+        this.stats.recordAdded(h + b);
+        if (this.insertionMode && this.construction != HeapConstruction.EAGER
+                && (!this.stable || !localSource.stable || h == 0)) {
+            /*
+             * Stage the entries of source with those of this. When both are
+             * stable, the buffer keeps the entries in insertion order, so
+             * this can only take a source whose entries are all staged.
+             */
+            this.entries.addAll(localSource.heap, 0, h);
+            this.entries.addAll(localSource.entries.drainToArray(), 0, b);
+        } else if (h + b > 0) {
+            /*
+             * Move the entries staged by this into its heap, which must not
+             * be sorted, then append all the entries of source to it.
+             */
+            if (this.entries.length() > 0) {
+                this.mergeBuffer();
+            }
+            this.unsortHeap();
+            int first = this.heapSize;
+            int last = first + h + b - 1;
+            if (this.stable) {
+                /*
+                 * Number the entries of source after those of this. Those of
+                 * a stable source keep the relative order of their sequence
+                 * numbers (the entries of a sorted heap are in the reverse of
+                 * the order in which they were added, and staged entries come
+                 * after the heap).
+                 */
+                boolean numbered = localSource.stable && !localSource.sorted
+                        && h > 0;
+                if (numbered && localSource.nextSequence > Integer.MAX_VALUE
+                        - first - b) {
+                    localSource.renumberSequence();
+                }
+                int span = b + h;
+                if (numbered) {
+                    span = b + localSource.nextSequence;
+                }
+                this.reserveSequence(span);
+                if (last >= this.heap.length) {
+                    this.resizeHeap(Math.max(last + 1, 2 * this.heap.length));
+                }
+                for (int i = 0; i < h; i++) {
+                    int rank = i;
+                    if (numbered) {
+                        rank = localSource.sequence[i];
+                    } else if (localSource.stable && localSource.sorted) {
+                        rank = h - 1 - i;
+                    }
+                    this.sequence[first + i] = this.nextSequence + rank;
+                }
+                for (int j = 0; j < b; j++) {
+                    this.sequence[first + h + j] = this.nextSequence + span
+                            - b + j;
+                }
+                this.nextSequence += span;
+            } else if (last >= this.heap.length) {
+                this.resizeHeap(Math.max(last + 1, 2 * this.heap.length));
+            }
+            System.arraycopy(localSource.heap, 0, this.heap, first, h);
+            localSource.entries.copyTo(this.heap, first + h);
+            this.heapSize = last + 1;
+            if (this.stable) {
+                heapifyAppended(this.heap, this.sequence, first, last,
+                        this.countedOrder);
+            } else {
+                heapifyAppended(this.heap, first, last, this.countedOrder);
+            }
+        }
+        localSource.createNewRep(localSource.machineOrder);
+
+        assert this.conventionHolds();
+        assert localSource.conventionHolds();
+    }
+
+    /**
+     * Removes the {@code n} smallest entries of {@code this.contents} and
+     * stores them in {@code array[0, n)} in increasing order, as {@code n}
+     * calls to {@code removeFirst} would, except that equal entries may come
+     * out in a different order unless the machine is stable. When {@code n}
+     * is at least half of {@code |this.contents|}, all the entries of a
+     * machine that is not stable are sorted at once instead, by
+     * {@code Arrays.sort}, which may take temporary space proportional to
+     * {@code |this.contents|}.
+     *
+     * @param n
+     *            the number of entries to remove
+     * @param array
+     *            the array receiving the entries removed
+     * @updates this.contents, array
+     * @requires <pre>
+     * not this.insertion_mode  and
+     * 0 <= n <= |this.contents|  and  n <= |array|
+     * </pre>
+     * @ensures <pre>
+     * [array[0, n) are the n smallest entries of #this.contents, in
+     *  increasing order]  and
+     * this.contents = #this.contents \ elements(array[0, n))  and
+     * [the other entries in array are the same as in #array]
+     * </pre>
+     */
+    public final void removeFirst(int n, T[] array) {
+        assert array != null : "Violation of: array is not null";
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
+        assert 0 <= n : "Violation of: 0 <= n";
+        assert n <= this.size() : "Violation of: n <= |this.contents|";
+        assert n <= array.length : "Violation of: n <= |array|";
+
+        long start = this.stats.start();
+        int drain = this.drain(n);
+        System.arraycopy(this.heap, drain, array, 0, n);
+        Arrays.fill(this.heap, drain, drain + n, null);
+        this.shrinkHeap();
+        this.stats.recordRemoveFirst(n, start);
+
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Removes the {@code n} smallest entries of {@code this.contents} and
+     * passes them to {@code action} in increasing order, as {@code n} calls
+     * to {@code removeFirst} would, except that equal entries may come out in
+     * a different order unless the machine is stable. When {@code n} is at
+     * least half of {@code |this.contents|}, all the entries of a machine
+     * that is not stable are sorted at once instead, by {@code Arrays.sort},
+     * which may take temporary space proportional to
+     * {@code |this.contents|}. The entries removed are copied out before
+     * {@code action} sees any of them, so {@code action} may call
+     * {@code this}.
+     *
+     * @param n
+     *            the number of entries to remove
+     * @param action
+     *            the action to perform on each entry removed
+     * @updates this.contents
+     * @requires <pre>
+     * not this.insertion_mode  and
+     * 0 <= n <= |this.contents|  and
+     * [action does not change this, except by removing entries]
+     * </pre>
+     * @ensures <pre>
+     * [action has been applied to the n smallest entries of #this.contents,
+     *  in increasing order]  and
+     * [this.contents = #this.contents without those entries]
+     * </pre>
+     */
+    public final void removeFirst(int n, Consumer<? super T> action) {
+        assert action != null : "Violation of: action is not null";
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
+        assert 0 <= n : "Violation of: 0 <= n";
+        assert n <= this.size() : "Violation of: n <= |this.contents|";
+
+        long start = this.stats.start();
+        int drain = this.drain(n);
+        /*
+         * Copy the entries removed out of $this.heap, so that the convention
+         * holds again before action runs and may call this.
+         */
+        T[] removed = Arrays.copyOfRange(this.heap, drain, drain + n);
+        Arrays.fill(this.heap, drain, drain + n, null);
+        this.shrinkHeap();
+        this.stats.recordRemoveFirst(n, start);
+        for (T x : removed) {
+            action.accept(x);
+        }
+
+        assert this.conventionHolds();
+    }
+
+    /*
+     * Instrumentation methods ------------------------------------------------
+     */
+
+    /**
+     * Makes {@code this} record its operation counts and times in
+     * {@code stats}, or stop recording them if {@code stats} is
+     * {@code SortingMachineStats.DISABLED}. The recorder is not part of the
+     * value of {@code this}: {@code clear} and {@code transferFrom} keep it,
+     * and {@code newInstance} does not copy it.
+     *
+     * @param stats
+     *            the recorder
+     * @replaces this.stats
+     * @ensures this.stats = stats
+     */
+    public final void setStats(SortingMachineStats stats) {
+        assert stats != null : "Violation of: stats is not null";
+
+        this.stats = stats;
+        this.countedOrder = stats.counting(this.machineOrder);
+
+        assert this.conventionHolds();
+    }
+
+    /**
+     * Reports the recorder of the operation counts and times of {@code this}.
+     *
+     * @return the recorder
+     * @ensures stats = this.stats
+     */
+    public final SortingMachineStats stats() {
+        assert this.conventionHolds();
+        return this.stats;
+    }
+
+    /*
+     * Memory methods ---------------------------------------------------------
+     */
+
+    /**
+     * Sets the largest heap capacity that {@code this} keeps, emptied, across
+     * {@code clear} and {@code transferFrom} to hold its next entries without
+     * allocating, and below which it never shrinks its heap. A larger heap is
+     * halved whenever no more than a quarter of it is in use. The retained
+     * capacity is not part of the value of {@code this}: {@code clear} and
+     * {@code transferFrom} keep it, and {@code newInstance} does not copy it;
+     * it is {@code DEFAULT_RETAINED_CAPACITY} initially.
+     *
+     * @param capacity
+     *            the retained capacity
+     * @requires capacity >= 0
+     */
+    public final void retainCapacity(int capacity) {
+        assert capacity >= 0 : "Violation of: capacity >= 0";
+
+        this.retainedCapacity = capacity;
+        this.shrinkHeap();
+
+        assert this.conventionHolds();
+    }
+
 }
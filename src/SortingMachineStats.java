@@ -0,0 +1,307 @@
+import java.lang.management.ManagementFactory;
+import java.util.Comparator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Operation counts and times of the {@code SortingMachine5a} objects it is
+ * given to, exported over JMX once {@code register}ed.
+ *
+ * <p>
+ * One {@code SortingMachineStats} can be shared by many machines, even in
+ * different threads: the counts are kept in {@code LongAdder}s. Machines that
+ * are not instrumented use {@code DISABLED}, whose methods do nothing and
+ * whose {@code counting} comparator is the order itself, so once the JIT has
+ * inlined them the operations cost exactly what they did without
+ * instrumentation; in particular, {@code start} does not read the clock.
+ */
+public class SortingMachineStats implements SortingMachineStatsMXBean {
+
+    /**
+     * Recorder that records nothing.
+     */
+    public static final SortingMachineStats DISABLED = new Disabled();
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Number of comparisons.
+     */
+    private final LongAdder comparisons = new LongAdder();
+
+    /**
+     * Number of exchanges.
+     */
+    private final LongAdder exchanges = new LongAdder();
+
+    /**
+     * Number of sifts down.
+     */
+    private final LongAdder siftDowns = new LongAdder();
+
+    /**
+     * Total depth of the sifts down.
+     */
+    private final LongAdder siftDownLevels = new LongAdder();
+
+    /**
+     * Number of entries added.
+     */
+    private final LongAdder entriesAdded = new LongAdder();
+
+    /**
+     * Number of entries removed.
+     */
+    private final LongAdder entriesRemoved = new LongAdder();
+
+    /**
+     * Number of calls of changeToExtractionMode.
+     */
+    private final LongAdder extractionModeChanges = new LongAdder();
+
+    /**
+     * Time spent in changeToExtractionMode, in nanoseconds.
+     */
+    private final LongAdder extractionModeChangeNanos = new LongAdder();
+
+    /**
+     * Number of calls of removeFirst.
+     */
+    private final LongAdder removals = new LongAdder();
+
+    /**
+     * Time spent in removeFirst, in nanoseconds.
+     */
+    private final LongAdder removalNanos = new LongAdder();
+
+    /**
+     * Recorder that records nothing, without reading the clock.
+     */
+    private static final class Disabled extends SortingMachineStats {
+
+        @Override
+        public <T> Comparator<T> counting(Comparator<T> order) {
+            return order;
+        }
+
+        @Override
+        public long start() {
+            return 0;
+        }
+
+        @Override
+        public void recordExchanges(int n) {
+        }
+
+        @Override
+        public void recordSiftDown(int top, int hole) {
+        }
+
+        @Override
+        public void recordAdded(int n) {
+        }
+
+        @Override
+        public void recordChangeToExtractionMode(long start) {
+        }
+
+        @Override
+        public void recordRemoveFirst(int n, long start) {
+        }
+
+    }
+
+    /*
+     * Recording methods ------------------------------------------------------
+     */
+
+    /**
+     * Returns a comparator that computes the same relation as {@code order}
+     * and counts its calls.
+     *
+     * @param <T>
+     *            type of entries
+     * @param order
+     *            the order whose calls are to be counted
+     * @return the counting comparator
+     */
+    public <T> Comparator<T> counting(Comparator<T> order) {
+        assert order != null : "Violation of: order is not null";
+        return (x, y) -> {
+            this.comparisons.increment();
+            return order.compare(x, y);
+        };
+    }
+
+    /**
+     * Returns the start time of an operation, to be passed back to one of the
+     * methods recording its time.
+     *
+     * @return the current time, in nanoseconds
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records {@code n} calls of {@code exchangeEntries}.
+     *
+     * @param n
+     *            the number of exchanges
+     */
+    public void recordExchanges(int n) {
+        this.exchanges.add(n);
+    }
+
+    /**
+     * Records a sift down from index {@code top} to index {@code hole} of a
+     * heap.
+     *
+     * @param top
+     *            the index of the entry sifted down
+     * @param hole
+     *            the index where it ended
+     * @requires 0 <= top <= hole
+     */
+    public void recordSiftDown(int top, int hole) {
+        this.siftDowns.increment();
+        this.siftDownLevels.add(Integer.numberOfLeadingZeros(top + 1)
+                - Integer.numberOfLeadingZeros(hole + 1));
+    }
+
+    /**
+     * Records the addition of {@code n} entries.
+     *
+     * @param n
+     *            the number of entries added
+     */
+    public void recordAdded(int n) {
+        this.entriesAdded.add(n);
+    }
+
+    /**
+     * Records a call of {@code changeToExtractionMode}.
+     *
+     * @param start
+     *            the value of {@code start} when it began
+     */
+    public void recordChangeToExtractionMode(long start) {
+        this.extractionModeChanges.increment();
+        this.extractionModeChangeNanos.add(System.nanoTime() - start);
+    }
+
+    /**
+     * Records a call of {@code removeFirst} that removed {@code n} entries.
+     *
+     * @param n
+     *            the number of entries removed
+     * @param start
+     *            the value of {@code start} when it began
+     */
+    public void recordRemoveFirst(int n, long start) {
+        this.removals.increment();
+        this.removalNanos.add(System.nanoTime() - start);
+        this.entriesRemoved.add(n);
+    }
+
+    /*
+     * JMX methods ------------------------------------------------------------
+     */
+
+    /**
+     * Registers {@code this} with the platform MBean server under the name
+     * {@code SortingMachine:type=SortingMachineStats,name=}{@code name}.
+     *
+     * @param name
+     *            the value of the name key of the object name
+     * @return the object name
+     * @requires <pre>
+     * this is not DISABLED  and
+     * [no MBean is registered under that object name]
+     * </pre>
+     */
+    public final ObjectName register(String name) {
+        assert name != null : "Violation of: name is not null";
+        assert this != DISABLED : "Violation of: this is not DISABLED";
+        try {
+            ObjectName objectName = new ObjectName(
+                    "SortingMachine:type=SortingMachineStats,name="
+                            + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException(
+                    "Cannot register SortingMachineStats " + name, e);
+        }
+    }
+
+    @Override
+    public final long getComparisons() {
+        return this.comparisons.sum();
+    }
+
+    @Override
+    public final long getExchanges() {
+        return this.exchanges.sum();
+    }
+
+    @Override
+    public final long getSiftDowns() {
+        return this.siftDowns.sum();
+    }
+
+    @Override
+    public final long getSiftDownLevels() {
+        return this.siftDownLevels.sum();
+    }
+
+    @Override
+    public final long getEntriesAdded() {
+        return this.entriesAdded.sum();
+    }
+
+    @Override
+    public final long getEntriesRemoved() {
+        return this.entriesRemoved.sum();
+    }
+
+    @Override
+    public final long getChangeToExtractionModeCount() {
+        return this.extractionModeChanges.sum();
+    }
+
+    @Override
+    public final long getChangeToExtractionModeNanos() {
+        return this.extractionModeChangeNanos.sum();
+    }
+
+    @Override
+    public final long getRemoveFirstCount() {
+        return this.removals.sum();
+    }
+
+    @Override
+    public final long getRemoveFirstNanos() {
+        return this.removalNanos.sum();
+    }
+
+    @Override
+    public final void reset() {
+        this.comparisons.reset();
+        this.exchanges.reset();
+        this.siftDowns.reset();
+        this.siftDownLevels.reset();
+        this.entriesAdded.reset();
+        this.entriesRemoved.reset();
+        this.extractionModeChanges.reset();
+        this.extractionModeChangeNanos.reset();
+        this.removals.reset();
+        this.removalNanos.reset();
+    }
+
+}
@@ -0,0 +1,87 @@
+/**
+ * Management interface of {@code SortingMachineStats}, through which the
+ * operation counts and times of the instrumented {@code SortingMachine5a}
+ * objects are exported over JMX.
+ */
+public interface SortingMachineStatsMXBean {
+
+    /**
+     * Reports the number of calls of the comparator made by the operations
+     * of the machines (checks of the convention are not counted).
+     *
+     * @return the number of comparisons
+     */
+    long getComparisons();
+
+    /**
+     * Reports the number of calls of {@code exchangeEntries} made by
+     * {@code removeFirst}.
+     *
+     * @return the number of exchanges
+     */
+    long getExchanges();
+
+    /**
+     * Reports the number of entries sifted down by {@code removeFirst}.
+     *
+     * @return the number of sifts
+     */
+    long getSiftDowns();
+
+    /**
+     * Reports the total number of levels by which the entries counted by
+     * {@code getSiftDowns} have moved down the heap.
+     *
+     * @return the total depth of the sifts
+     */
+    long getSiftDownLevels();
+
+    /**
+     * Reports the number of entries added to the machines.
+     *
+     * @return the number of entries added
+     */
+    long getEntriesAdded();
+
+    /**
+     * Reports the number of entries removed from the machines.
+     *
+     * @return the number of entries removed
+     */
+    long getEntriesRemoved();
+
+    /**
+     * Reports the number of calls of {@code changeToExtractionMode}.
+     *
+     * @return the number of calls
+     */
+    long getChangeToExtractionModeCount();
+
+    /**
+     * Reports the total time spent in {@code changeToExtractionMode}.
+     *
+     * @return the total time, in nanoseconds
+     */
+    long getChangeToExtractionModeNanos();
+
+    /**
+     * Reports the number of calls of {@code removeFirst}, including those
+     * removing several entries at once.
+     *
+     * @return the number of calls
+     */
+    long getRemoveFirstCount();
+
+    /**
+     * Reports the total time spent in {@code removeFirst}.
+     *
+     * @return the total time, in nanoseconds
+     */
+    long getRemoveFirstNanos();
+
+    /**
+     * Resets all the counts and times to zero.
+     */
+    void reset();
+
+}
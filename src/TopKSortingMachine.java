@@ -0,0 +1,542 @@
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachineSecondary;
+
+/**
+ * {@code SortingMachine} that only ever holds the first {@code k} entries
+ * added, according to its order, represented as a single array of at most
+ * {@code k} entries.
+ *
+ * <p>
+ * In insertion mode the array is an inverted heap (largest entry at the root)
+ * of the best {@code k} entries seen so far. Once {@code k} entries are held,
+ * {@code add} compares the new entry with the root just once and drops it
+ * unless it is smaller; otherwise it replaces the root. Memory is therefore
+ * O(k) no matter how many entries are added, and {@code changeToExtractionMode}
+ * costs O(k log k): it heap sorts the array in place, after which
+ * {@code removeFirst} just advances a cursor.
+ *
+ * <p>
+ * Unlike the other implementations, the contents of this machine are not all
+ * the entries added: after {@code add(x)} in a machine that already holds
+ * {@code k} entries, the contents are the {@code k} smallest entries of
+ * {@code #this.contents union {x}} (keeping the older entries among equal
+ * ones). Ties are broken by insertion order throughout, so entries that are
+ * equal according to the order come out of {@code removeFirst} in the order
+ * they were added.
+ *
+ * @param <T>
+ *            type of {@code SortingMachine} entries
+ * @convention <pre>
+ * IS_TOTAL_PREORDER([relation computed by $this.machineOrder.compare method]  and
+ * 1 <= $this.k  and
+ * 0 <= $this.first <= $this.size <= $this.k  and
+ * $this.size <= |$this.entries| = |$this.sequence|  and
+ * [the entries of $this.entries[$this.first, $this.size) are not null]  and
+ * [the entries of $this.sequence[0, $this.size) are distinct and less than
+ *  $this.nextSequence]  and
+ * if $this.insertionMode then
+ *   $this.first = 0  and
+ *   [$this.entries[0, $this.size) is a heap according to the reverse of
+ *    the relation computed by $this.machineOrder.compare method, with ties
+ *    broken by $this.sequence]
+ * else
+ *   [$this.entries[$this.first, $this.size) is sorted according to the
+ *    relation computed by $this.machineOrder.compare method, with ties
+ *    broken by $this.sequence]
+ * </pre>
+ * @correspondence <pre>
+ * this = ($this.insertionMode, $this.machineOrder,
+ *         multiset_entries($this.entries[$this.first, $this.size)))
+ * </pre>
+ */
+public class TopKSortingMachine<T> extends SortingMachineSecondary<T> {
+
+    /*
+     * Private members --------------------------------------------------------
+     */
+
+    /**
+     * Largest initial capacity of the array.
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Order.
+     */
+    private Comparator<T> machineOrder;
+
+    /**
+     * Maximum number of entries kept.
+     */
+    private int k;
+
+    /**
+     * Insertion mode.
+     */
+    private boolean insertionMode;
+
+    /**
+     * Entries: an inverted heap in insertion mode, sorted in extraction mode.
+     */
+    private T[] entries;
+
+    /**
+     * Insertion sequence numbers of the entries, moved in lockstep with them;
+     * used to break ties between equal entries in favor of the older one.
+     */
+    private long[] sequence;
+
+    /**
+     * Sequence number of the next entry added.
+     */
+    private long nextSequence;
+
+    /**
+     * Index of the next entry to remove in extraction mode.
+     */
+    private int first;
+
+    /**
+     * Number of entries in use in {@code entries}.
+     */
+    private int size;
+
+    /**
+     * Reports whether entry {@code x}, added as number {@code xSequence},
+     * comes after entry {@code y}, added as number {@code ySequence}: either
+     * {@code x} is greater than {@code y}, or they are equal and {@code x} was
+     * added later.
+     *
+     * @param <T>
+     *            type of entries
+     * @param x
+     *            one entry
+     * @param xSequence
+     *            insertion sequence number of {@code x}
+     * @param y
+     *            the other entry
+     * @param ySequence
+     *            insertion sequence number of {@code y}
+     * @param order
+     *            total preorder for sorting
+     * @return true iff {@code x} comes after {@code y}
+     */
+    private static <T> boolean isAfter(T x, long xSequence, T y,
+            long ySequence, Comparator<T> order) {
+        int c = order.compare(x, y);
+        return c > 0 || (c == 0 && xSequence > ySequence);
+    }
+
+    /**
+     * Sifts the entry at index {@code top} down through an inverted heap,
+     * whose root is the entry that would be evicted first, moving its
+     * sequence number in lockstep: of two equal entries, the one added later
+     * sits higher, so it is evicted before the other one.
+     *
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the complete binary tree
+     * @param sequence
+     *            the insertion sequence numbers of the entries in array
+     * @param top
+     *            the index of the root of the "subtree"
+     * @param last
+     *            the index of the last entry in the heap
+     * @param order
+     *            total preorder for sorting
+     * @updates array, sequence
+     * @requires <pre>
+     * 0 <= top  and  last < |array| = |sequence|  and
+     * [both subtrees of the entry at index top are inverted heaps]
+     * </pre>
+     * @ensures <pre>
+     * [the subtree rooted at top, through last, is an inverted heap]  and
+     * [array and sequence are permuted in the same way]
+     * </pre>
+     */
+    private static <T> void siftDown(T[] array, long[] sequence, int top,
+            int last, Comparator<T> order) {
+        T root = array[top];
+        long rootSequence = sequence[top];
+        int hole = top;
+        int child = 2 * hole + 1;
+        while (child < last) {
+            if (isAfter(array[child + 1], sequence[child + 1], array[child],
+                    sequence[child], order)) {
+                child++;
+            }
+            array[hole] = array[child];
+            sequence[hole] = sequence[child];
+            hole = child;
+            child = 2 * hole + 1;
+        }
+        if (child == last) {
+            array[hole] = array[child];
+            sequence[hole] = sequence[child];
+            hole = child;
+        }
+        while (hole > top) {
+            int parent = (hole - 1) / 2;
+            if (isAfter(array[parent], sequence[parent], root, rootSequence,
+                    order)) {
+                break;
+            }
+            array[hole] = array[parent];
+            sequence[hole] = sequence[parent];
+            hole = parent;
+        }
+        array[hole] = root;
+        sequence[hole] = rootSequence;
+    }
+
+    /**
+     * Sifts the entry at index {@code bottom} up through an inverted heap,
+     * moving its sequence number in lockstep.
+     *
+     * @param <T>
+     *            type of array entries
+     * @param array
+     *            the complete binary tree
+     * @param sequence
+     *            the insertion sequence numbers of the entries in array
+     * @param bottom
+     *            the index of the entry to sift up
+     * @param order
+     *            total preorder for sorting
+     * @updates array, sequence
+     * @requires <pre>
+     * 0 <= bottom < |array| = |sequence|  and
+     * [array[0, bottom] is an inverted heap except for the entry at bottom]
+     * </pre>
+     * @ensures <pre>
+     * [array[0, bottom] is an inverted heap]  and
+     * [array and sequence are permuted in the same way]
+     * </pre>
+     */
+    private static <T> void siftUp(T[] array, long[] sequence, int bottom,
+            Comparator<T> order) {
+        T entry = array[bottom];
+        long entrySequence = sequence[bottom];
+        int hole = bottom;
+        while (hole > 0) {
+            int parent = (hole - 1) / 2;
+            if (isAfter(array[parent], sequence[parent], entry, entrySequence,
+                    order)) {
+                break;
+            }
+            array[hole] = array[parent];
+            sequence[hole] = sequence[parent];
+            hole = parent;
+        }
+        array[hole] = entry;
+        sequence[hole] = entrySequence;
+    }
+
+    /**
+     * Checks that the part of the convention repeated below holds for the
+     * current representation.
+     *
+     * @return true if the convention holds (or if assertion checking is off);
+     *         otherwise reports a violated assertion
+     * @convention <pre>
+     * 1 <= $this.k  and
+     * 0 <= $this.first <= $this.size <= $this.k  and
+     * $this.size <= |$this.entries| = |$this.sequence|  and
+     * [the entries of $this.entries[$this.first, $this.size) are not null]  and
+     * if $this.insertionMode then
+     *   $this.first = 0  and
+     *   [$this.entries[0, $this.size) is an inverted heap]
+     * else
+     *   [$this.entries[$this.first, $this.size) is sorted]
+     * </pre>
+     */
+    private boolean conventionHolds() {
+        assert 1 <= this.k : "Violation of: 1 <= $this.k";
+        assert 0 <= this.first && this.first <= this.size
+                && this.size <= this.k : ""
+                        + "Violation of: 0 <= $this.first <= $this.size <= $this.k";
+        assert this.size <= this.entries.length : ""
+                + "Violation of: $this.size <= |$this.entries|";
+        assert this.entries.length == this.sequence.length : ""
+                + "Violation of: |$this.entries| = |$this.sequence|";
+        for (int i = this.first; i < this.size; i++) {
+            assert this.entries[i] != null : ""
+                    + "Violation of: all entries in $this.entries are not null";
+        }
+        if (this.insertionMode) {
+            assert this.first == 0 : ""
+                    + "Violation of: if $this.insertionMode then $this.first = 0";
+            for (int i = 1; i < this.size; i++) {
+                assert this.machineOrder.compare(this.entries[(i - 1) / 2],
+                        this.entries[i]) >= 0 : ""
+                                + "Violation of: if $this.insertionMode then"
+                                + " [$this.entries is an inverted heap]";
+            }
+        } else {
+            for (int i = this.first + 1; i < this.size; i++) {
+                assert this.machineOrder.compare(this.entries[i - 1],
+                        this.entries[i]) <= 0 : ""
+                                + "Violation of: if not $this.insertionMode then"
+                                + " [$this.entries is sorted]";
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creator of initial representation.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @requires IS_TOTAL_PREORDER([relation computed by order.compare method]
+     * @ensures <pre>
+     * $this.insertionMode = true  and
+     * $this.machineOrder = order  and
+     * $this.nextSequence = 0  and
+     * $this.first = 0  and
+     * $this.size = 0
+     * </pre>
+     */
+    @SuppressWarnings("unchecked")
+    private void createNewRep(Comparator<T> order) {
+
+        this.insertionMode = true;
+        this.machineOrder = order;
+        int capacity = Math.min(this.k, INITIAL_CAPACITY);
+        this.entries = (T[]) (new Object[capacity]);
+        this.sequence = new long[capacity];
+        this.nextSequence = 0;
+        this.first = 0;
+        this.size = 0;
+
+    }
+
+    /*
+     * Constructors -----------------------------------------------------------
+     */
+
+    /**
+     * Constructor from order and bound.
+     *
+     * @param order
+     *            total preorder for sorting
+     * @param k
+     *            maximum number of entries kept
+     */
+    public TopKSortingMachine(Comparator<T> order, int k) {
+        assert k >= 1 : "Violation of: k >= 1";
+        this.k = k;
+        this.createNewRep(order);
+        assert this.conventionHolds();
+    }
+
+    /*
+     * Standard methods -------------------------------------------------------
+     */
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public final SortingMachine<T> newInstance() {
+        try {
+            Constructor<?> c = this.getClass().getConstructor(Comparator.class,
+                    int.class);
+            return (SortingMachine<T>) c.newInstance(this.machineOrder, this.k);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    @Override
+    public final void clear() {
+        this.createNewRep(this.machineOrder);
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void transferFrom(SortingMachine<T> source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof TopKSortingMachine<?> : ""
+                + "Violation of: source is of dynamic type TopKSortingMachine<?>";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case: source must be of dynamic type
+         * TopKSortingMachine<?>, and the ? must be T or the call would not
+         * have compiled.
+         */
+        TopKSortingMachine<T> localSource = (TopKSortingMachine<T>) source;
+        this.insertionMode = localSource.insertionMode;
+        this.machineOrder = localSource.machineOrder;
+        this.k = localSource.k;
+        this.entries = localSource.entries;
+        this.sequence = localSource.sequence;
+        this.nextSequence = localSource.nextSequence;
+        this.first = localSource.first;
+        this.size = localSource.size;
+        localSource.createNewRep(localSource.machineOrder);
+        assert this.conventionHolds();
+        assert localSource.conventionHolds();
+    }
+
+    /*
+     * Kernel methods ---------------------------------------------------------
+     */
+
+    @Override
+    public final void add(T x) {
+        assert x != null : "Violation of: x is not null";
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        if (this.size < this.k) {
+            /*
+             * Still room for x: grow the array if needed (but never past k
+             * entries) and sift x up into the inverted heap.
+             */
+            if (this.size == this.entries.length) {
+                int capacity = (int) Math.min(this.k,
+                        2L * this.entries.length);
+                this.entries = Arrays.copyOf(this.entries, capacity);
+                this.sequence = Arrays.copyOf(this.sequence, capacity);
+            }
+            this.entries[this.size] = x;
+            this.sequence[this.size] = this.nextSequence;
+            siftUp(this.entries, this.sequence, this.size, this.machineOrder);
+            this.size++;
+        } else if (this.machineOrder.compare(x, this.entries[0]) < 0) {
+            /*
+             * x beats the largest entry kept, which is at the root: replace
+             * it and sift x down. Otherwise x is dropped; since it is newer
+             * than every entry kept, it loses ties too.
+             */
+            this.entries[0] = x;
+            this.sequence[0] = this.nextSequence;
+            siftDown(this.entries, this.sequence, 0, this.size - 1,
+                    this.machineOrder);
+        }
+        this.nextSequence++;
+
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final void changeToExtractionMode() {
+        assert this.isInInsertionMode() : "Violation of: this.insertion_mode";
+
+        this.insertionMode = false;
+        /*
+         * Heap sort the inverted heap in place: repeatedly move the largest
+         * entry to the end of the shrinking heap.
+         */
+        for (int last = this.size - 1; last > 0; last--) {
+            T largest = this.entries[0];
+            long largestSequence = this.sequence[0];
+            this.entries[0] = this.entries[last];
+            this.sequence[0] = this.sequence[last];
+            this.entries[last] = largest;
+            this.sequence[last] = largestSequence;
+            siftDown(this.entries, this.sequence, 0, last - 1,
+                    this.machineOrder);
+        }
+
+        assert this.conventionHolds();
+    }
+
+    @Override
+    public final T removeFirst() {
+        assert !this
+                .isInInsertionMode() : "Violation of: not this.insertion_mode";
+        assert this.size() > 0 : "Violation of: this.contents /= {}";
+
+        T removed = this.entries[this.first];
+        /*
+         * Release the slot so the entry can be garbage collected.
+         */
+        this.entries[this.first] = null;
+        this.first++;
+
+        assert this.conventionHolds();
+        return removed;
+    }
+
+    @Override
+    public final boolean isInInsertionMode() {
+        assert this.conventionHolds();
+        return this.insertionMode;
+    }
+
+    @Override
+    public final Comparator<T> order() {
+        assert this.conventionHolds();
+        return this.machineOrder;
+    }
+
+    @Override
+    public final int size() {
+        assert this.conventionHolds();
+        return this.size - this.first;
+    }
+
+    @Override
+    public final Iterator<T> iterator() {
+        return new TopKSortingMachineIterator();
+    }
+
+    /**
+     * Implementation of {@code Iterator} interface for
+     * {@code TopKSortingMachine}.
+     */
+    private final class TopKSortingMachineIterator implements Iterator<T> {
+
+        /**
+         * Index of the next entry to return.
+         */
+        private int currentIndex;
+
+        /**
+         * No-argument constructor.
+         */
+        private TopKSortingMachineIterator() {
+            this.currentIndex = TopKSortingMachine.this.first;
+            assert TopKSortingMachine.this.conventionHolds();
+        }
+
+        @Override
+        public boolean hasNext() {
+            assert TopKSortingMachine.this.conventionHolds();
+            return this.currentIndex < TopKSortingMachine.this.size;
+        }
+
+        @Override
+        public T next() {
+            assert this.hasNext() : "Violation of: ~this.unseen /= <>";
+            if (!this.hasNext()) {
+                /*
+                 * Exception is supposed to be thrown in this case, but with
+                 * assertion-checking enabled it cannot happen because of assert
+                 * above.
+                 */
+                throw new NoSuchElementException();
+            }
+            T next = TopKSortingMachine.this.entries[this.currentIndex];
+            this.currentIndex++;
+            assert TopKSortingMachine.this.conventionHolds();
+            return next;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException(
+                    "remove operation not supported");
+        }
+
+    }
+
+}
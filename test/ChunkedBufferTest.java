@@ -0,0 +1,367 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+
+import org.junit.Test;
+
+/**
+ * JUnit test fixture for {@code ChunkedBuffer}. The first chunk holds 16
+ * entries, and each new chunk at least as many as all the previous ones.
+ */
+public final class ChunkedBufferTest {
+
+    /**
+     * Number of entries in the first chunk.
+     */
+    private static final int FIRST_CHUNK = 16;
+
+    /**
+     * Returns a buffer holding the integers from 0 to {@code n - 1}, in order,
+     * added one at a time.
+     *
+     * @param n
+     *            the number of entries
+     * @return the buffer
+     */
+    private static ChunkedBuffer<Object> createFromRange(int n) {
+        ChunkedBuffer<Object> b = new ChunkedBuffer<Object>();
+        for (int i = 0; i < n; i++) {
+            b.add(i);
+        }
+        return b;
+    }
+
+    /**
+     * Returns the entries of {@code b}, in the order of its iterator.
+     *
+     * @param b
+     *            the buffer
+     * @return the entries of b
+     */
+    private static List<Object> contents(ChunkedBuffer<Object> b) {
+        List<Object> contents = new ArrayList<Object>();
+        for (Object x : b) {
+            contents.add(x);
+        }
+        return contents;
+    }
+
+    /**
+     * Returns the integers from {@code from} to {@code to - 1}, in order.
+     *
+     * @param from
+     *            the first integer
+     * @param to
+     *            the integer after the last one
+     * @return the integers in [from, to)
+     */
+    private static List<Object> range(int from, int to) {
+        List<Object> range = new ArrayList<Object>();
+        for (int i = from; i < to; i++) {
+            range.add(i);
+        }
+        return range;
+    }
+
+    /**
+     * Test add up to the end of the first chunk and one past it.
+     */
+    @Test
+    public void testAddAtChunkEdge() {
+        ChunkedBuffer<Object> b = createFromRange(FIRST_CHUNK);
+        assertEquals(FIRST_CHUNK, b.length());
+        assertEquals(range(0, FIRST_CHUNK), contents(b));
+        b.add(FIRST_CHUNK);
+        assertEquals(FIRST_CHUNK + 1, b.length());
+        assertEquals(range(0, FIRST_CHUNK + 1), contents(b));
+    }
+
+    /**
+     * Test addAll filling the end of a chunk and spilling into the next one.
+     */
+    @Test
+    public void testAddAllAcrossChunkEdge() {
+        ChunkedBuffer<Object> b = createFromRange(10);
+        Object[] more = range(0, 40).toArray();
+        b.addAll(more, 10, 30);
+        assertEquals(30, b.length());
+        assertEquals(range(0, 30), contents(b));
+        b.addAll(more, 30, 30);
+        assertEquals(range(0, 30), contents(b));
+    }
+
+    /**
+     * Test drainToArray with all the entries in a single chunk: the chunk
+     * itself is handed over, with nulls after the entries.
+     */
+    @Test
+    public void testDrainToArrayOneChunk() {
+        ChunkedBuffer<Object> b = createFromRange(5);
+        Object[] array = b.drainToArray();
+        assertEquals(FIRST_CHUNK, array.length);
+        for (int i = 0; i < array.length; i++) {
+            Object expected = null;
+            if (i < 5) {
+                expected = i;
+            }
+            assertEquals(expected, array[i]);
+        }
+        assertEquals(0, b.length());
+        assertEquals(range(0, 0), contents(b));
+    }
+
+    /**
+     * Test drainToArray with a full single chunk.
+     */
+    @Test
+    public void testDrainToArrayFullChunk() {
+        ChunkedBuffer<Object> b = createFromRange(FIRST_CHUNK);
+        Object[] array = b.drainToArray();
+        assertEquals(FIRST_CHUNK, array.length);
+        for (int i = 0; i < array.length; i++) {
+            assertEquals(Integer.valueOf(i), array[i]);
+        }
+    }
+
+    /**
+     * Test drainToArray with entries in several chunks: they are copied into
+     * an array of exactly their number.
+     */
+    @Test
+    public void testDrainToArraySeveralChunks() {
+        final int n = 5 * FIRST_CHUNK + 3;
+        ChunkedBuffer<Object> b = createFromRange(n);
+        Object[] array = b.drainToArray();
+        assertEquals(n, array.length);
+        for (int i = 0; i < n; i++) {
+            assertEquals(Integer.valueOf(i), array[i]);
+        }
+        assertEquals(0, b.length());
+        b.add(7);
+        assertEquals(range(7, 8), contents(b));
+    }
+
+    /**
+     * Test reserve on an empty buffer: the next chunk is large enough for
+     * all the entries reserved.
+     */
+    @Test
+    public void testReserve() {
+        ChunkedBuffer<Object> b = new ChunkedBuffer<Object>();
+        b.reserve(100);
+        for (int i = 0; i < 100; i++) {
+            b.add(i);
+        }
+        Object[] array = b.drainToArray();
+        assertEquals(100, array.length);
+        assertEquals(Integer.valueOf(99), array[99]);
+    }
+
+    /**
+     * Test copyTo with entries in several chunks, at an offset.
+     */
+    @Test
+    public void testCopyTo() {
+        final int n = 3 * FIRST_CHUNK + 1;
+        ChunkedBuffer<Object> b = createFromRange(n);
+        Object[] array = new Object[n + 5];
+        array[0] = -1;
+        array[n + 4] = -2;
+        b.copyTo(array, 2);
+        assertEquals(Integer.valueOf(-1), array[0]);
+        assertEquals(null, array[1]);
+        for (int i = 0; i < n; i++) {
+            assertEquals(Integer.valueOf(i), array[i + 2]);
+        }
+        assertEquals(null, array[n + 2]);
+        assertEquals(Integer.valueOf(-2), array[n + 4]);
+        assertEquals(range(0, n), contents(b));
+    }
+
+    /**
+     * Test clear with a single chunk no larger than the size retained: the
+     * chunk is kept, emptied, for the next entries.
+     */
+    @Test
+    public void testClearRetainBelow() {
+        Object[] chunk = new Object[2 * FIRST_CHUNK];
+        ChunkedBuffer<Object> b = new ChunkedBuffer<Object>();
+        b.recycle(chunk);
+        for (int i = 0; i < 10; i++) {
+            b.add(i);
+        }
+        b.clear(chunk.length);
+        assertEquals(0, b.length());
+        b.add(1);
+        b.add(2);
+        Object[] array = b.drainToArray();
+        assertEquals(true, array == chunk);
+        assertEquals(Integer.valueOf(1), array[0]);
+        assertEquals(Integer.valueOf(2), array[1]);
+        for (int i = 2; i < array.length; i++) {
+            assertEquals(null, array[i]);
+        }
+    }
+
+    /**
+     * Test clear with a single chunk larger than the size retained: the
+     * chunk is released.
+     */
+    @Test
+    public void testClearRetainAbove() {
+        Object[] chunk = new Object[2 * FIRST_CHUNK];
+        ChunkedBuffer<Object> b = new ChunkedBuffer<Object>();
+        b.recycle(chunk);
+        for (int i = 0; i < 10; i++) {
+            b.add(i);
+        }
+        b.clear(chunk.length - 1);
+        assertEquals(0, b.length());
+        b.add(1);
+        Object[] array = b.drainToArray();
+        assertEquals(false, array == chunk);
+        assertEquals(FIRST_CHUNK, array.length);
+        assertEquals(Integer.valueOf(1), array[0]);
+    }
+
+    /**
+     * Test clear with several chunks: they are all released, whatever the
+     * size retained.
+     */
+    @Test
+    public void testClearSeveralChunks() {
+        ChunkedBuffer<Object> b = createFromRange(FIRST_CHUNK + 1);
+        b.clear(Integer.MAX_VALUE);
+        assertEquals(0, b.length());
+        b.add(3);
+        assertEquals(FIRST_CHUNK, b.drainToArray().length);
+    }
+
+    /**
+     * Test recycle with an array no larger than the space already there: the
+     * array is not used.
+     */
+    @Test
+    public void testRecycleSmaller() {
+        ChunkedBuffer<Object> b = new ChunkedBuffer<Object>();
+        b.recycle(new Object[2 * FIRST_CHUNK]);
+        Object[] small = new Object[FIRST_CHUNK];
+        b.recycle(small);
+        b.add(4);
+        Object[] array = b.drainToArray();
+        assertEquals(2 * FIRST_CHUNK, array.length);
+        assertEquals(Integer.valueOf(4), array[0]);
+    }
+
+    /**
+     * Test adopt: the array becomes the only chunk, and is handed back as is.
+     */
+    @Test
+    public void testAdopt() {
+        Object[] entries = { 4, 5, 6, null, null };
+        ChunkedBuffer<Object> b = new ChunkedBuffer<Object>();
+        b.adopt(entries, 3);
+        assertEquals(3, b.length());
+        assertEquals(range(4, 7), contents(b));
+        b.add(7);
+        assertEquals(range(4, 8), contents(b));
+        assertEquals(true, b.drainToArray() == entries);
+    }
+
+    /**
+     * Test the iterator across several chunks.
+     */
+    @Test
+    public void testIteratorSeveralChunks() {
+        final int n = 7 * FIRST_CHUNK;
+        ChunkedBuffer<Object> b = createFromRange(n);
+        Iterator<Object> it = b.iterator();
+        for (int i = 0; i < n; i++) {
+            assertEquals(true, it.hasNext());
+            assertEquals(Integer.valueOf(i), it.next());
+        }
+        assertEquals(false, it.hasNext());
+    }
+
+    /**
+     * Splits {@code s} recursively until it cannot be split any more, and
+     * adds the parts to {@code parts}, in order.
+     *
+     * @param s
+     *            the spliterator
+     * @param parts
+     *            the parts, in order
+     */
+    private static void splitAll(Spliterator<Object> s,
+            List<Spliterator<Object>> parts) {
+        long size = s.estimateSize();
+        Spliterator<Object> prefix = s.trySplit();
+        if (prefix == null) {
+            parts.add(s);
+        } else {
+            assertEquals(size, prefix.estimateSize() + s.estimateSize());
+            assertEquals(size / 2, prefix.estimateSize());
+            splitAll(prefix, parts);
+            splitAll(s, parts);
+        }
+    }
+
+    /**
+     * Test spliterator over several chunks followed by a tail: split all the
+     * way down, the parts are as large as the threshold allows, their sizes
+     * add up, and they cover the entries in order.
+     */
+    @Test
+    public void testSpliterator() {
+        final int n = 5000;
+        final int tailLength = 2500;
+        ChunkedBuffer<Object> b = createFromRange(n);
+        Object[] tail = range(n, n + tailLength + 10).toArray();
+        Spliterator<Object> s = b.spliterator(tail, tailLength);
+        assertEquals(Spliterator.SIZED | Spliterator.SUBSIZED
+                | Spliterator.NONNULL, s.characteristics());
+        assertEquals(n + tailLength, s.estimateSize());
+        List<Spliterator<Object>> parts = new ArrayList<Spliterator<Object>>();
+        splitAll(s, parts);
+        assertEquals(8, parts.size());
+        List<Object> seen = new ArrayList<Object>();
+        for (Spliterator<Object> part : parts) {
+            long size = part.estimateSize();
+            assertEquals(true, size < 1024 && size >= 512);
+            assertEquals(null, part.trySplit());
+            long before = seen.size();
+            assertEquals(true, part.tryAdvance(seen::add));
+            part.forEachRemaining(seen::add);
+            assertEquals(before + size, seen.size());
+            assertEquals(0, part.estimateSize());
+            assertEquals(false, part.tryAdvance(seen::add));
+        }
+        assertEquals(range(0, n + tailLength), seen);
+        assertEquals(range(0, n), contents(b));
+    }
+
+    /**
+     * Test spliterator on an empty buffer with an empty tail, and on a buffer
+     * with no tail.
+     */
+    @Test
+    public void testSpliteratorSmall() {
+        ChunkedBuffer<Object> b = new ChunkedBuffer<Object>();
+        Spliterator<Object> s = b.spliterator(new Object[0], 0);
+        assertEquals(0, s.estimateSize());
+        assertEquals(null, s.trySplit());
+        List<Object> seen = new ArrayList<Object>();
+        assertEquals(false, s.tryAdvance(seen::add));
+        b = createFromRange(FIRST_CHUNK + 1);
+        s = b.spliterator(new Object[1], 0);
+        assertEquals(FIRST_CHUNK + 1, s.estimateSize());
+        while (s.tryAdvance(seen::add)) {
+            assertEquals(FIRST_CHUNK + 1 - seen.size(), s.estimateSize());
+        }
+        assertEquals(range(0, FIRST_CHUNK + 1), seen);
+    }
+
+}
@@ -0,0 +1,146 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
+
+import org.junit.Test;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachine1L;
+
+/**
+ * Customized JUnit test fixture for {@code ConcurrentSortingMachine}. The
+ * inherited test cases run on a single thread; the extra test cases below add
+ * and remove entries from several threads at the same time.
+ */
+public final class ConcurrentSortingMachineTest extends SortingMachineTest {
+
+    /**
+     * Number of threads in the multi-threaded test cases.
+     */
+    private static final int THREADS = 4;
+
+    /**
+     * Number of entries per thread in the multi-threaded test cases.
+     */
+    private static final int ENTRIES = 1000;
+
+    @Override
+    protected SortingMachine<String> constructorTest(Comparator<String> order) {
+        return new ConcurrentSortingMachine<String>(order);
+    }
+
+    @Override
+    protected SortingMachine<String> constructorRef(Comparator<String> order) {
+        return new SortingMachine1L<String>(order);
+    }
+
+    /**
+     * Runs {@code task} on {@code THREADS} threads at once, passing each one
+     * its number, waits for all of them to finish, and rethrows the first
+     * failure of any of them.
+     *
+     * @param task
+     *            the task to run, given the number of the thread
+     * @throws InterruptedException
+     *             if interrupted while waiting
+     */
+    private static void runThreads(IntConsumer task)
+            throws InterruptedException {
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            int id = t;
+            threads[t] = new Thread(() -> task.accept(id));
+            threads[t].setUncaughtExceptionHandler(
+                    (thread, e) -> failure.compareAndSet(null, e));
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    /**
+     * Test that entries added by several threads at once all end up in the
+     * machine.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting for the threads
+     */
+    @Test
+    public void testAddFromManyThreads() throws InterruptedException {
+        ConcurrentSortingMachine<String> m = new ConcurrentSortingMachine<>(
+                String.CASE_INSENSITIVE_ORDER, 4);
+        SortingMachine<String> mExpected = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        for (int t = 0; t < THREADS; t++) {
+            for (int i = 0; i < ENTRIES; i++) {
+                mExpected.add(t + ":" + i);
+            }
+        }
+        runThreads(t -> {
+            for (int i = 0; i < ENTRIES; i++) {
+                m.add(t + ":" + i);
+            }
+        });
+        assertEquals(mExpected, m);
+        m.changeToExtractionMode();
+        mExpected.changeToExtractionMode();
+        assertEquals(mExpected, m);
+    }
+
+    /**
+     * Test that entries removed by several threads at once, one at a time or
+     * in batches, are each removed exactly once, in increasing order within
+     * each thread.
+     *
+     * @throws InterruptedException
+     *             if interrupted while waiting for the threads
+     */
+    @Test
+    public void testRemoveFromManyThreads() throws InterruptedException {
+        ConcurrentSortingMachine<String> m = new ConcurrentSortingMachine<>(
+                String.CASE_INSENSITIVE_ORDER);
+        SortingMachine<String> removed = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        SortingMachine<String> mExpected = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < THREADS * ENTRIES; i++) {
+            String s = String.format("%05d", i);
+            m.add(s);
+            mExpected.add(s);
+        }
+        m.changeToExtractionMode();
+        runThreads(t -> {
+            String previous = "";
+            String[] batch = new String[t + 1];
+            int n = m.removeFirst(batch);
+            while (n > 0) {
+                for (int i = 0; i < n; i++) {
+                    assertEquals(true, previous.compareTo(batch[i]) < 0);
+                    previous = batch[i];
+                    synchronized (removed) {
+                        removed.add(batch[i]);
+                    }
+                }
+                String x = m.pollFirst();
+                if (x != null) {
+                    assertEquals(true, previous.compareTo(x) < 0);
+                    previous = x;
+                    synchronized (removed) {
+                        removed.add(x);
+                    }
+                }
+                n = m.removeFirst(batch);
+            }
+        });
+        assertEquals(0, m.size());
+        assertEquals(mExpected, removed);
+    }
+
+}
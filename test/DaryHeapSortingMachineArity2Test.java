@@ -0,0 +1,13 @@
+/**
+ * Customized JUnit test fixture for {@code DaryHeapSortingMachine} with a
+ * binary heap.
+ */
+public final class DaryHeapSortingMachineArity2Test
+        extends DaryHeapSortingMachineTest {
+
+    @Override
+    protected int arity() {
+        return 2;
+    }
+
+}
@@ -0,0 +1,13 @@
+/**
+ * Customized JUnit test fixture for {@code DaryHeapSortingMachine} with
+ * an 8-ary heap.
+ */
+public final class DaryHeapSortingMachineArity8Test
+        extends DaryHeapSortingMachineTest {
+
+    @Override
+    protected int arity() {
+        return 8;
+    }
+
+}
@@ -0,0 +1,59 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.Comparator;
+
+import org.junit.Test;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachine1L;
+
+/**
+ * Customized JUnit test fixture for {@code DaryHeapSortingMachine} with a
+ * 4-ary heap; subclasses test the other arities.
+ */
+public class DaryHeapSortingMachineTest extends SortingMachineTest {
+
+    /**
+     * Returns the arity of the machines tested.
+     *
+     * @return the arity of the heap
+     */
+    protected int arity() {
+        return 4;
+    }
+
+    @Override
+    protected SortingMachine<String> constructorTest(Comparator<String> order) {
+        return new DaryHeapSortingMachine<String>(order, this.arity());
+    }
+
+    @Override
+    protected SortingMachine<String> constructorRef(Comparator<String> order) {
+        return new SortingMachine1L<String>(order);
+    }
+
+    /**
+     * Test a heap several levels deep, whose last sibling group is not full,
+     * with many equal entries.
+     */
+    @Test
+    public void testRemoveFirstManyEntries() {
+        SortingMachine<String> m = this
+                .constructorTest(String.CASE_INSENSITIVE_ORDER);
+        SortingMachine<String> mExpected = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < 602; i++) {
+            String s = String.format("%03d", (i * 37) % 151);
+            m.add(s);
+            mExpected.add(s);
+        }
+        m.changeToExtractionMode();
+        mExpected.changeToExtractionMode();
+        assertEquals(mExpected, m);
+        while (mExpected.size() > 0) {
+            assertEquals(mExpected.removeFirst(), m.removeFirst());
+        }
+        assertEquals(mExpected, m);
+    }
+
+}
@@ -0,0 +1,141 @@
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * JUnit test fixture for {@code DoubleSortingMachine}'s constructor and kernel
+ * methods.
+ */
+public final class DoubleSortingMachineTest {
+
+    /**
+     * Test constructor.
+     */
+    @Test
+    public void testConstructor() {
+        DoubleSortingMachine m = new DoubleSortingMachine();
+        assertEquals(true, m.isInInsertionMode());
+        assertEquals(0, m.size());
+    }
+
+    /**
+     * Test add past the initial capacity.
+     */
+    @Test
+    public void testAddGrows() {
+        DoubleSortingMachine m = new DoubleSortingMachine();
+        for (int i = 0; i < 100; i++) {
+            m.add(i);
+        }
+        assertEquals(true, m.isInInsertionMode());
+        assertEquals(100, m.size());
+    }
+
+    /**
+     * Test changeToExtractionMode on an empty machine.
+     */
+    @Test
+    public void testChangeToExtractionModeEmpty() {
+        DoubleSortingMachine m = new DoubleSortingMachine();
+        m.changeToExtractionMode();
+        assertEquals(false, m.isInInsertionMode());
+        assertEquals(0, m.size());
+    }
+
+    /**
+     * Test removeFirst with duplicates and extreme values.
+     */
+    @Test
+    public void testRemoveFirstRoutine() {
+        DoubleSortingMachine m = new DoubleSortingMachine();
+        double[] args = { 5.5, -Double.MAX_VALUE, 3, 5.5, Double.MAX_VALUE,
+            -1, Double.MIN_VALUE };
+        for (double x : args) {
+            m.add(x);
+        }
+        m.changeToExtractionMode();
+        double[] expected = { -Double.MAX_VALUE, -1, Double.MIN_VALUE, 3, 5.5,
+            5.5, Double.MAX_VALUE };
+        for (double x : expected) {
+            assertEquals(Double.valueOf(x), Double.valueOf(m.removeFirst()));
+        }
+        assertEquals(0, m.size());
+    }
+
+    /**
+     * Test that infinities, zeros of both signs, and NaN come out in the
+     * order of {@code Double.compare}: -0.0 before 0.0, and NaN last.
+     */
+    @Test
+    public void testRemoveFirstSpecialValues() {
+        DoubleSortingMachine m = new DoubleSortingMachine();
+        double[] args = { Double.NaN, 0.0, Double.POSITIVE_INFINITY, -0.0, 1,
+            Double.NEGATIVE_INFINITY, Double.NaN, -0.0, 0.0, -1 };
+        for (double x : args) {
+            m.add(x);
+        }
+        m.changeToExtractionMode();
+        double[] expected = { Double.NEGATIVE_INFINITY, -1, -0.0, -0.0, 0.0,
+            0.0, 1, Double.POSITIVE_INFINITY, Double.NaN, Double.NaN };
+        for (double x : expected) {
+            /*
+             * Double.equals tells -0.0 from 0.0 and finds NaN equal to itself,
+             * as Double.compare does.
+             */
+            assertEquals(Double.valueOf(x), Double.valueOf(m.removeFirst()));
+        }
+        assertEquals(0, m.size());
+    }
+
+    /**
+     * Test removeFirst on a large input with NaN and both zeros mixed in.
+     */
+    @Test
+    public void testRemoveFirstLarge() {
+        final int n = 1000;
+        DoubleSortingMachine m = new DoubleSortingMachine();
+        for (int i = n - 1; i >= 0; i--) {
+            m.add(i - n / 2);
+            if (i % 100 == 0) {
+                m.add(Double.NaN);
+                m.add(-0.0);
+            }
+        }
+        m.changeToExtractionMode();
+        for (int i = 0; i < n / 2; i++) {
+            assertEquals(Double.valueOf(i - n / 2),
+                    Double.valueOf(m.removeFirst()));
+        }
+        for (int i = 0; i < n / 100; i++) {
+            assertEquals(Double.valueOf(-0.0), Double.valueOf(m.removeFirst()));
+        }
+        for (int i = n / 2; i < n; i++) {
+            assertEquals(Double.valueOf(i - n / 2),
+                    Double.valueOf(m.removeFirst()));
+        }
+        for (int i = 0; i < n / 100; i++) {
+            assertEquals(Double.valueOf(Double.NaN),
+                    Double.valueOf(m.removeFirst()));
+        }
+        assertEquals(0, m.size());
+    }
+
+    /**
+     * Test transferFrom.
+     */
+    @Test
+    public void testTransferFrom() {
+        DoubleSortingMachine m = new DoubleSortingMachine();
+        DoubleSortingMachine source = new DoubleSortingMachine();
+        source.add(2);
+        source.add(1);
+        source.changeToExtractionMode();
+        m.transferFrom(source);
+        assertEquals(false, m.isInInsertionMode());
+        assertEquals(2, m.size());
+        assertEquals(Double.valueOf(1), Double.valueOf(m.removeFirst()));
+        assertEquals(true, source.isInInsertionMode());
+        assertEquals(0, source.size());
+    }
+
+}
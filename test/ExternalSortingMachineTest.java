@@ -0,0 +1,250 @@
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.Comparator;
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import com.sun.management.UnixOperatingSystemMXBean;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachine1L;
+
+/**
+ * Customized JUnit test fixture for {@code ExternalSortingMachine}. The memory
+ * budget is small enough that the larger test cases spill runs to disk.
+ */
+public final class ExternalSortingMachineTest extends SortingMachineTest {
+
+    /**
+     * Memory budget, in entries.
+     */
+    private static final int BUDGET = 2;
+
+    @Override
+    protected SortingMachine<String> constructorTest(Comparator<String> order) {
+        return new ExternalSortingMachine<String>(order, BUDGET,
+                ExternalSortingMachine.stringSerializer());
+    }
+
+    @Override
+    protected SortingMachine<String> constructorRef(Comparator<String> order) {
+        return new SortingMachine1L<String>(order);
+    }
+
+    /**
+     * Reports the number of file descriptors open in this JVM, or -1 where
+     * that cannot be found out.
+     *
+     * @return the number of open file descriptors, or -1
+     */
+    private static long openFiles() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        long open = -1;
+        if (os instanceof UnixOperatingSystemMXBean) {
+            open = ((UnixOperatingSystemMXBean) os)
+                    .getOpenFileDescriptorCount();
+        }
+        return open;
+    }
+
+    /**
+     * Test abandoning an iterator over a machine with spilled runs, in
+     * insertion and in extraction mode, then clearing the machine: no run
+     * file is left open.
+     */
+    @Test
+    public void testAbandonedIteratorThenClear() {
+        SortingMachine<String> m = this
+                .constructorTest(String.CASE_INSENSITIVE_ORDER);
+        for (String s : new String[] { "green", "red", "blue", "yellow",
+            "orange", "purple", "white" }) {
+            m.add(s);
+        }
+        long open = openFiles();
+        Iterator<String> it = m.iterator();
+        for (int i = 0; i < 4; i++) {
+            it.next();
+        }
+        assertEquals(open, openFiles());
+        m.changeToExtractionMode();
+        m.removeFirst();
+        open = openFiles();
+        it = m.iterator();
+        it.next();
+        it.next();
+        assertEquals(open, openFiles());
+        m.clear();
+        SortingMachine<String> mExpected = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        assertEquals(mExpected, m);
+    }
+
+    /**
+     * Test a merge of many more runs than can be merged at once: the runs
+     * are merged in several passes, and the final merge keeps no more files
+     * open than the budget allows.
+     */
+    @Test
+    public void testManyRuns() {
+        SortingMachine<String> m = this
+                .constructorTest(String.CASE_INSENSITIVE_ORDER);
+        SortingMachine<String> mExpected = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < 301; i++) {
+            String s = String.format("%03d", (i * 89) % 301);
+            m.add(s);
+            mExpected.add(s);
+        }
+        long open = openFiles();
+        m.changeToExtractionMode();
+        mExpected.changeToExtractionMode();
+        if (open >= 0) {
+            assertEquals(true, openFiles() <= open + BUDGET);
+        }
+        assertEquals(mExpected, m);
+        while (mExpected.size() > 0) {
+            assertEquals(mExpected.removeFirst(), m.removeFirst());
+        }
+        assertEquals(open, openFiles());
+    }
+
+    /**
+     * Adds {@code args} to a machine with memory budget {@code budget}, whose
+     * serializer fails to read "red" back, and checks that the failure of
+     * {@code changeToExtractionMode} leaves no file open and the machine in
+     * insertion mode with all its entries, and that the machine works again
+     * once the serializer does.
+     *
+     * @param budget
+     *            the memory budget
+     * @param args
+     *            the entries to add, in order
+     */
+    private void checkFailedExtraction(int budget, String[] args) {
+        final boolean[] failing = { false };
+        final ExternalSortingMachine.Serializer<String> strings = ExternalSortingMachine
+                .stringSerializer();
+        ExternalSortingMachine.Serializer<String> flaky = new ExternalSortingMachine.Serializer<String>() {
+
+            @Override
+            public byte[] serialize(String x) {
+                return strings.serialize(x);
+            }
+
+            @Override
+            public String deserialize(byte[] bytes) {
+                String x = strings.deserialize(bytes);
+                if (failing[0] && x.equals("red")) {
+                    throw new IllegalStateException("cannot deserialize " + x);
+                }
+                return x;
+            }
+
+        };
+        SortingMachine<String> m = new ExternalSortingMachine<String>(
+                String.CASE_INSENSITIVE_ORDER, budget, flaky);
+        SortingMachine<String> mExpected = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        for (String s : args) {
+            m.add(s);
+            mExpected.add(s);
+        }
+        long open = openFiles();
+        failing[0] = true;
+        String error = null;
+        try {
+            m.changeToExtractionMode();
+        } catch (IllegalStateException e) {
+            error = e.getMessage();
+        }
+        failing[0] = false;
+        assertEquals("cannot deserialize red", error);
+        assertEquals(open, openFiles());
+        assertEquals(true, m.isInInsertionMode());
+        assertEquals(mExpected, m);
+        m.changeToExtractionMode();
+        mExpected.changeToExtractionMode();
+        while (mExpected.size() > 0) {
+            assertEquals(mExpected.removeFirst(), m.removeFirst());
+        }
+        assertEquals(mExpected, m);
+    }
+
+    /**
+     * Test a failure to read the first entry of a run when opening the runs
+     * for the final merge, after another run has been opened.
+     */
+    @Test
+    public void testFailedOpen() {
+        this.checkFailedExtraction(3, new String[] { "blue", "green",
+            "orange", "red", "white", "yellow", "purple" });
+    }
+
+    /**
+     * Test a failure to read an entry in a merge pass, before the final
+     * merge.
+     */
+    @Test
+    public void testFailedMergePass() {
+        this.checkFailedExtraction(2, new String[] { "green", "blue",
+            "yellow", "red", "orange", "purple", "white" });
+    }
+
+    /**
+     * Test a spill that fails in the middle of writing a run: no entry is
+     * lost, and the machine keeps working once the serializer does.
+     */
+    @Test
+    public void testFailedSpill() {
+        final boolean[] failing = { false };
+        final ExternalSortingMachine.Serializer<String> strings = ExternalSortingMachine
+                .stringSerializer();
+        ExternalSortingMachine.Serializer<String> flaky = new ExternalSortingMachine.Serializer<String>() {
+
+            @Override
+            public byte[] serialize(String x) {
+                if (failing[0] && x.equals("red")) {
+                    throw new IllegalStateException("cannot serialize " + x);
+                }
+                return strings.serialize(x);
+            }
+
+            @Override
+            public String deserialize(byte[] bytes) {
+                return strings.deserialize(bytes);
+            }
+
+        };
+        SortingMachine<String> m = new ExternalSortingMachine<String>(
+                String.CASE_INSENSITIVE_ORDER, 3, flaky);
+        SortingMachine<String> mExpected = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        for (String s : new String[] { "green", "blue", "yellow", "red",
+            "orange", "purple" }) {
+            m.add(s);
+            mExpected.add(s);
+        }
+        failing[0] = true;
+        String error = null;
+        try {
+            m.add("white");
+        } catch (IllegalStateException e) {
+            error = e.getMessage();
+        }
+        assertEquals("cannot serialize red", error);
+        assertEquals(mExpected, m);
+        failing[0] = false;
+        m.add("white");
+        mExpected.add("white");
+        m.changeToExtractionMode();
+        mExpected.changeToExtractionMode();
+        while (mExpected.size() > 0) {
+            assertEquals(mExpected.removeFirst(), m.removeFirst());
+        }
+        assertEquals(mExpected, m);
+    }
+
+}
@@ -0,0 +1,98 @@
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * JUnit test fixture for {@code IntSortingMachine}'s constructor and kernel
+ * methods.
+ */
+public final class IntSortingMachineTest {
+
+    /**
+     * Test constructor.
+     */
+    @Test
+    public void testConstructor() {
+        IntSortingMachine m = new IntSortingMachine();
+        assertEquals(true, m.isInInsertionMode());
+        assertEquals(0, m.size());
+    }
+
+    /**
+     * Test add past the initial capacity.
+     */
+    @Test
+    public void testAddGrows() {
+        IntSortingMachine m = new IntSortingMachine();
+        for (int i = 0; i < 100; i++) {
+            m.add(i);
+        }
+        assertEquals(true, m.isInInsertionMode());
+        assertEquals(100, m.size());
+    }
+
+    /**
+     * Test changeToExtractionMode on an empty machine.
+     */
+    @Test
+    public void testChangeToExtractionModeEmpty() {
+        IntSortingMachine m = new IntSortingMachine();
+        m.changeToExtractionMode();
+        assertEquals(false, m.isInInsertionMode());
+        assertEquals(0, m.size());
+    }
+
+    /**
+     * Test removeFirst with duplicates and extreme values.
+     */
+    @Test
+    public void testRemoveFirstRoutine() {
+        IntSortingMachine m = new IntSortingMachine();
+        int[] args = { 5, Integer.MIN_VALUE, 3, 5, Integer.MAX_VALUE, -1, 0 };
+        for (int x : args) {
+            m.add(x);
+        }
+        m.changeToExtractionMode();
+        int[] expected = { Integer.MIN_VALUE, -1, 0, 3, 5, 5,
+                Integer.MAX_VALUE };
+        for (int x : expected) {
+            assertEquals(x, m.removeFirst());
+        }
+        assertEquals(0, m.size());
+    }
+
+    /**
+     * Test removeFirst on a large reverse-ordered input.
+     */
+    @Test
+    public void testRemoveFirstLarge() {
+        final int n = 1000;
+        IntSortingMachine m = new IntSortingMachine();
+        for (int i = n - 1; i >= 0; i--) {
+            m.add(i);
+        }
+        m.changeToExtractionMode();
+        for (int i = 0; i < n; i++) {
+            assertEquals(i, m.removeFirst());
+        }
+    }
+
+    /**
+     * Test transferFrom.
+     */
+    @Test
+    public void testTransferFrom() {
+        IntSortingMachine m = new IntSortingMachine();
+        IntSortingMachine source = new IntSortingMachine();
+        source.add(2);
+        source.add(1);
+        source.changeToExtractionMode();
+        m.transferFrom(source);
+        assertEquals(false, m.isInInsertionMode());
+        assertEquals(2, m.size());
+        assertEquals(1, m.removeFirst());
+        assertEquals(true, source.isInInsertionMode());
+        assertEquals(0, source.size());
+    }
+
+}
@@ -0,0 +1,84 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.Comparator;
+import java.util.function.Function;
+
+import org.junit.Test;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachine1L;
+
+/**
+ * Customized JUnit test fixture for {@code KeyedSortingMachine}, using each
+ * entry as its own key; the extra test cases below use real keys.
+ */
+public final class KeyedSortingMachineTest extends SortingMachineTest {
+
+    @Override
+    protected SortingMachine<String> constructorTest(Comparator<String> order) {
+        return new KeyedSortingMachine<String, String>(Function.identity(),
+                order);
+    }
+
+    @Override
+    protected SortingMachine<String> constructorRef(Comparator<String> order) {
+        return new SortingMachine1L<String>(order);
+    }
+
+    /**
+     * Test that the key extractor is applied exactly once per entry, however
+     * many comparisons sorting takes.
+     */
+    @Test
+    public void testKeyExtractedOnce() {
+        int[] calls = { 0 };
+        SortingMachine<String> m = new KeyedSortingMachine<String, Integer>(
+                s -> {
+                    calls[0]++;
+                    return Integer.parseInt(s);
+                }, Comparator.naturalOrder());
+        String[] args = { "42", "7", "100", "-3", "7", "0", "15", "8", "99" };
+        for (String s : args) {
+            m.add(s);
+        }
+        m.changeToExtractionMode();
+        String[] expected = { "-3", "0", "7", "7", "8", "15", "42", "99",
+            "100" };
+        for (String s : expected) {
+            assertEquals(s, m.removeFirst());
+        }
+        assertEquals(args.length, calls[0]);
+    }
+
+    /**
+     * Test that the {@code long} keyed machine sorts by key, applying the key
+     * extractor exactly once per entry.
+     */
+    @Test
+    public void testLongKeys() {
+        int[] calls = { 0 };
+        SortingMachine<String> m = new LongKeyedSortingMachine<String>(s -> {
+            calls[0]++;
+            return s.length();
+        });
+        SortingMachine<String> mExpected = this
+                .constructorRef(Comparator.comparingInt(String::length));
+        /*
+         * The keys are distinct, so the entries come out in a single order.
+         */
+        String[] args = { "ccc", "a", "dddd", "bb", "", "eeeee", "ffffff" };
+        for (String s : args) {
+            m.add(s);
+            mExpected.add(s);
+        }
+        assertEquals(mExpected, m);
+        m.changeToExtractionMode();
+        mExpected.changeToExtractionMode();
+        while (mExpected.size() > 0) {
+            assertEquals(mExpected.removeFirst(), m.removeFirst());
+        }
+        assertEquals(mExpected, m);
+        assertEquals(args.length, calls[0]);
+    }
+
+}
@@ -0,0 +1,99 @@
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * JUnit test fixture for {@code LongSortingMachine}'s constructor and kernel
+ * methods.
+ */
+public final class LongSortingMachineTest {
+
+    /**
+     * Test constructor.
+     */
+    @Test
+    public void testConstructor() {
+        LongSortingMachine m = new LongSortingMachine();
+        assertEquals(true, m.isInInsertionMode());
+        assertEquals(0, m.size());
+    }
+
+    /**
+     * Test add past the initial capacity.
+     */
+    @Test
+    public void testAddGrows() {
+        LongSortingMachine m = new LongSortingMachine();
+        for (int i = 0; i < 100; i++) {
+            m.add(i);
+        }
+        assertEquals(true, m.isInInsertionMode());
+        assertEquals(100, m.size());
+    }
+
+    /**
+     * Test changeToExtractionMode on an empty machine.
+     */
+    @Test
+    public void testChangeToExtractionModeEmpty() {
+        LongSortingMachine m = new LongSortingMachine();
+        m.changeToExtractionMode();
+        assertEquals(false, m.isInInsertionMode());
+        assertEquals(0, m.size());
+    }
+
+    /**
+     * Test removeFirst with duplicates and extreme values.
+     */
+    @Test
+    public void testRemoveFirstRoutine() {
+        LongSortingMachine m = new LongSortingMachine();
+        long[] args = { 5, Long.MIN_VALUE, 3, 5, Long.MAX_VALUE, -1, 0,
+            Integer.MAX_VALUE + 1L, Integer.MIN_VALUE - 1L };
+        for (long x : args) {
+            m.add(x);
+        }
+        m.changeToExtractionMode();
+        long[] expected = { Long.MIN_VALUE, Integer.MIN_VALUE - 1L, -1, 0, 3,
+            5, 5, Integer.MAX_VALUE + 1L, Long.MAX_VALUE };
+        for (long x : expected) {
+            assertEquals(x, m.removeFirst());
+        }
+        assertEquals(0, m.size());
+    }
+
+    /**
+     * Test removeFirst on a large reverse-ordered input.
+     */
+    @Test
+    public void testRemoveFirstLarge() {
+        final int n = 1000;
+        LongSortingMachine m = new LongSortingMachine();
+        for (long i = n - 1; i >= 0; i--) {
+            m.add(i << 32);
+        }
+        m.changeToExtractionMode();
+        for (long i = 0; i < n; i++) {
+            assertEquals(i << 32, m.removeFirst());
+        }
+    }
+
+    /**
+     * Test transferFrom.
+     */
+    @Test
+    public void testTransferFrom() {
+        LongSortingMachine m = new LongSortingMachine();
+        LongSortingMachine source = new LongSortingMachine();
+        source.add(2);
+        source.add(1);
+        source.changeToExtractionMode();
+        m.transferFrom(source);
+        assertEquals(false, m.isInInsertionMode());
+        assertEquals(2, m.size());
+        assertEquals(1, m.removeFirst());
+        assertEquals(true, source.isInInsertionMode());
+        assertEquals(0, source.size());
+    }
+
+}
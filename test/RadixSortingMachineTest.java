@@ -0,0 +1,98 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.Comparator;
+
+import org.junit.Test;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachine1L;
+
+/**
+ * Customized JUnit test fixture for {@code RadixSortingMachine}, with keys
+ * that fold case the way {@code String.compareToIgnoreCase} does, so that
+ * they encode the order used by the inherited test cases; the extra test
+ * cases below exercise the radix passes and {@code LongRadixSortingMachine}.
+ */
+public final class RadixSortingMachineTest extends SortingMachineTest {
+
+    /**
+     * Returns {@code s} with each char folded to the case used by
+     * {@code String.compareToIgnoreCase}.
+     *
+     * @param s
+     *            the string
+     * @return the folded string
+     */
+    private static String fold(String s) {
+        char[] chars = s.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character
+                    .toLowerCase(Character.toUpperCase(chars[i]));
+        }
+        return new String(chars);
+    }
+
+    @Override
+    protected SortingMachine<String> constructorTest(Comparator<String> order) {
+        return new RadixSortingMachine<String>(order,
+                RadixSortingMachineTest::fold);
+    }
+
+    @Override
+    protected SortingMachine<String> constructorRef(Comparator<String> order) {
+        return new SortingMachine1L<String>(order);
+    }
+
+    /**
+     * Test removeFirst on enough entries for the radix passes to run, with
+     * shared prefixes, prefixes of other keys, equal keys, and chars beyond
+     * one byte.
+     */
+    @Test
+    public void testRemoveFirstLarge() {
+        SortingMachine<String> m = this
+                .constructorTest(String.CASE_INSENSITIVE_ORDER);
+        SortingMachine<String> mExpected = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < 200; i++) {
+            String s = "prefix" + Integer.toString((i * 37) % 101, 3)
+                    + (i % 7 == 0 ? "\u00e9\u4e2d" : "");
+            if (i % 5 == 0) {
+                s = s.toUpperCase();
+            }
+            m.add(s);
+            mExpected.add(s);
+        }
+        m.changeToExtractionMode();
+        mExpected.changeToExtractionMode();
+        while (mExpected.size() > 0) {
+            assertEquals(mExpected.removeFirst(), m.removeFirst());
+        }
+    }
+
+    /**
+     * Test that the {@code long} keyed machine sorts by key, negative keys
+     * first, keeping equal keys in the order they were added.
+     */
+    @Test
+    public void testLongKeys() {
+        Comparator<long[]> order = Comparator.comparingLong(a -> a[0]);
+        SortingMachine<long[]> m = new LongRadixSortingMachine<long[]>(order,
+                a -> a[0]);
+        SortingMachine<long[]> mExpected = new SortingMachine1L<long[]>(
+                order);
+        long[] keys = { 5, Long.MIN_VALUE, 3, -1, Long.MAX_VALUE, 0, 3,
+            1L << 40, -(1L << 40), 5 };
+        for (int i = 0; i < 100; i++) {
+            long[] x = { keys[i % keys.length], i };
+            m.add(x);
+            mExpected.add(x);
+        }
+        m.changeToExtractionMode();
+        mExpected.changeToExtractionMode();
+        while (mExpected.size() > 0) {
+            assertEquals(mExpected.removeFirst(), m.removeFirst());
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.Comparator;
+
+import org.junit.Test;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachine1L;
+
+/**
+ * Customized JUnit test fixture for {@code ShardedSortingMachine}, with a
+ * number of shards that is not a power of 2, so that the loser tree is not
+ * complete.
+ */
+public final class ShardedSortingMachineTest extends SortingMachineTest {
+
+    /**
+     * Number of shards.
+     */
+    private static final int SHARDS = 3;
+
+    @Override
+    protected SortingMachine<String> constructorTest(Comparator<String> order) {
+        return new ShardedSortingMachine<String>(order, SHARDS);
+    }
+
+    @Override
+    protected SortingMachine<String> constructorRef(Comparator<String> order) {
+        return new SortingMachine1L<String>(order);
+    }
+
+    /**
+     * Test that removeFirst merges the shards in order, with more shards than
+     * entries in some of them, and with a single shard.
+     */
+    @Test
+    public void testRemoveFirstMergesShards() {
+        for (int shards : new int[] { 1, 5, 8 }) {
+            SortingMachine<String> m = new ShardedSortingMachine<String>(
+                    String.CASE_INSENSITIVE_ORDER, shards);
+            SortingMachine<String> mExpected = this
+                    .constructorRef(String.CASE_INSENSITIVE_ORDER);
+            String[] args = { "k", "c", "x", "a", "q", "c", "b", "z", "m",
+                "e", "d", "y" };
+            for (String s : args) {
+                m.add(s);
+                mExpected.add(s);
+            }
+            m.changeToExtractionMode();
+            mExpected.changeToExtractionMode();
+            while (mExpected.size() > 0) {
+                assertEquals(mExpected.removeFirst(), m.removeFirst());
+                assertEquals(mExpected, m);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.Comparator;
+
+import org.junit.Test;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachine1L;
+
+/**
+ * Customized JUnit test fixture for {@code SortingMachine5a} using
+ * {@code HeapConstruction.EAGER}.
+ */
+public final class SortingMachine5aEagerTest extends SortingMachineTest {
+
+    @Override
+    protected SortingMachine<String> constructorTest(Comparator<String> order) {
+        return new SortingMachine5a<String>(order,
+                SortingMachine5a.HeapConstruction.EAGER);
+    }
+
+    @Override
+    protected SortingMachine<String> constructorRef(Comparator<String> order) {
+        return new SortingMachine1L<String>(order);
+    }
+
+    /**
+     * Test that addAll keeps the heap both when it adds fewer entries than
+     * there already are (sifting each one up) and when it adds more (building
+     * the heap again).
+     */
+    @Test
+    public void testAddAllArray() {
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER,
+                SortingMachine5a.HeapConstruction.EAGER);
+        SortingMachine<String> mExpected = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        String[] many = new String[100];
+        for (int i = 0; i < many.length; i++) {
+            many[i] = Integer.toString((i * 37) % many.length);
+            mExpected.add(many[i]);
+        }
+        String[] few = { "7", "42", "0" };
+        for (String s : few) {
+            mExpected.add(s);
+        }
+        m.add("50");
+        mExpected.add("50");
+        m.addAll(many);
+        m.addAll(few);
+        assertEquals(mExpected, m);
+        m.changeToExtractionMode();
+        mExpected.changeToExtractionMode();
+        while (mExpected.size() > 0) {
+            assertEquals(mExpected.removeFirst(), m.removeFirst());
+        }
+    }
+
+    /**
+     * Test that entries added after going back to insertion mode are sifted
+     * up into the heap kept from extraction mode.
+     */
+    @Test
+    public void testChangeToInsertionMode() {
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER,
+                SortingMachine5a.HeapConstruction.EAGER);
+        SortingMachine<String> mExpected = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        m.addAll(new String[] { "d", "b", "f", "a" });
+        m.changeToExtractionMode();
+        assertEquals("a", m.removeFirst());
+        m.changeToInsertionMode();
+        m.add("c");
+        m.addAll(new String[] { "e", "A" });
+        for (String s : new String[] { "d", "b", "f", "c", "e", "A" }) {
+            mExpected.add(s);
+        }
+        assertEquals(mExpected, m);
+        m.changeToExtractionMode();
+        mExpected.changeToExtractionMode();
+        while (mExpected.size() > 0) {
+            assertEquals(mExpected.removeFirst(), m.removeFirst());
+        }
+    }
+
+}
@@ -0,0 +1,105 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.Test;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachine1L;
+
+/**
+ * Customized JUnit test fixture for {@code SortingMachine5a} using
+ * {@code HeapConstruction.PARALLEL}.
+ */
+public final class SortingMachine5aParallelTest extends SortingMachineTest {
+
+    @Override
+    protected SortingMachine<String> constructorTest(Comparator<String> order) {
+        return new SortingMachine5a<String>(order,
+                SortingMachine5a.HeapConstruction.PARALLEL);
+    }
+
+    @Override
+    protected SortingMachine<String> constructorRef(Comparator<String> order) {
+        return new SortingMachine1L<String>(order);
+    }
+
+    /**
+     * Number of entries in the large test cases: enough for the heap to be
+     * split into subtrees heapified in parallel.
+     */
+    private static final int LARGE = 5 * (1 << 13) + 3;
+
+    /**
+     * Adds {@code args} to a machine under test and to a reference machine,
+     * switches both to extraction mode, and checks that all the entries come
+     * out of both in the same order. Uses {@code Validation.SAMPLED}, since
+     * checking the whole heap on every call would take quadratic time.
+     *
+     * @param args
+     *            the entries
+     */
+    private void checkLarge(String[] args) {
+        SortingMachine5a.Validation previous = SortingMachine5a
+                .setValidation(SortingMachine5a.Validation.SAMPLED);
+        try {
+            SortingMachine<String> m = this
+                    .constructorTest(String.CASE_INSENSITIVE_ORDER);
+            SortingMachine<String> mExpected = this
+                    .constructorRef(String.CASE_INSENSITIVE_ORDER);
+            for (String s : args) {
+                m.add(s);
+                mExpected.add(s);
+            }
+            m.changeToExtractionMode();
+            mExpected.changeToExtractionMode();
+            assertEquals(mExpected, m);
+            while (mExpected.size() > 0) {
+                assertEquals(mExpected.removeFirst(), m.removeFirst());
+            }
+            assertEquals(mExpected, m);
+        } finally {
+            SortingMachine5a.setValidation(previous);
+        }
+    }
+
+    /**
+     * Test a large machine with random entries.
+     */
+    @Test
+    public void testLargeRandom() {
+        Random random = new Random(1);
+        String[] args = new String[LARGE];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = Integer.toString(random.nextInt());
+        }
+        this.checkLarge(args);
+    }
+
+    /**
+     * Test a large machine with only a few distinct entries.
+     */
+    @Test
+    public void testLargeDuplicates() {
+        Random random = new Random(2);
+        String[] args = new String[LARGE];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = Integer.toString(random.nextInt(8));
+        }
+        this.checkLarge(args);
+    }
+
+    /**
+     * Test a large machine with entries added in increasing order.
+     */
+    @Test
+    public void testLargeSorted() {
+        String[] args = new String[LARGE];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = String.format("%06d", i);
+        }
+        this.checkLarge(args);
+    }
+
+}
@@ -0,0 +1,201 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.Comparator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachine1L;
+
+/**
+ * Customized JUnit test fixture for {@code SortingMachine5a} with
+ * {@code Validation.SAMPLED}, which also checks that the sampled checks
+ * still catch a broken heap.
+ */
+public final class SortingMachine5aSampledTest extends SortingMachineTest {
+
+    /**
+     * Level of checking to restore after each test case.
+     */
+    private SortingMachine5a.Validation previous;
+
+    @Override
+    protected SortingMachine<String> constructorTest(Comparator<String> order) {
+        return new SortingMachine5a<String>(order);
+    }
+
+    @Override
+    protected SortingMachine<String> constructorRef(Comparator<String> order) {
+        return new SortingMachine1L<String>(order);
+    }
+
+    /**
+     * Switches to {@code Validation.SAMPLED} for the test case.
+     */
+    @Before
+    public void setUpValidation() {
+        this.previous = SortingMachine5a
+                .setValidation(SortingMachine5a.Validation.SAMPLED);
+    }
+
+    /**
+     * Restores the level of checking replaced by {@code setUpValidation}.
+     */
+    @After
+    public void tearDownValidation() {
+        SortingMachine5a.setValidation(this.previous);
+    }
+
+    /**
+     * Case-insensitive order that can be turned around, to break the heap of
+     * a machine behind its back.
+     */
+    private static final class ReversibleOrder implements Comparator<String> {
+
+        /**
+         * Whether the order is reversed.
+         */
+        private boolean reversed = false;
+
+        @Override
+        public int compare(String s1, String s2) {
+            int c = String.CASE_INSENSITIVE_ORDER.compare(s1, s2);
+            if (this.reversed) {
+                c = -c;
+            }
+            return c;
+        }
+
+    }
+
+    /**
+     * Reports whether assertions are enabled in {@code SortingMachine5a}.
+     *
+     * @return true iff assertions are enabled
+     */
+    private static boolean assertionsEnabled() {
+        return SortingMachine5a.class.desiredAssertionStatus();
+    }
+
+    /**
+     * Returns a machine in extraction mode holding a heap of 100 entries
+     * ordered by {@code order}.
+     *
+     * @param order
+     *            the order of the machine
+     * @return the new machine
+     */
+    private static SortingMachine5a<String> createHeap(
+            Comparator<String> order) {
+        SortingMachine5a<String> m = new SortingMachine5a<String>(order);
+        for (int i = 0; i < 100; i++) {
+            m.add(String.format("%03d", (i * 37) % 100));
+        }
+        m.changeToExtractionMode();
+        return m;
+    }
+
+    /**
+     * Calls {@code size} on {@code m} until a check of the convention fails,
+     * and returns the number of calls made.
+     *
+     * @param m
+     *            the machine, whose convention is broken
+     * @return the number of calls of {@code size} made, the last of which
+     *         failed
+     */
+    private static int callsUntilFailure(SortingMachine5a<String> m) {
+        int calls = 0;
+        boolean failed = false;
+        while (!failed) {
+            calls++;
+            try {
+                m.size();
+            } catch (AssertionError e) {
+                failed = true;
+            }
+        }
+        return calls;
+    }
+
+    /**
+     * Test the lenient parsing of the level of checking.
+     */
+    @Test
+    public void testParseValidation() {
+        assertEquals(SortingMachine5a.Validation.SAMPLED,
+                SortingMachine5a.parseValidation("SAMPLED"));
+        assertEquals(SortingMachine5a.Validation.SAMPLED,
+                SortingMachine5a.parseValidation("sampled"));
+        assertEquals(SortingMachine5a.Validation.OFF,
+                SortingMachine5a.parseValidation(" Off "));
+        assertEquals(SortingMachine5a.Validation.FULL,
+                SortingMachine5a.parseValidation("sampeld"));
+        assertEquals(SortingMachine5a.Validation.FULL,
+                SortingMachine5a.parseValidation(""));
+        assertEquals(SortingMachine5a.Validation.FULL,
+                SortingMachine5a.parseValidation(null));
+    }
+
+    /**
+     * Test that the whole convention is checked on the calls whose number is
+     * a power of two, and only on those: once the heap is broken, the checks
+     * fail after twice as many calls each time.
+     */
+    @Test
+    public void testSampledFullChecks() {
+        if (assertionsEnabled()) {
+            ReversibleOrder order = new ReversibleOrder();
+            SortingMachine5a<String> m = createHeap(order);
+            order.reversed = true;
+            callsUntilFailure(m);
+            int gap = callsUntilFailure(m);
+            assertEquals(2 * gap, callsUntilFailure(m));
+            assertEquals(4 * gap, callsUntilFailure(m));
+        }
+    }
+
+    /**
+     * Test that, between the sampled checks of the whole convention, the
+     * path of the sift in {@code removeFirst} is checked.
+     */
+    @Test
+    public void testSampledSiftPath() {
+        if (assertionsEnabled()) {
+            ReversibleOrder order = new ReversibleOrder();
+            SortingMachine5a<String> m = createHeap(order);
+            order.reversed = true;
+            /*
+             * Right after a sampled check, the next ones are far enough that
+             * only the check of the sift path can fail in removeFirst.
+             */
+            callsUntilFailure(m);
+            callsUntilFailure(m);
+            String message = null;
+            try {
+                m.removeFirst();
+            } catch (AssertionError e) {
+                message = e.getMessage();
+            }
+            assertEquals("Violation of: [$this.heap[0, last] is a heap around"
+                    + " the path from bottom to the root]", message);
+        }
+    }
+
+    /**
+     * Test that {@code Validation.OFF} does not check the convention.
+     */
+    @Test
+    public void testOffSkipsChecks() {
+        ReversibleOrder order = new ReversibleOrder();
+        SortingMachine5a<String> m = createHeap(order);
+        order.reversed = true;
+        SortingMachine5a.setValidation(SortingMachine5a.Validation.OFF);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(100, m.size());
+        }
+    }
+
+}
@@ -0,0 +1,243 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.Comparator;
+import java.util.Iterator;
+
+import org.junit.Test;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachine1L;
+
+/**
+ * Customized JUnit test fixture for stable {@code SortingMachine5a}.
+ */
+public final class SortingMachine5aStableTest extends SortingMachineTest {
+
+    @Override
+    protected SortingMachine<String> constructorTest(Comparator<String> order) {
+        return new SortingMachine5a<String>(order,
+                SortingMachine5a.HeapConstruction.RECURSIVE, true);
+    }
+
+    @Override
+    protected SortingMachine<String> constructorRef(Comparator<String> order) {
+        return new SortingMachine1L<String>(order);
+    }
+
+    /**
+     * Entries that are equal ignoring case, in the order in which they are
+     * added.
+     */
+    private static final String[] TIES = { "b", "A", "B", "a", "c", "b", "C",
+        "A", "a", "B", "c", "b" };
+
+    /**
+     * {@code TIES} sorted ignoring case, with equal entries in insertion
+     * order.
+     */
+    private static final String[] SORTED_TIES = { "A", "a", "A", "a", "b",
+        "B", "b", "B", "b", "c", "C", "c" };
+
+    /**
+     * Adds {@code TIES} to {@code m}, switches it to extraction mode, and
+     * checks that its entries come out sorted with equal entries in insertion
+     * order.
+     *
+     * @param m
+     *            the machine to check
+     */
+    private static void checkTies(SortingMachine5a<String> m) {
+        for (String s : TIES) {
+            m.add(s);
+        }
+        m.changeToExtractionMode();
+        for (String s : SORTED_TIES) {
+            assertEquals(s, m.removeFirst());
+        }
+    }
+
+    /**
+     * Test that equal entries come out in insertion order.
+     */
+    @Test
+    public void testRemoveFirstTiesInInsertionOrder() {
+        checkTies(new SortingMachine5a<String>(String.CASE_INSENSITIVE_ORDER,
+                SortingMachine5a.HeapConstruction.RECURSIVE, true));
+    }
+
+    /**
+     * Test that equal entries come out in insertion order when the heap is
+     * built as they are added.
+     */
+    @Test
+    public void testRemoveFirstTiesInInsertionOrderEager() {
+        checkTies(new SortingMachine5a<String>(String.CASE_INSENSITIVE_ORDER,
+                SortingMachine5a.HeapConstruction.EAGER, true));
+    }
+
+    /**
+     * Test that batched removal keeps equal entries in insertion order.
+     */
+    @Test
+    public void testRemoveFirstBatchTiesInInsertionOrder() {
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER,
+                SortingMachine5a.HeapConstruction.EAGER, true);
+        m.addAll(TIES);
+        m.changeToExtractionMode();
+        String[] removed = new String[TIES.length];
+        m.removeFirst(TIES.length, removed);
+        for (int i = 0; i < SORTED_TIES.length; i++) {
+            assertEquals(SORTED_TIES[i], removed[i]);
+        }
+    }
+
+    /**
+     * Test that equal entries come out in insertion order when they are
+     * added as two increasing runs, which are sorted instead of heapified.
+     */
+    @Test
+    public void testRemoveFirstTiesTwoRunsInput() {
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER,
+                SortingMachine5a.HeapConstruction.RECURSIVE, true);
+        final int half = 64;
+        for (int i = 0; i < half; i++) {
+            m.add(String.format("%02da", i));
+        }
+        for (int i = 0; i < half; i++) {
+            m.add(String.format("%02dA", i));
+        }
+        m.changeToExtractionMode();
+        for (int i = 0; i < half; i++) {
+            assertEquals(String.format("%02da", i), m.removeFirst());
+            assertEquals(String.format("%02dA", i), m.removeFirst());
+        }
+    }
+
+    /**
+     * Adds the first half of {@code TIES} to {@code m}, removes two entries,
+     * goes back to insertion mode, adds the second half, and checks that the
+     * rest come out sorted with equal entries in insertion order.
+     *
+     * @param m
+     *            the machine to check
+     */
+    private static void checkTiesAcrossModes(SortingMachine5a<String> m) {
+        final int half = TIES.length / 2;
+        for (int i = 0; i < half; i++) {
+            m.add(TIES[i]);
+        }
+        m.changeToExtractionMode();
+        assertEquals("A", m.removeFirst());
+        assertEquals("a", m.removeFirst());
+        m.changeToInsertionMode();
+        for (int i = half; i < TIES.length; i++) {
+            m.add(TIES[i]);
+        }
+        m.changeToExtractionMode();
+        String[] rest = { "A", "a", "b", "B", "b", "B", "b", "c", "C", "c" };
+        for (String s : rest) {
+            assertEquals(s, m.removeFirst());
+        }
+    }
+
+    /**
+     * Test that equal entries come out in insertion order across a change
+     * back to insertion mode.
+     */
+    @Test
+    public void testChangeToInsertionModeTies() {
+        checkTiesAcrossModes(new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER,
+                SortingMachine5a.HeapConstruction.RECURSIVE, true));
+        checkTiesAcrossModes(new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER,
+                SortingMachine5a.HeapConstruction.EAGER, true));
+    }
+
+    /**
+     * Test that equal entries come out in insertion order across a change
+     * back to insertion mode, when the entries were sorted instead of
+     * heapified.
+     */
+    @Test
+    public void testChangeToInsertionModeTiesTwoRunsInput() {
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER,
+                SortingMachine5a.HeapConstruction.RECURSIVE, true);
+        final int half = 64;
+        for (int i = 0; i < half; i++) {
+            m.add(String.format("%02da", i));
+        }
+        for (int i = 0; i < half; i++) {
+            m.add(String.format("%02dA", i));
+        }
+        m.changeToExtractionMode();
+        for (int i = 0; i < half / 2; i++) {
+            assertEquals(String.format("%02da", i), m.removeFirst());
+            assertEquals(String.format("%02dA", i), m.removeFirst());
+        }
+        m.changeToInsertionMode();
+        for (int i = half / 2; i < half; i++) {
+            m.add(String.format("%02da", i));
+        }
+        m.changeToExtractionMode();
+        for (int i = half / 2; i < half; i++) {
+            assertEquals(String.format("%02da", i), m.removeFirst());
+            assertEquals(String.format("%02dA", i), m.removeFirst());
+            assertEquals(String.format("%02da", i), m.removeFirst());
+        }
+    }
+
+    /**
+     * Test that melding stable machines orders the entries of the source
+     * after those of the receiver, in the order in which they were added,
+     * whether the source is in insertion or extraction mode.
+     */
+    @Test
+    public void testMeldTies() {
+        for (int k = 0; k < 2; k++) {
+            SortingMachine5a<String> m = new SortingMachine5a<String>(
+                    String.CASE_INSENSITIVE_ORDER,
+                    SortingMachine5a.HeapConstruction.EAGER, true);
+            SortingMachine5a<String> source = new SortingMachine5a<String>(
+                    String.CASE_INSENSITIVE_ORDER,
+                    SortingMachine5a.HeapConstruction.RECURSIVE, true);
+            final int half = TIES.length / 2;
+            for (int i = 0; i < half; i++) {
+                m.add(TIES[i]);
+            }
+            for (int i = half; i < TIES.length; i++) {
+                source.add(TIES[i]);
+            }
+            if (k == 1) {
+                source.changeToExtractionMode();
+            }
+            m.meld(source);
+            m.changeToExtractionMode();
+            for (String s : SORTED_TIES) {
+                assertEquals(s, m.removeFirst());
+            }
+        }
+    }
+
+    /**
+     * Test that sortedIterator returns equal entries in insertion order.
+     */
+    @Test
+    public void testSortedIteratorTies() {
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER,
+                SortingMachine5a.HeapConstruction.RECURSIVE, true);
+        m.addAll(TIES);
+        m.changeToExtractionMode();
+        Iterator<String> it = m.sortedIterator();
+        for (String s : SORTED_TIES) {
+            assertEquals(s, it.next());
+        }
+        assertEquals(false, it.hasNext());
+        assertEquals(TIES.length, m.size());
+    }
+
+}
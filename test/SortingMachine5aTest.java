@@ -1,4 +1,21 @@
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
 
 import components.sortingmachine.SortingMachine;
 import components.sortingmachine.SortingMachine1L;
@@ -18,4 +35,633 @@ public final class SortingMachine5aTest extends SortingMachineTest {
         return new SortingMachine1L<String>(order);
     }
 
+    /**
+     * Test that addAll from an array adds every entry, on top of entries
+     * already added.
+     */
+    @Test
+    public void testAddAllArray() {
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        SortingMachine<String> mExpected = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        m.add("pear");
+        mExpected.add("pear");
+        String[] args = new String[100];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = Integer.toString((i * 37) % args.length);
+            mExpected.add(args[i]);
+        }
+        m.addAll(args);
+        assertEquals(mExpected, m);
+    }
+
+    /**
+     * Test that addAll from a collection and from a non-collection iterable
+     * add every entry.
+     */
+    @Test
+    public void testAddAllIterable() {
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        SortingMachine<String> mExpected = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        List<String> list = Arrays.asList("b", "A", "c", "a");
+        SortingMachine<String> other = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        for (String s : list) {
+            other.add(s);
+            mExpected.add(s);
+            mExpected.add(s);
+        }
+        m.addAll(list);
+        m.addAll(other);
+        assertEquals(mExpected, m);
+    }
+
+    /**
+     * Test that addAll from a spliterator adds every remaining entry, and that
+     * removeFirst then returns them in order.
+     */
+    @Test
+    public void testAddAllSpliterator() {
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        m.addAll(Arrays.asList("b", "A", "c", "a").spliterator());
+        m.changeToExtractionMode();
+        assertEquals(4, m.size());
+        assertEquals("A", m.removeFirst());
+        assertEquals("a", m.removeFirst());
+        assertEquals("b", m.removeFirst());
+        assertEquals("c", m.removeFirst());
+    }
+
+    /**
+     * Test that removeFirst(n, array) returns the same entries, in the same
+     * order, as n calls to removeFirst, both when it removes less than half
+     * of the entries and when it removes all of them.
+     */
+    @Test
+    public void testRemoveFirstBatchArray() {
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        SortingMachine<String> mExpected = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        String[] args = { "b", "A", "e", "c", "F", "d", "G" };
+        m.addAll(args);
+        for (String s : args) {
+            mExpected.add(s);
+        }
+        m.changeToExtractionMode();
+        mExpected.changeToExtractionMode();
+        String[] batch = new String[args.length];
+        m.removeFirst(3, batch);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(mExpected.removeFirst(), batch[i]);
+        }
+        assertEquals(mExpected, m);
+        m.removeFirst(m.size(), batch);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(mExpected.removeFirst(), batch[i]);
+        }
+        assertEquals(mExpected, m);
+    }
+
+    /**
+     * Test that removeFirst(n, action) passes the same entries, in the same
+     * order, as n calls to removeFirst, when it removes more than half of the
+     * entries.
+     */
+    @Test
+    public void testRemoveFirstBatchConsumer() {
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        SortingMachine<String> mExpected = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        String[] args = { "b", "A", "e", "c", "F", "d", "G" };
+        m.addAll(args);
+        for (String s : args) {
+            mExpected.add(s);
+        }
+        m.changeToExtractionMode();
+        mExpected.changeToExtractionMode();
+        List<String> batch = new ArrayList<String>();
+        m.removeFirst(5, batch::add);
+        assertEquals(5, batch.size());
+        for (String s : batch) {
+            assertEquals(mExpected.removeFirst(), s);
+        }
+        assertEquals(mExpected, m);
+    }
+
+    /**
+     * Test that the action passed to removeFirst(n, action) may call size and
+     * removeFirst on the machine, both when it removes less than half of the
+     * entries and when it removes more than half of them.
+     */
+    @Test
+    public void testRemoveFirstBatchConsumerCallsMachine() {
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        String[] args = { "b", "A", "e", "c", "F", "d", "G", "h", "I" };
+        m.addAll(args);
+        m.changeToExtractionMode();
+        List<String> seen = new ArrayList<String>();
+        Consumer<String> action = x -> {
+            seen.add(x);
+            seen.add(Integer.toString(m.size()));
+            if (m.size() > 0) {
+                seen.add(m.removeFirst());
+            }
+        };
+        m.removeFirst(2, action);
+        assertEquals(Arrays.asList("A", "7", "c", "b", "6", "d"), seen);
+        seen.clear();
+        m.removeFirst(3, action);
+        assertEquals(Arrays.asList("e", "2", "h", "F", "1", "I", "G", "0"),
+                seen);
+        assertEquals(0, m.size());
+    }
+
+    /**
+     * Adds {@code args} to a new machine and to the reference, switches both
+     * to extraction mode, removes a few entries with removeFirst(n, array)
+     * and the others one at a time, and checks that they come out in the
+     * same order.
+     *
+     * @param args
+     *            the entries to add, in order
+     */
+    private void checkRemoveFirst(String[] args) {
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        SortingMachine<String> mExpected = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        m.addAll(args);
+        for (String s : args) {
+            mExpected.add(s);
+        }
+        m.changeToExtractionMode();
+        mExpected.changeToExtractionMode();
+        String[] batch = new String[3];
+        m.removeFirst(batch.length, batch);
+        for (String s : batch) {
+            assertEquals(mExpected.removeFirst(), s);
+        }
+        assertEquals(mExpected, m);
+        while (mExpected.size() > 0) {
+            assertEquals(mExpected.removeFirst(), m.removeFirst());
+        }
+        assertEquals(mExpected, m);
+    }
+
+    /**
+     * Test entries added in increasing order.
+     */
+    @Test
+    public void testRemoveFirstIncreasingInput() {
+        String[] args = new String[200];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = String.format("%03d", i);
+        }
+        this.checkRemoveFirst(args);
+    }
+
+    /**
+     * Test entries added in decreasing order.
+     */
+    @Test
+    public void testRemoveFirstDecreasingInput() {
+        String[] args = new String[200];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = String.format("%03d", args.length - i);
+        }
+        this.checkRemoveFirst(args);
+    }
+
+    /**
+     * Test entries added as two interleaved increasing runs.
+     */
+    @Test
+    public void testRemoveFirstTwoRunsInput() {
+        String[] args = new String[200];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = String.format("%03d", (2 * i) % args.length + i / 100);
+        }
+        this.checkRemoveFirst(args);
+    }
+
+    /**
+     * Test that an instrumented machine records its operations, and that the
+     * counts can be read over JMX.
+     *
+     * @throws JMException
+     *             if the MBean cannot be read
+     */
+    @Test
+    public void testStats() throws JMException {
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        SortingMachineStats stats = new SortingMachineStats();
+        m.setStats(stats);
+        String[] args = { "b", "A", "e", "c", "F", "d", "G" };
+        m.add(args[0]);
+        m.addAll(Arrays.copyOfRange(args, 1, args.length));
+        m.changeToExtractionMode();
+        m.removeFirst();
+        m.removeFirst(2, new String[2]);
+        assertEquals(String.CASE_INSENSITIVE_ORDER, m.order());
+        assertEquals(args.length, stats.getEntriesAdded());
+        assertEquals(3, stats.getEntriesRemoved());
+        assertEquals(2, stats.getRemoveFirstCount());
+        assertEquals(1, stats.getChangeToExtractionModeCount());
+        assertEquals(true, stats.getComparisons() > 0);
+        assertEquals(true, stats.getSiftDowns() > 0);
+        ObjectName name = stats.register("testStats");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            assertEquals((long) args.length,
+                    server.getAttribute(name, "EntriesAdded"));
+            server.invoke(name, "reset", null, null);
+            assertEquals(0, stats.getEntriesAdded());
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+
+    /**
+     * Test machines that are emptied, refilled and transferred several times,
+     * with a retained capacity small enough for the heap to shrink as it is
+     * drained, against the reference implementation.
+     */
+    @Test
+    public void testReuseAcrossCycles() {
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        SortingMachine5a<String> n = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER,
+                SortingMachine5a.HeapConstruction.EAGER, true);
+        m.retainCapacity(16);
+        n.retainCapacity(16);
+        SortingMachine<String> mExpected = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        final int size = 80;
+        for (int cycle = 0; cycle < 3; cycle++) {
+            for (int i = 0; i < size; i++) {
+                String s = Integer.toString((i * 31 + cycle) % size);
+                m.add(s);
+                mExpected.add(s);
+            }
+            m.changeToExtractionMode();
+            mExpected.changeToExtractionMode();
+            while (mExpected.size() > size / 8) {
+                assertEquals(mExpected.removeFirst(), m.removeFirst());
+            }
+            String[] batch = new String[mExpected.size() / 2];
+            m.removeFirst(batch.length, batch);
+            for (String s : batch) {
+                assertEquals(mExpected.removeFirst(), s);
+            }
+            assertEquals(mExpected, m);
+            n.transferFrom(m);
+            assertEquals(mExpected, n);
+            m.transferFrom(n);
+            m.clear();
+            mExpected.clear();
+            assertEquals(mExpected, m);
+        }
+    }
+
+    /**
+     * Adds {@code before} to {@code m} and to the reference, removes
+     * {@code n} entries from both, switches {@code m} back to insertion mode
+     * and the reference to a new machine with the rest, adds {@code after} to
+     * both, and checks that all the entries left then come out in the same
+     * order.
+     *
+     * @param m
+     *            the machine to check, in insertion mode and empty
+     * @param before
+     *            the entries to add first
+     * @param n
+     *            the number of entries to remove in between
+     * @param after
+     *            the entries to add after going back to insertion mode
+     */
+    private void checkChangeToInsertionMode(SortingMachine5a<String> m,
+            String[] before, int n, String[] after) {
+        SortingMachine<String> mExpected = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        m.addAll(before);
+        for (String s : before) {
+            mExpected.add(s);
+        }
+        m.changeToExtractionMode();
+        mExpected.changeToExtractionMode();
+        for (int i = 0; i < n; i++) {
+            assertEquals(mExpected.removeFirst(), m.removeFirst());
+        }
+        m.changeToInsertionMode();
+        SortingMachine<String> mRest = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        while (mExpected.size() > 0) {
+            mRest.add(mExpected.removeFirst());
+        }
+        for (String s : after) {
+            m.add(s);
+            mRest.add(s);
+        }
+        assertEquals(mRest, m);
+        m.changeToExtractionMode();
+        mRest.changeToExtractionMode();
+        while (mRest.size() > 0) {
+            assertEquals(mRest.removeFirst(), m.removeFirst());
+        }
+        assertEquals(mRest, m);
+    }
+
+    /**
+     * Test going back to insertion mode and adding both a few entries, which
+     * are sifted up, and many, whose ancestors are sifted down.
+     */
+    @Test
+    public void testChangeToInsertionMode() {
+        String[] before = new String[100];
+        for (int i = 0; i < before.length; i++) {
+            before[i] = Integer.toString((i * 37) % before.length);
+        }
+        String[] few = { "50", "0", "x" };
+        String[] many = new String[60];
+        for (int i = 0; i < many.length; i++) {
+            many[i] = Integer.toString((i * 7) % 40);
+        }
+        this.checkChangeToInsertionMode(
+                new SortingMachine5a<String>(String.CASE_INSENSITIVE_ORDER),
+                before, 30, few);
+        this.checkChangeToInsertionMode(
+                new SortingMachine5a<String>(String.CASE_INSENSITIVE_ORDER),
+                before, 30, many);
+    }
+
+    /**
+     * Test going back to insertion mode after entries added in increasing
+     * order, which are sorted instead of heapified.
+     */
+    @Test
+    public void testChangeToInsertionModeIncreasingInput() {
+        String[] before = new String[200];
+        for (int i = 0; i < before.length; i++) {
+            before[i] = String.format("%03d", i);
+        }
+        String[] after = { "150", "000", "250", "099" };
+        this.checkChangeToInsertionMode(
+                new SortingMachine5a<String>(String.CASE_INSENSITIVE_ORDER),
+                before, 50, after);
+    }
+
+    /**
+     * Test going back to insertion mode after removing all the entries, and
+     * without adding any.
+     */
+    @Test
+    public void testChangeToInsertionModeEmptyAndNoEntries() {
+        String[] args = { "b", "A", "c", "a" };
+        this.checkChangeToInsertionMode(
+                new SortingMachine5a<String>(String.CASE_INSENSITIVE_ORDER),
+                args, args.length, args);
+        this.checkChangeToInsertionMode(
+                new SortingMachine5a<String>(String.CASE_INSENSITIVE_ORDER),
+                args, 1, new String[0]);
+    }
+
+    /**
+     * Test melding machines in insertion mode, whose entries are staged.
+     */
+    @Test
+    public void testMeldInsertionMode() {
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        SortingMachine5a<String> source = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER,
+                SortingMachine5a.HeapConstruction.EAGER);
+        SortingMachine<String> mExpected = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        SortingMachine<String> sourceExpected = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        for (String s : new String[] { "b", "A", "d", "a", "c", "B" }) {
+            mExpected.add(s);
+        }
+        m.addAll(new String[] { "b", "A", "d" });
+        source.addAll(new String[] { "a", "c", "B" });
+        m.meld(source);
+        assertEquals(mExpected, m);
+        assertEquals(sourceExpected, source);
+        m.changeToExtractionMode();
+        mExpected.changeToExtractionMode();
+        while (mExpected.size() > 0) {
+            assertEquals(mExpected.removeFirst(), m.removeFirst());
+        }
+    }
+
+    /**
+     * Test melding a machine in extraction mode with many sources, some in
+     * extraction mode, whose heaps are appended to its heap, and some in
+     * insertion mode, whose staged entries are too.
+     */
+    @Test
+    public void testMeldExtractionMode() {
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        SortingMachine<String> mExpected = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < 50; i++) {
+            String s = String.format("%03d", (i * 37) % 100);
+            m.add(s);
+            mExpected.add(s);
+        }
+        m.changeToExtractionMode();
+        mExpected.changeToExtractionMode();
+        assertEquals(mExpected.removeFirst(), m.removeFirst());
+        SortingMachine<String> mRest = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        while (mExpected.size() > 0) {
+            mRest.add(mExpected.removeFirst());
+        }
+        for (int k = 0; k < 10; k++) {
+            SortingMachine5a<String> source = new SortingMachine5a<String>(
+                    String.CASE_INSENSITIVE_ORDER,
+                    SortingMachine5a.HeapConstruction.values()[k % 4]);
+            for (int i = 0; i < 3 * k; i++) {
+                String s = String.format("%03d", (i * 53 + k) % 120);
+                source.add(s);
+                mRest.add(s);
+            }
+            if (k % 2 == 0) {
+                source.changeToExtractionMode();
+            }
+            m.meld(source);
+            assertEquals(0, source.size());
+        }
+        mRest.changeToExtractionMode();
+        assertEquals(mRest, m);
+        while (mRest.size() > 0) {
+            assertEquals(mRest.removeFirst(), m.removeFirst());
+        }
+    }
+
+    /**
+     * Adds {@code args} to a new machine and to the reference, switches both
+     * to extraction mode, removes {@code n} entries from both, and checks that
+     * sortedIterator returns the others in the order in which removeFirst
+     * does, without changing the machine.
+     *
+     * @param args
+     *            the entries to add, in order
+     * @param n
+     *            the number of entries to remove first
+     */
+    private void checkSortedIterator(String[] args, int n) {
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        SortingMachine<String> mExpected = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        m.addAll(args);
+        for (String s : args) {
+            mExpected.add(s);
+        }
+        m.changeToExtractionMode();
+        mExpected.changeToExtractionMode();
+        for (int i = 0; i < n; i++) {
+            assertEquals(mExpected.removeFirst(), m.removeFirst());
+        }
+        List<String> seen = new ArrayList<String>();
+        Iterator<String> it = m.sortedIterator();
+        while (it.hasNext()) {
+            seen.add(it.next());
+        }
+        assertEquals(mExpected, m);
+        for (String s : seen) {
+            assertEquals(mExpected.removeFirst(), s);
+        }
+        assertEquals(0, mExpected.size());
+    }
+
+    /**
+     * Test sortedIterator on a heap.
+     */
+    @Test
+    public void testSortedIterator() {
+        String[] args = new String[100];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = Integer.toString((i * 37) % args.length);
+        }
+        this.checkSortedIterator(args, 0);
+        this.checkSortedIterator(args, 10);
+        this.checkSortedIterator(args, args.length);
+    }
+
+    /**
+     * Test sortedIterator on entries added in increasing order, which are
+     * sorted instead of heapified.
+     */
+    @Test
+    public void testSortedIteratorIncreasingInput() {
+        String[] args = new String[200];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = String.format("%03d", i);
+        }
+        this.checkSortedIterator(args, 10);
+    }
+
+    /**
+     * Checks that the spliterator of {@code m} has the entries of {@code m},
+     * both when split all the way down and in a parallel stream.
+     *
+     * @param m
+     *            the machine to check
+     */
+    private void checkSpliterator(SortingMachine5a<String> m) {
+        List<String> expected = new ArrayList<String>();
+        for (String s : m) {
+            expected.add(s);
+        }
+        expected.sort(null);
+        List<Spliterator<String>> parts = new ArrayList<Spliterator<String>>();
+        parts.add(m.spliterator());
+        assertEquals(m.size(), parts.get(0).estimateSize());
+        for (int i = 0; i < parts.size(); i++) {
+            Spliterator<String> prefix = parts.get(i).trySplit();
+            while (prefix != null) {
+                parts.add(prefix);
+                prefix = parts.get(i).trySplit();
+            }
+        }
+        List<String> seen = new ArrayList<String>();
+        for (Spliterator<String> part : parts) {
+            long size = seen.size() + part.estimateSize();
+            part.forEachRemaining(seen::add);
+            assertEquals(size, seen.size());
+            assertEquals(0, part.estimateSize());
+        }
+        seen.sort(null);
+        assertEquals(expected, seen);
+        List<String> collected = StreamSupport.stream(m.spliterator(), true)
+                .sorted().collect(Collectors.toList());
+        assertEquals(expected, collected);
+    }
+
+    /**
+     * Test spliterator with the entries in the buffer, in the heap, and in
+     * both.
+     */
+    @Test
+    public void testSpliterator() {
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        this.checkSpliterator(m);
+        for (int i = 0; i < 5000; i++) {
+            m.add(String.format("%05d", (i * 37) % 5000));
+        }
+        this.checkSpliterator(m);
+        m.changeToExtractionMode();
+        this.checkSpliterator(m);
+        m.changeToInsertionMode();
+        for (int i = 0; i < 3000; i++) {
+            m.add(String.format("x%04d", i));
+        }
+        this.checkSpliterator(m);
+        assertEquals(8000, m.size());
+    }
+
+    /**
+     * Test sortedStream against removeFirst, and that it leaves the machine
+     * unchanged.
+     */
+    @Test
+    public void testSortedStream() {
+        SortingMachine5a<String> m = new SortingMachine5a<String>(
+                String.CASE_INSENSITIVE_ORDER);
+        SortingMachine<String> mExpected = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < 100; i++) {
+            String s = Integer.toString((i * 37) % 100);
+            m.add(s);
+            mExpected.add(s);
+        }
+        m.changeToExtractionMode();
+        mExpected.changeToExtractionMode();
+        List<String> first = m.sortedStream().limit(10)
+                .collect(Collectors.toList());
+        List<String> all = m.sortedStream().collect(Collectors.toList());
+        assertEquals(mExpected, m);
+        for (int i = 0; i < all.size(); i++) {
+            String s = mExpected.removeFirst();
+            if (i < first.size()) {
+                assertEquals(s, first.get(i));
+            }
+            assertEquals(s, all.get(i));
+        }
+        assertEquals(0, mExpected.size());
+    }
+
 }
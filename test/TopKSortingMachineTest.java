@@ -0,0 +1,71 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.Comparator;
+
+import org.junit.Test;
+
+import components.sortingmachine.SortingMachine;
+import components.sortingmachine.SortingMachine1L;
+
+/**
+ * Customized JUnit test fixture for {@code TopKSortingMachine}. With a bound
+ * larger than any test case it behaves like any other {@code SortingMachine};
+ * the extra test cases below exercise the bound itself.
+ */
+public final class TopKSortingMachineTest extends SortingMachineTest {
+
+    /**
+     * Bound large enough for every inherited test case.
+     */
+    private static final int K = 100;
+
+    @Override
+    protected SortingMachine<String> constructorTest(Comparator<String> order) {
+        return new TopKSortingMachine<String>(order, K);
+    }
+
+    @Override
+    protected SortingMachine<String> constructorRef(Comparator<String> order) {
+        return new SortingMachine1L<String>(order);
+    }
+
+    /**
+     * Test that add keeps only the k smallest entries.
+     */
+    @Test
+    public void testAddBeyondBound() {
+        SortingMachine<String> m = new TopKSortingMachine<String>(
+                String.CASE_INSENSITIVE_ORDER, 3);
+        SortingMachine<String> mExpected = this
+                .constructorRef(String.CASE_INSENSITIVE_ORDER);
+        String[] args = { "pear", "fig", "apple", "kiwi", "banana", "cherry" };
+        for (String s : args) {
+            m.add(s);
+        }
+        mExpected.add("apple");
+        mExpected.add("banana");
+        mExpected.add("cherry");
+        assertEquals(mExpected, m);
+    }
+
+    /**
+     * Test that removeFirst returns the k smallest entries in order, keeping
+     * the older one among equal entries.
+     */
+    @Test
+    public void testRemoveFirstBeyondBound() {
+        SortingMachine<String> m = new TopKSortingMachine<String>(
+                String.CASE_INSENSITIVE_ORDER, 3);
+        String[] args = { "b", "A", "c", "a", "B", "d" };
+        for (String s : args) {
+            m.add(s);
+        }
+        m.changeToExtractionMode();
+        assertEquals(3, m.size());
+        assertEquals("A", m.removeFirst());
+        assertEquals("a", m.removeFirst());
+        assertEquals("b", m.removeFirst());
+        assertEquals(0, m.size());
+    }
+
+}